@@ -0,0 +1,39 @@
+package com.attask.benchmarks;
+
+import com.attask.templating.TemplateParameters;
+import com.attask.utils.CollectionUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses implementation parameters, the work done for every implementation loaded or synced.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParameterBenchmark {
+	@Param({"1", "20", "200"})
+	public int variables;
+
+	private String parameterText;
+
+	@Setup
+	public void setUp() {
+		parameterText = SyntheticConfigs.parameters(variables, 0);
+	}
+
+	@Benchmark
+	public Map<String, String> expandToMap() {
+		return CollectionUtils.expandToMap(parameterText);
+	}
+
+	@Benchmark
+	public TemplateParameters parseTemplateParameters() {
+		return TemplateParameters.parse(parameterText);
+	}
+}
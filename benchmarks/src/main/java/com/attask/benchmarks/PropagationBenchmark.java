@@ -0,0 +1,99 @@
+package com.attask.benchmarks;
+
+import com.attask.templating.*;
+import com.attask.utils.RenderBuffer;
+import com.google.common.collect.ImmutableMap;
+import hudson.model.Descriptor;
+import hudson.model.ItemGroup;
+import hudson.model.TopLevelItem;
+import hudson.tasks.BuildWrapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Propagates a template to all of its implementations in a mocked ItemGroup.
+ * Covers looking up the implementations, dispatching them to the propagator and rendering and hashing each one.
+ * Unmarshalling and saving the implementations needs a running Jenkins, so the wrappers stop once the config is rendered.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PropagationBenchmark {
+	private static final String TEMPLATE_NAME = "benchmark-template";
+
+	@Param({"10", "1000", "10000"})
+	public int implementations;
+
+	@Param({"20", "200"})
+	public int variables;
+
+	@Param({"10240", "102400"})
+	public int configSize;
+
+	private ItemGroup hudson;
+	private TemplateProject template;
+	private TemplatePropagator parallelPropagator;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() throws IOException {
+		template = SyntheticConfigs.publishTemplate(TEMPLATE_NAME, SyntheticConfigs.template(configSize, variables), SyntheticConfigs.defaults(variables));
+
+		hudson = mock(ItemGroup.class, withSettings().stubOnly());
+		List<TopLevelItem> items = new ArrayList<TopLevelItem>();
+		for (int i = 0; i < implementations; i++) {
+			String name = "implementation-" + i;
+			TemplateImplementationProject implementation = mock(TemplateImplementationProject.class, withSettings().stubOnly());
+			when(implementation.getName()).thenReturn(name);
+			when(implementation.getBuildWrappers()).thenReturn(ImmutableMap.<Descriptor<BuildWrapper>, BuildWrapper>of(
+					ImplementTemplateBuildWrapper.DESCRIPTOR, new RenderOnlyWrapper(TEMPLATE_NAME, SyntheticConfigs.parameters(variables, i))
+			));
+			when(hudson.getItem(name)).thenReturn(implementation);
+			items.add(implementation);
+		}
+		when(hudson.getItems()).thenReturn(items);
+
+		parallelPropagator = new TemplatePropagator(Runtime.getRuntime().availableProcessors());
+	}
+
+	@Benchmark
+	public void updateImplementationsOfTemplate() throws IOException {
+		ImplementTemplateBuildWrapper.updateImplementationsOfTemplate(hudson, template);
+	}
+
+	@Benchmark
+	public void updateImplementationsOfTemplateInParallel() throws IOException {
+		parallelPropagator.propagate(hudson, template);
+	}
+
+	/**
+	 * Renders the template's current snapshot and hashes the implementation's config like a real sync, but doesn't unmarshal or save it.
+	 */
+	public static class RenderOnlyWrapper extends ImplementTemplateBuildWrapper {
+		public RenderOnlyWrapper(String templateName, String parameters) {
+			super(templateName, parameters);
+		}
+
+		@Override
+		public boolean updateImplementationWithTemplate(TemplateImplementationProject implementation, TemplateProject template, boolean force) throws IOException {
+			RenderBuffer buffer = RenderBuffer.acquire();
+			try {
+				render(template, buffer);
+				return buffer.sha1() != null;
+			} finally {
+				buffer.release();
+			}
+		}
+	}
+}
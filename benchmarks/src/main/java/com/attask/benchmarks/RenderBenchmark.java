@@ -0,0 +1,130 @@
+package com.attask.benchmarks;
+
+import com.attask.templating.CompiledTemplate;
+import com.attask.templating.ImplementTemplateBuildWrapper;
+import com.attask.templating.TemplateParameters;
+import com.attask.templating.TemplateSnapshot;
+import com.attask.templating.TemplateSnapshots;
+import com.attask.utils.CollectionUtils;
+import com.attask.utils.RenderBuffer;
+import com.attask.utils.TokenReplacer;
+import com.attask.utils.UnixUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Renders a template config with every rendering path the plugin has:
+ * the original per-pattern regex sed, the single pass token replacer, the byte level replacer and the compiled template.
+ * The byte level replacer and compiled template render the template's snapshot with an implementation's parameters
+ * laid over the template's defaults, the same as a sync does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+	@Param({"10240", "1048576", "5242880"})
+	public int configSize;
+
+	@Param({"1", "20", "200"})
+	public int variables;
+
+	private byte[] template;
+	private TemplateSnapshot snapshot;
+	private ImplementTemplateBuildWrapper wrapper;
+	private Map<Pattern, String> patterns;
+	private TokenReplacer replacer;
+	private TemplateParameters parameters;
+	private CompiledTemplate compiledTemplate;
+
+	@Setup
+	public void setUp() throws IOException {
+		String config = SyntheticConfigs.template(configSize, variables);
+		template = config.getBytes(SyntheticConfigs.CHARSET);
+		snapshot = TemplateSnapshots.getInstance().get(SyntheticConfigs.publishTemplate("benchmark-template", config, SyntheticConfigs.defaults(variables)));
+
+		String parameterText = SyntheticConfigs.parameters(variables, 0);
+		wrapper = new ImplementTemplateBuildWrapper("benchmark-template", parameterText);
+		parameters = wrapper.getParsedParameters(snapshot.getDefaults());
+
+		patterns = new LinkedHashMap<Pattern, String>();
+		Map<String, String> replacements = new LinkedHashMap<String, String>();
+		patterns.put(Pattern.compile(CompiledTemplate.TEMPLATE_CLASS_TOKEN), CompiledTemplate.IMPLEMENTATION_CLASS_TOKEN);
+		replacements.put(CompiledTemplate.TEMPLATE_CLASS_TOKEN, CompiledTemplate.IMPLEMENTATION_CLASS_TOKEN);
+		for (Map.Entry<String, String> parameter : CollectionUtils.expandToMap(parameterText).entrySet()) {
+			patterns.put(Pattern.compile("\\$\\$" + parameter.getKey()), parameter.getValue());
+			replacements.put("$$" + parameter.getKey(), parameter.getValue());
+		}
+		replacer = new TokenReplacer(replacements);
+		compiledTemplate = snapshot.getCompiled();
+	}
+
+	@Benchmark
+	public int sedWithPatterns() throws IOException {
+		RenderBuffer buffer = RenderBuffer.acquire();
+		try {
+			UnixUtils.sed(new ByteArrayInputStream(template), buffer, patterns);
+			return buffer.size();
+		} finally {
+			buffer.release();
+		}
+	}
+
+	@Benchmark
+	public int replaceWithTokenReplacer() throws IOException {
+		RenderBuffer buffer = RenderBuffer.acquire();
+		try {
+			buffer.write(replacer.replace(new String(template, SyntheticConfigs.CHARSET)).getBytes(SyntheticConfigs.CHARSET));
+			return buffer.size();
+		} finally {
+			buffer.release();
+		}
+	}
+
+	@Benchmark
+	public int sedSnapshotWithByteReplacer() throws IOException {
+		RenderBuffer buffer = RenderBuffer.acquire();
+		try {
+			UnixUtils.sed(Channels.newChannel(snapshot.openStream()), Channels.newChannel(buffer), parameters.getReplacer());
+			return buffer.size();
+		} finally {
+			buffer.release();
+		}
+	}
+
+	@Benchmark
+	public int renderCompiledTemplate() throws IOException {
+		RenderBuffer buffer = RenderBuffer.acquire();
+		try {
+			compiledTemplate.render(parameters, buffer);
+			return buffer.size();
+		} finally {
+			buffer.release();
+		}
+	}
+
+	@Benchmark
+	public int renderSnapshotWithWrapper() throws IOException {
+		RenderBuffer buffer = RenderBuffer.acquire();
+		try {
+			wrapper.render(snapshot, buffer);
+			return buffer.size();
+		} finally {
+			buffer.release();
+		}
+	}
+
+	@Benchmark
+	public CompiledTemplate compileTemplate() {
+		return CompiledTemplate.compile(template);
+	}
+}
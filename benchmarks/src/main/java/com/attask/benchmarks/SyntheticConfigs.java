@@ -0,0 +1,91 @@
+package com.attask.benchmarks;
+
+import com.attask.templating.TemplateDefaultsProperty;
+import com.attask.templating.TemplateProject;
+import com.attask.templating.TemplateSnapshots;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Generates template configs and implementation parameters shaped like real ones, in any size.
+ */
+public class SyntheticConfigs {
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Builds a template config.xml of roughly the given size that uses each of the given number of variables,
+	 * spread evenly through the file.
+	 * @param sizeInBytes The approximate size of the config.
+	 * @param variables How many different $$VARIABLES the config uses.
+	 * @return The config.
+	 */
+	public static String template(int sizeInBytes, int variables) {
+		StringBuilder sb = new StringBuilder(sizeInBytes + 256);
+		sb.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+		sb.append("<com.attask.templating.TemplateProject>\n");
+		sb.append("  <actions/>\n  <description>Generated template</description>\n  <builders>\n");
+		int line = 0;
+		while (sb.length() < sizeInBytes) {
+			sb.append("    <hudson.tasks.Shell>\n      <command>cd /var/lib/build/workspace &amp;&amp; ./gradlew clean build -Pbranch=")
+					.append("$$").append(variableName(line % variables))
+					.append(" -Pstep=").append(line)
+					.append("</command>\n    </hudson.tasks.Shell>\n");
+			line++;
+		}
+		sb.append("  </builders>\n</com.attask.templating.TemplateProject>\n");
+		return sb.toString();
+	}
+
+	/**
+	 * @param variables How many variables to give values to.
+	 * @param implementation Which implementation the values are for, so each implementation gets different values.
+	 * @return Parameters formatted as a properties file, like the ones stored by ImplementTemplateBuildWrapper.
+	 */
+	public static String parameters(int variables, int implementation) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("# generated parameters\n");
+		for (int i = 0; i < variables; i++) {
+			sb.append(variableName(i)).append('=').append("value-").append(i).append('-').append(implementation).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param variables How many variables to give default values to.
+	 * @return Default parameters for a template, formatted like a TemplateDefaultsProperty's.
+	 */
+	public static String defaults(int variables) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < variables; i++) {
+			sb.append(variableName(i)).append('=').append("default-").append(i).append('\n');
+		}
+		return sb.toString();
+	}
+
+	public static String variableName(int index) {
+		return "VARIABLE_" + index;
+	}
+
+	/**
+	 * Mocks a template with the given config and defaults and publishes its snapshot, the same as saving the template does,
+	 * so it can be rendered through TemplateSnapshots like a real one.
+	 * @param name The template's name.
+	 * @param config The template's config.xml.
+	 * @param defaults The template's default parameters, or null for none.
+	 * @return The template.
+	 */
+	public static TemplateProject publishTemplate(String name, String config, String defaults) throws IOException {
+		TemplateProject template = mock(TemplateProject.class, withSettings().stubOnly());
+		when(template.getName()).thenReturn(name);
+		if (defaults != null) {
+			when(template.getProperty(TemplateDefaultsProperty.class)).thenReturn(new TemplateDefaultsProperty(defaults));
+		}
+		TemplateSnapshots.getInstance().publish(template, config.getBytes(CHARSET));
+		return template;
+	}
+}
@@ -0,0 +1,48 @@
+package com.attask.benchmarks;
+
+import com.attask.templating.CompiledTemplate;
+import com.attask.templating.TemplateProject;
+import com.attask.templating.TemplateSnapshots;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the variables used by a template, the work done for each template every time a scaffolding view is shown.
+ * Normally the names come from the template's current snapshot, they're only found again after the template changed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VariableNamesBenchmark {
+	@Param({"10240", "1048576", "5242880"})
+	public int configSize;
+
+	@Param({"1", "20", "200"})
+	public int variables;
+
+	private byte[] config;
+	private TemplateProject template;
+
+	@Setup
+	public void setUp() throws IOException {
+		String templateConfig = SyntheticConfigs.template(configSize, variables);
+		config = templateConfig.getBytes(SyntheticConfigs.CHARSET);
+		template = SyntheticConfigs.publishTemplate("benchmark-template", templateConfig, null);
+	}
+
+	@Benchmark
+	public Collection<String> getVariableNamesForTemplate() throws IOException {
+		return TemplateSnapshots.getInstance().get(template).getVariableNames();
+	}
+
+	@Benchmark
+	public String[] getVariableNamesAfterSave() {
+		return CompiledTemplate.compile(config).getVariableNames();
+	}
+}
@@ -0,0 +1,318 @@
+package com.attask.scaffolding;
+
+import com.attask.templating.*;
+import com.attask.utils.DaemonThreadFactory;
+import com.attask.utils.HashUtils;
+import hudson.model.Hudson;
+import hudson.model.ItemGroup;
+import hudson.model.TopLevelItem;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stands up many implementations at once.
+ * Rather than creating and saving each job on its own (which syncs it with its template, reading the template and
+ * reloading the descriptor every time) the jobs are created together, every template involved is compiled once,
+ * the configs are rendered in parallel from one {@link TemplateSnapshot} per template, the descriptor is reloaded
+ * once for the whole batch, and each rendered config is applied on the {@link TemplatePropagator}'s workers as soon as it's ready.
+ * Jobs that can't be rendered or applied are deleted again.
+ */
+public class ScaffoldingBuilder {
+	public static final String IN_FLIGHT_PROPERTY = ScaffoldingBuilder.class.getName() + ".inFlight";
+
+	private static final Logger LOGGER = Logger.getLogger(ScaffoldingBuilder.class.getName());
+	private static final ExecutorService RENDER_POOL = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("Scaffolding render"));
+
+	/**
+	 * Told about each implementation as soon as it's been stood up or has failed.
+	 * May be called from several threads at once.
+	 */
+	public interface Listener {
+		void onCreated(String implementationName);
+
+		void onFailed(String implementationName, Throwable cause);
+	}
+
+	/**
+	 * An implementation to stand up.
+	 */
+	public static class Implementation {
+		private final String name;
+		private final String templateName;
+		private final String parameters;
+
+		/**
+		 * @param name The name of the new job.
+		 * @param templateName The name of the template the job implements.
+		 * @param parameters The values of the template's variables, formatted as a properties file.
+		 */
+		public Implementation(String name, String templateName, String parameters) {
+			this.name = name;
+			this.templateName = templateName;
+			this.parameters = parameters;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getTemplateName() {
+			return templateName;
+		}
+
+		public String getParameters() {
+			return parameters;
+		}
+	}
+
+	private final Hudson hudson;
+	private final ItemGroup<TopLevelItem> itemGroup;
+	private final TemplatePropagator propagator;
+	private final int maxInFlight;
+
+	public ScaffoldingBuilder(Hudson hudson, TemplatePropagator propagator) {
+		this.hudson = hudson;
+		this.itemGroup = hudson;
+		this.propagator = propagator;
+		this.maxInFlight = Math.max(1, Integer.getInteger(IN_FLIGHT_PROPERTY, 64));
+	}
+
+	/**
+	 * For builders that create the jobs themselves, see {@link #createProject(String)}.
+	 * @param itemGroup The ItemGroup the implementations are created in.
+	 * @param propagator Applies the rendered configs.
+	 */
+	protected ScaffoldingBuilder(ItemGroup<TopLevelItem> itemGroup, TemplatePropagator propagator) {
+		this(itemGroup, propagator, Integer.getInteger(IN_FLIGHT_PROPERTY, 64));
+	}
+
+	/**
+	 * @param maxInFlight The most jobs that may be rendered but not yet applied at any time.
+	 */
+	protected ScaffoldingBuilder(ItemGroup<TopLevelItem> itemGroup, TemplatePropagator propagator, int maxInFlight) {
+		this.hudson = null;
+		this.itemGroup = itemGroup;
+		this.propagator = propagator;
+		this.maxInFlight = Math.max(1, maxInFlight);
+	}
+
+	/**
+	 * Creates and syncs all the given implementations.
+	 * A failure to stand up one implementation doesn't stop the others from being stood up.
+	 * @param implementations The implementations to create.
+	 * @param listener Told about each implementation as it finishes. May be null.
+	 * @return The name of each implementation that failed and why. Empty if they all succeeded.
+	 * @throws IOException If the descriptor can't be reloaded or the thread is interrupted.
+	 */
+	public Map<String, Throwable> standUp(List<Implementation> implementations, Listener listener) throws IOException {
+		long start = System.nanoTime();
+		Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+		Map<String, String> templateNames = new HashMap<String, String>();
+		for (Implementation implementation : implementations) {
+			templateNames.put(implementation.getName(), implementation.getTemplateName());
+		}
+
+		// Create the jobs one at a time, Jenkins doesn't allow creating them concurrently.
+		Map<String, Created> created = new LinkedHashMap<String, Created>();
+		for (Implementation implementation : implementations) {
+			TemplateImplementationProject project = null;
+			try {
+				TopLevelItem templateItem = itemGroup.getItem(implementation.getTemplateName());
+				if (!(templateItem instanceof TemplateProject)) {
+					throw new IOException(implementation.getTemplateName() + " is not a template.");
+				}
+				if (created.containsKey(implementation.getName()) || itemGroup.getItem(implementation.getName()) != null) {
+					throw new IOException(implementation.getName() + " already exists.");
+				}
+				TemplateProject template = (TemplateProject) templateItem;
+				project = createProject(implementation.getName());
+				ImplementTemplateBuildWrapper wrapper = createWrapper(template.getName(), implementation.getParameters());
+				created.put(implementation.getName(), new Created(project, template, wrapper));
+			} catch (Exception e) {
+				if (project == null) {
+					failed(failures, templateNames, listener, implementation.getName(), e);
+				} else {
+					discard(project, e, failures, templateNames, listener);
+				}
+			}
+		}
+
+		// Take one snapshot of each template up front and compile it, so the whole batch renders the same version
+		// and the parallel renders all share the compiled template. New implementations only keep the parameters
+		// that differ from the template's defaults.
+		Map<String, TemplateSnapshot> snapshots = new HashMap<String, TemplateSnapshot>();
+		for (Iterator<Created> iterator = created.values().iterator(); iterator.hasNext(); ) {
+			Created job = iterator.next();
+			try {
+				TemplateSnapshot snapshot = snapshots.get(job.template.getName());
+				if (snapshot == null) {
+					snapshot = TemplateSnapshots.getInstance().get(job.template);
+					snapshot.getCompiled();
+					snapshots.put(job.template.getName(), snapshot);
+				}
+				job.wrapper.removeDefaultParameters(snapshot.getDefaults());
+			} catch (IOException e) {
+				iterator.remove();
+				discard(job.project, e, failures, templateNames, listener);
+			}
+		}
+
+		// Each job is applied as soon as it's rendered. At most maxInFlight jobs are rendered but not yet applied,
+		// so a large batch never holds every rendered config in memory at once.
+		// If the batch is interrupted, the jobs that haven't been applied yet are deleted, and can no longer be applied.
+		reloadDescriptor();
+		final Semaphore inFlight = new Semaphore(maxInFlight);
+		final AtomicBoolean abandoned = new AtomicBoolean();
+		final Set<String> stoodUp = Collections.synchronizedSet(new HashSet<String>());
+		final ImplementationIndex index = ImplementationIndex.forItemGroup(itemGroup);
+		Map<String, Future<Future<Void>>> pipelines = new LinkedHashMap<String, Future<Future<Void>>>();
+		try {
+			for (final Created job : created.values()) {
+				final TemplateSnapshot snapshot = snapshots.get(job.template.getName());
+				final String name = job.project.getName();
+				final Listener jobListener = listener;
+				inFlight.acquire();
+				pipelines.put(name, RENDER_POOL.submit(new Callable<Future<Void>>() {
+					public Future<Void> call() throws IOException {
+						boolean applying = false;
+						try {
+							ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64 * 1024);
+							job.wrapper.render(snapshot, outputStream);
+							final byte[] bytes = outputStream.toByteArray();
+							TemplateMetrics.forTemplate(job.template.getName()).bytesRendered(bytes.length);
+
+							Future<Void> apply = propagator.submit(new Callable<Void>() {
+								public Void call() throws IOException {
+									try {
+										synchronized (job.project) {
+											if (abandoned.get()) {
+												throw new InterruptedIOException("Stopped standing up the scaffolding before " + name + " was applied");
+											}
+											job.wrapper.apply(job.project, new ByteArrayInputStream(bytes), HashUtils.sha1(bytes));
+											index.update(job.project);
+											stoodUp.add(name);
+										}
+									} finally {
+										inFlight.release();
+									}
+									TemplateMetrics.forTemplate(job.template.getName()).implementationStoodUp();
+									if (jobListener != null) {
+										jobListener.onCreated(name);
+									}
+									return null;
+								}
+							});
+							applying = true;
+							return apply;
+						} finally {
+							if (!applying) {
+								inFlight.release();
+							}
+						}
+					}
+				}));
+			}
+
+			for (Map.Entry<String, Future<Future<Void>>> pipeline : pipelines.entrySet()) {
+				try {
+					pipeline.getValue().get().get();
+				} catch (ExecutionException e) {
+					discard(created.remove(pipeline.getKey()).project, e.getCause(), failures, templateNames, listener);
+				}
+			}
+		} catch (InterruptedException e) {
+			abandoned.set(true);
+			for (Future<Future<Void>> pipeline : pipelines.values()) {
+				pipeline.cancel(false);
+			}
+			InterruptedIOException interrupted = new InterruptedIOException("Interrupted while standing up the scaffolding");
+			for (Created job : created.values()) {
+				// An apply already running finishes first, one that hasn't started sees the batch was abandoned
+				synchronized (job.project) {
+					if (!stoodUp.contains(job.project.getName())) {
+						discard(job.project, interrupted, failures, templateNames, listener);
+					}
+				}
+			}
+			Thread.currentThread().interrupt();
+			throw interrupted;
+		}
+		TemplateMetrics.getScaffoldingLatency().recordSince(start);
+		return failures;
+	}
+
+	/**
+	 * Creates an empty implementation job.
+	 * @param name The name of the new job.
+	 * @return The new job.
+	 * @throws IOException If the job can't be created.
+	 */
+	protected TemplateImplementationProject createProject(String name) throws IOException {
+		return (TemplateImplementationProject) hudson.createProject(TemplateImplementationProject.DESCRIPTOR, name);
+	}
+
+	/**
+	 * @param templateName The name of the template the new job implements.
+	 * @param parameters The values of the template's variables.
+	 * @return The wrapper to attach to the new job.
+	 */
+	protected ImplementTemplateBuildWrapper createWrapper(String templateName, String parameters) {
+		return new ImplementTemplateBuildWrapper(templateName, parameters);
+	}
+
+	/**
+	 * Reloads the implementations' descriptor once for the whole batch, before any config is applied.
+	 */
+	protected void reloadDescriptor() {
+		TemplateImplementationProject.DESCRIPTOR.load();
+	}
+
+	/**
+	 * Deletes a job that was created but couldn't be stood up, so a failed batch doesn't leave empty jobs behind.
+	 * @param project The job to delete.
+	 * @throws IOException If the job can't be deleted.
+	 * @throws InterruptedException If interrupted while deleting the job.
+	 */
+	protected void deleteProject(TemplateImplementationProject project) throws IOException, InterruptedException {
+		project.delete();
+	}
+
+	private void discard(TemplateImplementationProject project, Throwable cause, Map<String, Throwable> failures, Map<String, String> templateNames, Listener listener) {
+		String name = project.getName();
+		try {
+			deleteProject(project);
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Unable to delete " + name + " after it failed to be stood up", e);
+		}
+		failed(failures, templateNames, listener, name, cause);
+	}
+
+	private static void failed(Map<String, Throwable> failures, Map<String, String> templateNames, Listener listener, String name, Throwable cause) {
+		failures.put(name, cause);
+		TemplateMetrics.forTemplate(templateNames.get(name)).error();
+		if (listener != null) {
+			listener.onFailed(name, cause);
+		}
+	}
+
+	private static class Created {
+		private final TemplateImplementationProject project;
+		private final TemplateProject template;
+		private final ImplementTemplateBuildWrapper wrapper;
+
+		private Created(TemplateImplementationProject project, TemplateProject template, ImplementTemplateBuildWrapper wrapper) {
+			this.project = project;
+			this.template = template;
+			this.wrapper = wrapper;
+		}
+	}
+
+}
@@ -0,0 +1,26 @@
+package com.attask.scaffolding;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thrown when one or more implementations couldn't be stood up.
+ * The rest of the implementations are still stood up, this reports all of the ones that failed rather than just the first.
+ */
+public class ScaffoldingException extends IOException {
+	private final Map<String, Throwable> failures;
+
+	public ScaffoldingException(Map<String, Throwable> failures) {
+		super("Failed to stand up " + failures.size() + " implementation(s): " + failures.keySet(), failures.values().iterator().next());
+		this.failures = Collections.unmodifiableMap(new LinkedHashMap<String, Throwable>(failures));
+	}
+
+	/**
+	 * @return The name of each implementation that failed and why.
+	 */
+	public Map<String, Throwable> getFailures() {
+		return failures;
+	}
+}
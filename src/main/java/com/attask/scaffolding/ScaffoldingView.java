@@ -2,20 +2,22 @@ package com.attask.scaffolding;
 
 import com.attask.templating.*;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
 import hudson.Extension;
 import hudson.XmlFile;
 import hudson.model.*;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import javax.servlet.ServletException;
-import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.*;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -27,6 +29,11 @@ import java.util.regex.Pattern;
  * Time: 9:54 AM
  */
 public class ScaffoldingView extends View {
+	/**
+	 * @deprecated Misses the variables used in $${...} expressions, use {@link #getVariableNames(XmlFile)}
+	 * or {@link TemplateProject#getVariableNames()} instead.
+	 */
+	@Deprecated
 	public static final Pattern VARIABLE_PATTERN = Pattern.compile("\\$\\$([A-Za-z0-9_]+)");
 	public List<String> templates;
 
@@ -39,12 +46,23 @@ public class ScaffoldingView extends View {
 	public Collection<TopLevelItem> getItems() {
 		ImmutableList.Builder<TopLevelItem> resultBuilder = ImmutableList.builder();
 		Hudson hudson = Hudson.getInstance();
+		TemplateRegistry registry = TemplateRegistry.forItemGroup(hudson);
 		for (String template : templates) {
-			resultBuilder.add(hudson.getItem(template));
+			if (registry.contains(template)) {
+				resultBuilder.add(hudson.getItem(template));
+			}
 		}
 		return resultBuilder.build();
 	}
 
+	/**
+	 * @return The names of all the templates that can be added to this view, sorted.
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public Collection<String> getAvailableTemplateNames() {
+		return TemplateRegistry.forItemGroup(Hudson.getInstance()).getTemplateNames();
+	}
+
 	@Override
 	public boolean contains(TopLevelItem item) {
 		return item != null && templates.contains(item.getName());
@@ -72,16 +90,18 @@ public class ScaffoldingView extends View {
 	}
 
 	/**
-	 * Must be a POST.
-	 * Creates all the implementations of the templates defined in this view.
+	 * Must be a POST, from a user allowed to create jobs.
+	 * Creates all the implementations of the templates defined in this view in one batch, see {@link ScaffoldingBuilder}.
 	 * @param request request from the browser
 	 * @param response response back to the browser
-	 * @throws IOException thrown if the new jobs couldn't be created because the config files couldn't be saved to disk
+	 * @throws IOException thrown if the new jobs couldn't be created because the config files couldn't be saved to disk.
+	 * A {@link ScaffoldingException} if only some of them couldn't be created.
 	 * @throws ServletException Thrown if a POST is not used to make the request.
 	 */
 	@SuppressWarnings("UnusedDeclaration")
 	public void doStandUpScaffolding(StaplerRequest request, StaplerResponse response) throws IOException, ServletException {
 		requirePOST();
+		Hudson.getInstance().checkPermission(Item.CREATE);
 
 		Map<String, List<String>> templateVariableNames = new HashMap<String, List<String>>();
 		Enumeration parameterNames = request.getParameterNames();
@@ -108,23 +128,189 @@ public class ScaffoldingView extends View {
 			suffix = "Impl";
 		}
 
-		Hudson hudson = Hudson.getInstance();
+		List<ScaffoldingBuilder.Implementation> implementations = new ArrayList<ScaffoldingBuilder.Implementation>(templates.size());
 		for (String template : templates) {
 			String newName = prefix + template + suffix;
-			TopLevelItem topLevelItem = hudson.createProject(TemplateImplementationProject.DESCRIPTOR, newName);
-			Project project = (Project)topLevelItem;
 			String parameters = generatePropertiesFileForParameters(template, templateVariableNames.get(template), request);
-			//noinspection unchecked
-			project.getBuildWrappersList().add(new ImplementTemplateBuildWrapper(template, parameters));
-			project.save();
+			implementations.add(new ScaffoldingBuilder.Implementation(newName, template, parameters));
+		}
+
+		ScaffoldingBuilder builder = new ScaffoldingBuilder(Hudson.getInstance(), TemplatePropagator.getInstance());
+		Map<String, Throwable> failures = builder.standUp(implementations, null);
+		if (!failures.isEmpty()) {
+			throw new ScaffoldingException(failures);
 		}
 
 		response.forwardToPreviousPage(request);
 	}
 
+	/**
+	 * Must be a POST, from a user allowed to create jobs.
+	 * Creates the implementations of the templates defined in this view for many sets of variables in one batch.
+	 * The body of the request is a JSON array with one object per set:
+	 * <pre>
+	 * [{"prefix": "b1-", "suffix": "Impl", "variables": {"BRANCH": "b1", "SomeTemplate": {"PORT": "8081"}}}, ...]
+	 * </pre>
+	 * prefix and suffix default the same way as in {@link #doStandUpScaffolding}.
+	 * A plain string in variables is used by every template that has a variable with that name,
+	 * an object holds the variables of just the template it's named after and wins over the plain strings.
+	 * Every set is stood up together, so each template is only read and compiled once however many sets there are.
+	 * The progress is streamed back as each job finishes, one JSON object per line, followed by a summary line.
+	 * @param request request from the browser
+	 * @param response response back to the browser
+	 * @throws IOException thrown if the request can't be read or the descriptor can't be reloaded
+	 * @throws ServletException Thrown if a POST is not used to make the request.
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void doStandUpScaffoldingSets(StaplerRequest request, StaplerResponse response) throws IOException, ServletException {
+		requirePOST();
+		Hudson.getInstance().checkPermission(Item.CREATE);
+
+		Map<String, Collection<String>> templateVariableNames = new HashMap<String, Collection<String>>();
+		for (String template : templates) {
+			templateVariableNames.put(template, getVariableNamesForTemplate(template));
+		}
+
+		List<ScaffoldingBuilder.Implementation> implementations;
+		try {
+			JSONArray sets = JSONArray.fromObject(IOUtils.toString(request.getReader()));
+			implementations = toImplementations(sets, templates, templateVariableNames);
+		} catch (JSONException e) {
+			response.sendError(StaplerResponse.SC_BAD_REQUEST, "Expected a JSON array of {prefix, suffix, variables} objects: " + e.getMessage());
+			return;
+		} catch (IllegalArgumentException e) {
+			response.sendError(StaplerResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+
+		response.setContentType("text/plain;charset=UTF-8");
+		standUp(new ScaffoldingBuilder(Hudson.getInstance(), TemplatePropagator.getInstance()), implementations, response.getWriter());
+	}
+
+	/**
+	 * Stands up the given implementations, writing a JSON line as each one finishes and a summary line at the end.
+	 * @param builder Stands up the implementations.
+	 * @param implementations The implementations to stand up.
+	 * @param writer Where the progress is streamed to.
+	 * @throws IOException If the descriptor can't be reloaded or the thread is interrupted.
+	 */
+	static void standUp(ScaffoldingBuilder builder, List<ScaffoldingBuilder.Implementation> implementations, final PrintWriter writer) throws IOException {
+		final int total = implementations.size();
+		ScaffoldingBuilder.Listener progress = new ScaffoldingBuilder.Listener() {
+			private int finished;
+
+			public synchronized void onCreated(String implementationName) {
+				JSONObject line = new JSONObject();
+				line.put("job", implementationName);
+				line.put("status", "created");
+				write(line);
+			}
+
+			public synchronized void onFailed(String implementationName, Throwable cause) {
+				JSONObject line = new JSONObject();
+				line.put("job", implementationName);
+				line.put("status", "failed");
+				line.put("error", String.valueOf(cause));
+				write(line);
+			}
+
+			private void write(JSONObject line) {
+				finished++;
+				line.put("finished", finished);
+				line.put("total", total);
+				writer.println(line.toString());
+				writer.flush();
+			}
+		};
+
+		Map<String, Throwable> failures = builder.standUp(implementations, progress);
+
+		JSONObject summary = new JSONObject();
+		summary.put("created", total - failures.size());
+		summary.put("failed", failures.size());
+		writer.println(summary.toString());
+		writer.flush();
+	}
+
+	/**
+	 * Turns the sets of variables posted to {@link #doStandUpScaffoldingSets} into the implementations to stand up.
+	 * @param sets The posted JSON array.
+	 * @param templates The templates to implement for each set.
+	 * @param templateVariableNames The variable names of each template.
+	 * @return One implementation per template per set, in the order they were posted.
+	 * @throws IllegalArgumentException If a variable's name or value can't be stored in the parameters text,
+	 * see {@link #checkParameter(String, String)}.
+	 */
+	static List<ScaffoldingBuilder.Implementation> toImplementations(JSONArray sets, List<String> templates, Map<String, ? extends Collection<String>> templateVariableNames) {
+		List<ScaffoldingBuilder.Implementation> result = new ArrayList<ScaffoldingBuilder.Implementation>(sets.size() * templates.size());
+		for (int i = 0; i < sets.size(); i++) {
+			JSONObject set = sets.getJSONObject(i);
+			String prefix = set.optString("prefix", "");
+			String suffix = set.optString("suffix", "");
+			if (suffix.isEmpty()) {
+				suffix = "Impl";
+			}
+			JSONObject variables = set.optJSONObject("variables");
+			if (variables == null) {
+				variables = new JSONObject();
+			}
+
+			for (String template : templates) {
+				Map<String, String> values = new LinkedHashMap<String, String>();
+				Collection<String> variableNames = templateVariableNames.get(template);
+				if (variableNames != null) {
+					for (String variableName : variableNames) {
+						Object value = variables.opt(variableName);
+						if (value != null && !(value instanceof JSONObject)) {
+							values.put(variableName, String.valueOf(value));
+						}
+					}
+				}
+				JSONObject templateVariables = variables.optJSONObject(template);
+				if (templateVariables != null) {
+					for (Object key : templateVariables.keySet()) {
+						values.put(String.valueOf(key), templateVariables.getString(String.valueOf(key)));
+					}
+				}
+
+				StringBuilder parameters = new StringBuilder();
+				for (Map.Entry<String, String> value : values.entrySet()) {
+					checkParameter(value.getKey(), value.getValue());
+					parameters.append(value.getKey()).append("=").append(value.getValue()).append("\n");
+				}
+				result.add(new ScaffoldingBuilder.Implementation(prefix + template + suffix, template, parameters.toString()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The parameters text has no way of escaping anything: it's split into lines, everything after a # is dropped,
+	 * and each line is split at its first =. A value holding any of those would add other parameters or be cut short.
+	 * @throws IllegalArgumentException If the name or value can't be stored as is.
+	 */
+	static void checkParameter(String name, String value) {
+		if (name.isEmpty() || !name.equals(name.trim()) || containsAny(name, "=#\r\n")) {
+			throw new IllegalArgumentException("Invalid variable name: " + JSONObject.quote(name));
+		}
+		if (containsAny(value, "#\r\n")) {
+			throw new IllegalArgumentException("The value of " + name + " can't contain #, or line breaks: " + JSONObject.quote(value));
+		}
+	}
+
+	private static boolean containsAny(String text, String characters) {
+		for (int i = 0; i < characters.length(); i++) {
+			if (text.indexOf(characters.charAt(i)) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Gets all the variable names of a given template.
 	 * A variable is defined in the config as $$SOMENAME.
+	 * The names are indexed by the template itself, so this doesn't read the template's config file.
 	 * @param templateName The name of the template to look up.
 	 * @return A collection of all the variable names.
 	 * If the template doesn't represent a template, then an empty collection is returned.
@@ -132,33 +318,40 @@ public class ScaffoldingView extends View {
 	 */
 	@SuppressWarnings("UnusedDeclaration")
 	public Collection<String> getVariableNamesForTemplate(String templateName) throws IOException {
-		TopLevelItem item = Hudson.getInstance().getItem(templateName);
+		Hudson hudson = Hudson.getInstance();
+		if(!TemplateRegistry.forItemGroup(hudson).contains(templateName)) {
+			return Collections.emptyList();
+		}
+		TopLevelItem item = hudson.getItem(templateName);
 		if(!(item instanceof TemplateProject)) {
 			return Collections.emptyList();
 		}
 
-		ImmutableSet.Builder<String> result = ImmutableSet.builder();
 		TemplateProject templateProject = (TemplateProject)item;
-		String config = readConfigFile(templateProject.getConfigFile());
-
-		Matcher matcher = VARIABLE_PATTERN.matcher(config);
-		while(matcher.find()) {
-			String variableName = matcher.group(1);
-			result.add(variableName);
-		}
-
-		return result.build();
+		return templateProject.getVariableNames();
 	}
 
 	/**
-	 * Reads the given config file to a string.
+	 * Gets all the variable names used in the given config file, reading the whole file.
 	 * @param configFile The config file to read.
-	 * @return The contents of the file as a string.
-	 * @throws IOException If the file cannot be read.
+	 * @return A collection of all the variable names, in the order they first appear.
+	 * @throws IOException If the config file cannot be read.
+	 * @deprecated Use {@link TemplateProject#getVariableNames()}, which doesn't read the config file.
 	 */
-	private String readConfigFile(XmlFile configFile) throws IOException {
-		File file = configFile.getFile();
-		return FileUtils.readFileToString(file);
+	@Deprecated
+	public static Collection<String> getVariableNames(XmlFile configFile) throws IOException {
+		byte[] config = FileUtils.readFileToByteArray(configFile.getFile());
+		return Collections.unmodifiableList(Arrays.asList(CompiledTemplate.compile(config).getVariableNames()));
+	}
+
+	/**
+	 * Gets the names of the jobs that already implement the given template.
+	 * @param templateName The name of the template to look up.
+	 * @return The names of the implementations. Never null.
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public Collection<String> getImplementationNamesForTemplate(String templateName) {
+		return ImplementationIndex.forItemGroup(Hudson.getInstance()).getImplementationNames(templateName);
 	}
 
 	/**
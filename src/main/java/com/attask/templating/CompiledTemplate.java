@@ -0,0 +1,323 @@
+package com.attask.templating;
+
+import com.attask.utils.ByteTokenReplacer;
+import com.attask.utils.TokenReplacer;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A template's config.xml parsed once into literal segments and variable slots, so it can be rendered for any number
+ * of implementations without reading or scanning the template again.
+ * $${...} expressions are parsed into {@link Expression} trees when compiled and evaluated once per render,
+ * an expression that isn't valid is left in the config as it is. Their sources are unescaped before they're parsed
+ * and their values escaped again when they're written, so they can be used in text and attribute values alike.
+ * The TemplateProject to TemplateImplementationProject rewrite is applied to the literal segments when compiled.
+ * Instances are immutable and safe to share between threads.
+ */
+public class CompiledTemplate {
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+	public static final String TEMPLATE_CLASS_TOKEN = TemplateProject.class.getCanonicalName() + ">";
+	public static final String IMPLEMENTATION_CLASS_TOKEN = TemplateImplementationProject.class.getCanonicalName() + ">";
+
+	private static final byte VARIABLE_MARKER = '$';
+	private static final ByteTokenReplacer CLASS_REPLACER;
+	static {
+		try {
+			CLASS_REPLACER = new TokenReplacer(ImmutableMap.of(TEMPLATE_CLASS_TOKEN, IMPLEMENTATION_CLASS_TOKEN)).encode(CHARSET);
+		} catch (IOException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final byte[] literals;
+	private final int[] slotOffsets;
+	private final int[] slotIds;
+	private final String[] variableNames;
+	private final Expression[] expressions;
+	private final byte[][] expressionSources;
+
+	/**
+	 * @param slotIds For each slot, the index of its variable in variableNames,
+	 * or for an expression slot -1 minus the index of its expression in expressions.
+	 */
+	private CompiledTemplate(byte[] literals, int[] slotOffsets, int[] slotIds, String[] variableNames, Expression[] expressions, byte[][] expressionSources) {
+		this.literals = literals;
+		this.slotOffsets = slotOffsets;
+		this.slotIds = slotIds;
+		this.variableNames = variableNames;
+		this.expressions = expressions;
+		this.expressionSources = expressionSources;
+	}
+
+	/**
+	 * Parses the given template config.
+	 * @param content The template's config.xml encoded with {@link #CHARSET}.
+	 * @return The compiled template.
+	 */
+	public static CompiledTemplate compile(byte[] content) {
+		ByteArrayOutputStream literals = new ByteArrayOutputStream(content.length + 64);
+		List<Integer> slotOffsets = new ArrayList<Integer>();
+		List<Integer> slotIds = new ArrayList<Integer>();
+		Map<String, Integer> variableIds = new HashMap<String, Integer>();
+		List<String> variableNames = new ArrayList<String>();
+		Map<String, Integer> expressionIds = new HashMap<String, Integer>();
+		List<Expression> expressions = new ArrayList<Expression>();
+		List<byte[]> expressionSources = new ArrayList<byte[]>();
+
+		int copyFrom = 0;
+		int i = 0;
+		while (i < content.length) {
+			byte b = content[i];
+			int expressionEnd = b == VARIABLE_MARKER && Expression.startsExpression(content, i, content.length) ? Expression.findEnd(content, i, content.length) : -1;
+			if (expressionEnd >= 0) {
+				String source = new String(content, i, expressionEnd + 1 - i, CHARSET);
+				Integer id = expressionIds.get(source);
+				if (id == null) {
+					Expression expression;
+					try {
+						expression = Expression.parse(unescape(source.substring(Expression.START.length(), source.length() - 1)));
+					} catch (ExpressionException e) {
+						i++;
+						continue;
+					}
+					id = expressions.size();
+					expressionIds.put(source, id);
+					expressions.add(expression);
+					expressionSources.add(source.getBytes(CHARSET));
+
+					List<String> referenced = new ArrayList<String>();
+					expression.collectVariableNames(referenced);
+					for (String name : referenced) {
+						if (!variableIds.containsKey(name)) {
+							variableIds.put(name, variableNames.size());
+							variableNames.add(name);
+						}
+					}
+				}
+				literals.write(content, copyFrom, i - copyFrom);
+				slotOffsets.add(literals.size());
+				slotIds.add(-1 - id);
+
+				i = expressionEnd + 1;
+				copyFrom = i;
+			} else if (b == VARIABLE_MARKER && i + 2 < content.length && content[i + 1] == VARIABLE_MARKER && isVariableCharacter(content[i + 2])) {
+				literals.write(content, copyFrom, i - copyFrom);
+
+				int nameEnd = i + 2;
+				while (nameEnd < content.length && isVariableCharacter(content[nameEnd])) {
+					nameEnd++;
+				}
+				String name = new String(content, i + 2, nameEnd - i - 2, CHARSET);
+				Integer id = variableIds.get(name);
+				if (id == null) {
+					id = variableNames.size();
+					variableIds.put(name, id);
+					variableNames.add(name);
+				}
+				slotOffsets.add(literals.size());
+				slotIds.add(id);
+
+				i = nameEnd;
+				copyFrom = i;
+			} else if (CLASS_REPLACER.startsToken(b)) {
+				int match = CLASS_REPLACER.match(content, i, content.length, true);
+				if (match == ByteTokenReplacer.NO_MATCH) {
+					i++;
+				} else {
+					literals.write(content, copyFrom, i - copyFrom);
+					byte[] replacement = CLASS_REPLACER.getReplacement(match);
+					literals.write(replacement, 0, replacement.length);
+					i += CLASS_REPLACER.getTokenLength(match);
+					copyFrom = i;
+				}
+			} else {
+				i++;
+			}
+		}
+		literals.write(content, copyFrom, content.length - copyFrom);
+
+		return new CompiledTemplate(literals.toByteArray(), toArray(slotOffsets), toArray(slotIds), variableNames.toArray(new String[variableNames.size()]),
+				expressions.toArray(new Expression[expressions.size()]), expressionSources.toArray(new byte[expressionSources.size()][]));
+	}
+
+	/**
+	 * Only parameters whose names are made up of variable characters can be matched against the compiled slots.
+	 * @param parameters The variable names (without the leading $$) and their values.
+	 * @return True if {@link #render(java.util.Map, java.io.OutputStream)} can be used with the given parameters.
+	 */
+	public static boolean canRender(Map<String, String> parameters) {
+		for (String name : parameters.keySet()) {
+			if (name.isEmpty()) {
+				return false;
+			}
+			for (int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				if (c > 127 || !isVariableCharacter((byte) c)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the template to the given stream, replacing each $$VARIABLE with its value and evaluating each $${...} expression.
+	 * If a variable has no value but a parameter matches the start of its name, that parameter is used and the rest
+	 * of the name is left as is. Variables without any matching parameter, and expressions needing a variable without a value,
+	 * are left untouched.
+	 * @param parameters The variable names (without the leading $$) and their values. Must pass {@link #canRender(java.util.Map)}.
+	 * @param outputStream Where to write the rendered config. The stream is not closed or flushed.
+	 * @throws IOException If the stream can't be written to, or variables refer to each other in a cycle.
+	 */
+	public void render(Map<String, String> parameters, OutputStream outputStream) throws IOException {
+		render(new Expression.Context(parameters, TemplateParameters.parseExpressions(parameters)), outputStream, true);
+	}
+
+	/**
+	 * Same as {@link #render(java.util.Map, java.io.OutputStream)}, reusing the parameters' already parsed expressions.
+	 * @param parameters The parameters. Must be {@link TemplateParameters#isCompilable()}.
+	 * @param outputStream Where to write the rendered config. The stream is not closed or flushed.
+	 * @throws IOException If the stream can't be written to, or variables refer to each other in a cycle.
+	 */
+	public void render(TemplateParameters parameters, OutputStream outputStream) throws IOException {
+		render(new Expression.Context(parameters.getValues(), parameters.getExpressions()), outputStream, true);
+	}
+
+	/**
+	 * Writes the template to the given stream evaluating each $${...} expression, but leaving every $$VARIABLE as it is.
+	 * Used with parameters that aren't {@link TemplateParameters#isCompilable()}, whose variables are then replaced by text.
+	 * @param parameters The parameters, with any names.
+	 * @param outputStream Where to write the config. The stream is not closed or flushed.
+	 * @throws IOException If the stream can't be written to, or variables refer to each other in a cycle.
+	 */
+	public void renderExpressions(TemplateParameters parameters, OutputStream outputStream) throws IOException {
+		render(new Expression.Context(parameters.getValues(), parameters.getExpressions()), outputStream, false);
+	}
+
+	private void render(Expression.Context context, OutputStream outputStream, boolean replaceVariables) throws IOException {
+		byte[][] values = new byte[variableNames.length][];
+		byte[][] expressionValues = new byte[expressions.length][];
+
+		int literalStart = 0;
+		for (int slot = 0; slot < slotOffsets.length; slot++) {
+			outputStream.write(literals, literalStart, slotOffsets[slot] - literalStart);
+			int id = slotIds[slot];
+			byte[] value;
+			if (id >= 0) {
+				value = values[id];
+				if (value == null) {
+					value = (replaceVariables ? resolve(variableNames[id], context) : "$$" + variableNames[id]).getBytes(CHARSET);
+					values[id] = value;
+				}
+			} else {
+				int expressionId = -1 - id;
+				value = expressionValues[expressionId];
+				if (value == null) {
+					String evaluated = expressions[expressionId].evaluate(context);
+					value = evaluated == null ? expressionSources[expressionId] : escape(evaluated).getBytes(CHARSET);
+					expressionValues[expressionId] = value;
+				}
+			}
+			outputStream.write(value);
+			literalStart = slotOffsets[slot];
+		}
+		outputStream.write(literals, literalStart, literals.length - literalStart);
+	}
+
+	/**
+	 * @return The names of all the variables used by this template, in the order they first appear.
+	 */
+	public String[] getVariableNames() {
+		return variableNames.clone();
+	}
+
+	/**
+	 * @return The approximate number of bytes this template takes up in memory.
+	 */
+	public int getSize() {
+		int size = literals.length + slotOffsets.length * 8;
+		for (byte[] source : expressionSources) {
+			size += source.length * 3;
+		}
+		return size;
+	}
+
+	private static String resolve(String variableName, Expression.Context context) throws ExpressionException {
+		for (int length = variableName.length(); length > 0; length--) {
+			String name = variableName.substring(0, length);
+			String value = context.get(name);
+			if (value != null) {
+				return value + variableName.substring(length);
+			}
+		}
+		return "$$" + variableName;
+	}
+
+	/**
+	 * Expressions are parsed from the raw config.xml, where quotes and the like are escaped.
+	 */
+	private static String unescape(String source) {
+		if (source.indexOf('&') < 0) {
+			return source;
+		}
+		return source.replace("&quot;", "\"").replace("&apos;", "'").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+	}
+
+	/**
+	 * Escapes an expression's value so it reads back as the same text, in an element or an attribute.
+	 */
+	private static String escape(String value) {
+		StringBuilder result = null;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			String entity;
+			switch (c) {
+				case '&':
+					entity = "&amp;";
+					break;
+				case '<':
+					entity = "&lt;";
+					break;
+				case '>':
+					entity = "&gt;";
+					break;
+				case '"':
+					entity = "&quot;";
+					break;
+				case '\'':
+					entity = "&apos;";
+					break;
+				default:
+					if (result != null) {
+						result.append(c);
+					}
+					continue;
+			}
+			if (result == null) {
+				result = new StringBuilder(value.length() + 16).append(value, 0, i);
+			}
+			result.append(entity);
+		}
+		return result == null ? value : result.toString();
+	}
+
+	private static boolean isVariableCharacter(byte b) {
+		return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '_';
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] result = new int[list.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = list.get(i);
+		}
+		return result;
+	}
+}
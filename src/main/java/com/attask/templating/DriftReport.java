@@ -0,0 +1,130 @@
+package com.attask.templating;
+
+import net.sf.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * What a {@link DriftScanner} scan found: which implementations no longer match their templates, and why.
+ * Filled in while the scan runs, so it can be read before the scan finishes.
+ */
+public class DriftReport {
+	private static final int MAX_LISTED = 200;
+
+	public enum Reason {
+		/** Rendering the current template gives a different config than the implementation was last synced with. */
+		TEMPLATE_CHANGED,
+		/** The implementation's config.xml was changed since it was last synced. */
+		CONFIG_CHANGED
+	}
+
+	private final boolean repair;
+	private final long startedAt = System.currentTimeMillis();
+	private long finishedAt;
+	private int implementations;
+	private int scanned;
+	private int inSync;
+	private int repaired;
+	private final Map<String, Reason> drifted = new TreeMap<String, Reason>();
+	private final Map<String, String> failures = new TreeMap<String, String>();
+
+	public DriftReport(boolean repair) {
+		this.repair = repair;
+	}
+
+	synchronized void started(int implementations) {
+		this.implementations = implementations;
+	}
+
+	synchronized void inSync() {
+		scanned++;
+		inSync++;
+	}
+
+	synchronized void drifted(String implementationName, Reason reason) {
+		scanned++;
+		drifted.put(implementationName, reason);
+	}
+
+	synchronized void repaired() {
+		repaired++;
+	}
+
+	synchronized void failed(String implementationName, Throwable cause) {
+		if (failures.size() < MAX_LISTED) {
+			failures.put(implementationName, String.valueOf(cause));
+		}
+	}
+
+	synchronized void finished() {
+		finishedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * @return True if the drifted implementations are synced once they're found.
+	 */
+	public boolean isRepair() {
+		return repair;
+	}
+
+	public synchronized boolean isFinished() {
+		return finishedAt != 0;
+	}
+
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	public synchronized long getFinishedAt() {
+		return finishedAt;
+	}
+
+	public synchronized int getScanned() {
+		return scanned;
+	}
+
+	public synchronized int getInSync() {
+		return inSync;
+	}
+
+	public synchronized int getRepaired() {
+		return repaired;
+	}
+
+	/**
+	 * @return The name of each implementation that doesn't match its template and why.
+	 */
+	public synchronized Map<String, Reason> getDrifted() {
+		return Collections.unmodifiableMap(new TreeMap<String, Reason>(drifted));
+	}
+
+	/**
+	 * @return The name of each implementation that couldn't be scanned or repaired and why. Limited to the first 200.
+	 */
+	public synchronized Map<String, String> getFailures() {
+		return Collections.unmodifiableMap(new TreeMap<String, String>(failures));
+	}
+
+	public synchronized JSONObject toJSON() {
+		JSONObject json = new JSONObject();
+		json.put("repair", repair);
+		json.put("startedAt", startedAt);
+		json.put("finishedAt", finishedAt);
+		json.put("implementations", implementations);
+		json.put("scanned", scanned);
+		json.put("inSync", inSync);
+		json.put("driftedCount", drifted.size());
+		json.put("repaired", repaired);
+		JSONObject driftedJson = new JSONObject();
+		int listed = 0;
+		for (Map.Entry<String, Reason> entry : drifted.entrySet()) {
+			if (listed++ == MAX_LISTED) {
+				break;
+			}
+			driftedJson.put(entry.getKey(), entry.getValue().name());
+		}
+		json.put("drifted", driftedJson);
+		json.put("failures", failures);
+		return json;
+	}
+}
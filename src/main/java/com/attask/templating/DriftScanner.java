@@ -0,0 +1,333 @@
+package com.attask.templating;
+
+import com.attask.utils.DaemonThreadFactory;
+import com.attask.utils.HashUtils;
+import com.attask.utils.IoThrottle;
+import com.attask.utils.RenderBuffer;
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.PeriodicWork;
+import hudson.model.listeners.ItemListener;
+import hudson.tasks.BuildWrapper;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds implementations that no longer match their templates, without rewriting any that do.
+ * For each implementation the current snapshot of its template is rendered with the implementation's parameters and
+ * the hash compared to the one the implementation was last synced with, which finds propagations that failed part way.
+ * The hash of the implementation's config.xml is compared to the one it was written with when it was last synced
+ * (see {@link ImplementTemplateBuildWrapper#getConfigHash()}), which finds configs changed on disk.
+ * Scans only read: implementations not synced since Jenkins started, or synced before the rendered hash was saved,
+ * are taken to be in sync the first time they're scanned, and the expected render and current config.xml hashes kept
+ * in memory as their baseline until they're next synced.
+ * <p>
+ * Scans run on a pool of low priority threads (com.attask.templating.DriftScanner.threads), reading at most
+ * com.attask.templating.DriftScanner.bytesPerSecond bytes of configs per second.
+ * A scan runs once Jenkins has loaded unless com.attask.templating.DriftScanner.onStartup is false, and every
+ * com.attask.templating.DriftScanner.period minutes (0 to never), repairing what it finds if com.attask.templating.DriftScanner.repair is true.
+ * Repairs sync only the drifted implementations, on the {@link TemplatePropagator}.
+ */
+public class DriftScanner {
+	public static final String THREADS_PROPERTY = DriftScanner.class.getName() + ".threads";
+	public static final String BYTES_PER_SECOND_PROPERTY = DriftScanner.class.getName() + ".bytesPerSecond";
+	public static final String ON_STARTUP_PROPERTY = DriftScanner.class.getName() + ".onStartup";
+	public static final String PERIOD_PROPERTY = DriftScanner.class.getName() + ".period";
+	public static final String REPAIR_PROPERTY = DriftScanner.class.getName() + ".repair";
+
+	private static final Logger LOGGER = Logger.getLogger(DriftScanner.class.getName());
+	private static final DriftScanner INSTANCE = new DriftScanner(
+			Integer.getInteger(THREADS_PROPERTY, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+			Long.getLong(BYTES_PER_SECOND_PROPERTY, 16 * 1024 * 1024));
+
+	private final ExecutorService coordinator = Executors.newSingleThreadExecutor(new DaemonThreadFactory("Drift scan coordinator", Thread.MIN_PRIORITY));
+	private final ExecutorService workers;
+	private final IoThrottle throttle;
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final Map<String, Baseline> baselines = new ConcurrentHashMap<String, Baseline>();
+	private volatile DriftReport lastReport;
+
+	/**
+	 * @param threads The number of implementations to scan at the same time.
+	 * @param bytesPerSecond The most bytes of config to read per second, 0 for no limit.
+	 */
+	public DriftScanner(int threads, long bytesPerSecond) {
+		this.workers = Executors.newFixedThreadPool(Math.max(1, threads), new DaemonThreadFactory("Drift scan", Thread.MIN_PRIORITY));
+		this.throttle = new IoThrottle(bytesPerSecond);
+	}
+
+	/**
+	 * @return The scanner used at startup and on the schedule.
+	 */
+	public static DriftScanner getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return The report of the scan running now or the last one to run, or null if there hasn't been a scan since Jenkins started.
+	 */
+	public DriftReport getLastReport() {
+		return lastReport;
+	}
+
+	/**
+	 * Starts a scan in the background unless one is already running.
+	 * @param itemGroup The ItemGroup containing the implementations, typically Hudson.getInstance().
+	 * @param repair True to sync the drifted implementations.
+	 * @return True if the scan was started, false if one was already running.
+	 */
+	public boolean scanInBackground(final ItemGroup itemGroup, final boolean repair) {
+		if (!running.compareAndSet(false, true)) {
+			return false;
+		}
+		coordinator.submit(new Runnable() {
+			public void run() {
+				try {
+					doScan(itemGroup, repair);
+				} catch (InterruptedIOException e) {
+					LOGGER.log(Level.INFO, "Drift scan interrupted");
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.WARNING, "Drift scan failed", e);
+				} finally {
+					running.set(false);
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Scans every implementation in the given ItemGroup and waits for the scan to finish.
+	 * @param itemGroup The ItemGroup containing the implementations, typically Hudson.getInstance().
+	 * @param repair True to sync the drifted implementations.
+	 * @return The report, or null if a scan was already running.
+	 * @throws InterruptedIOException If interrupted while waiting for the scan.
+	 */
+	public DriftReport scan(ItemGroup itemGroup, boolean repair) throws InterruptedIOException {
+		if (!running.compareAndSet(false, true)) {
+			return null;
+		}
+		try {
+			return doScan(itemGroup, repair);
+		} finally {
+			running.set(false);
+		}
+	}
+
+	private DriftReport doScan(ItemGroup itemGroup, boolean repair) throws InterruptedIOException {
+		final DriftReport report = new DriftReport(repair);
+		lastReport = report;
+
+		List<TemplateImplementationProject> implementations = new ArrayList<TemplateImplementationProject>();
+		for (Object item : itemGroup.getItems()) {
+			if (item instanceof TemplateImplementationProject) {
+				implementations.add((TemplateImplementationProject) item);
+			}
+		}
+		report.started(implementations.size());
+
+		final Map<String, DriftReport.Reason> drifted = new ConcurrentHashMap<String, DriftReport.Reason>();
+		final Map<String, TemplateImplementationProject> byName = new HashMap<String, TemplateImplementationProject>();
+		List<Callable<Void>> checks = new ArrayList<Callable<Void>>(implementations.size());
+		for (final TemplateImplementationProject implementation : implementations) {
+			byName.put(implementation.getName(), implementation);
+			checks.add(new Callable<Void>() {
+				public Void call() throws InterruptedException {
+					try {
+						DriftReport.Reason reason = check(implementation);
+						if (reason == null) {
+							report.inSync();
+						} else {
+							drifted.put(implementation.getName(), reason);
+							report.drifted(implementation.getName(), reason);
+						}
+					} catch (IOException e) {
+						report.failed(implementation.getName(), e);
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			workers.invokeAll(checks);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while scanning " + implementations.size() + " implementations");
+		}
+
+		if (repair && !drifted.isEmpty()) {
+			Map<String, Callable<Void>> repairs = new LinkedHashMap<String, Callable<Void>>();
+			for (Map.Entry<String, DriftReport.Reason> entry : new TreeMap<String, DriftReport.Reason>(drifted).entrySet()) {
+				final TemplateImplementationProject implementation = byName.get(entry.getKey());
+				// A template change may have been propagated since the scan, only rewrite it if it still renders differently.
+				final boolean force = entry.getValue() != DriftReport.Reason.TEMPLATE_CHANGED;
+				repairs.put(entry.getKey(), new Callable<Void>() {
+					public Void call() throws IOException {
+						ImplementTemplateBuildWrapper wrapper = findWrapper(implementation);
+						wrapper.updateImplementationWithTemplate(implementation, findTemplate(implementation, wrapper), force);
+						return null;
+					}
+				});
+			}
+			Map<String, Throwable> failures = TemplatePropagator.getInstance().runAll(repairs);
+			for (String name : repairs.keySet()) {
+				if (failures.containsKey(name)) {
+					report.failed(name, failures.get(name));
+				} else {
+					report.repaired();
+				}
+			}
+		}
+
+		report.finished();
+		LOGGER.log(drifted.isEmpty() ? Level.FINE : Level.INFO, "Drift scan of {0} implementations found {1} out of sync, repaired {2}",
+				new Object[]{report.getScanned(), drifted.size(), report.getRepaired()});
+		return report;
+	}
+
+	/**
+	 * @return Why the implementation doesn't match its template, or null if it does or doesn't implement a template.
+	 */
+	private DriftReport.Reason check(TemplateImplementationProject implementation) throws IOException, InterruptedException {
+		ImplementTemplateBuildWrapper wrapper = findWrapper(implementation);
+		if (wrapper == null || wrapper.getTemplateName() == null) {
+			return null;
+		}
+		TemplateProject template = findTemplate(implementation, wrapper);
+		TemplateSnapshot snapshot = TemplateSnapshots.getInstance().get(template);
+		String expected;
+		RenderBuffer rendered = RenderBuffer.acquire();
+		try {
+			wrapper.render(snapshot, rendered);
+			expected = rendered.sha1();
+		} finally {
+			rendered.release();
+		}
+
+		File configFile = implementation.getConfigFile().getFile();
+		throttle.acquire(configFile.length());
+		synchronized (implementation) {
+			String renderedHash = wrapper.getRenderedHash();
+			String recorded = wrapper.getConfigHash();
+			String actual = null;
+			if (renderedHash == null || recorded == null) {
+				Baseline baseline = baselines.get(implementation.getName());
+				if (baseline == null) {
+					actual = HashUtils.sha1(FileUtils.readFileToByteArray(configFile));
+					baseline = new Baseline(renderedHash == null ? expected : renderedHash, recorded == null ? actual : recorded);
+					baselines.put(implementation.getName(), baseline);
+				}
+				renderedHash = renderedHash == null ? baseline.renderedHash : renderedHash;
+				recorded = recorded == null ? baseline.configHash : recorded;
+			} else {
+				baselines.remove(implementation.getName());
+			}
+
+			if (!renderedHash.equals(expected)) {
+				return DriftReport.Reason.TEMPLATE_CHANGED;
+			}
+			if (actual == null) {
+				actual = HashUtils.sha1(FileUtils.readFileToByteArray(configFile));
+			}
+			return recorded.equals(actual) ? null : DriftReport.Reason.CONFIG_CHANGED;
+		}
+	}
+
+	/**
+	 * Forgets the baseline taken for an implementation that's been deleted or renamed.
+	 * @param implementationName The implementation's old name.
+	 */
+	public void remove(String implementationName) {
+		baselines.remove(implementationName);
+	}
+
+	private static ImplementTemplateBuildWrapper findWrapper(TemplateImplementationProject implementation) {
+		Map<?, BuildWrapper> buildWrappers = implementation.getBuildWrappers();
+		if (buildWrappers != null) {
+			for (BuildWrapper buildWrapper : buildWrappers.values()) {
+				if (buildWrapper instanceof ImplementTemplateBuildWrapper) {
+					return (ImplementTemplateBuildWrapper) buildWrapper;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static TemplateProject findTemplate(TemplateImplementationProject implementation, ImplementTemplateBuildWrapper wrapper) throws IOException {
+		Item item = implementation.getParent().getItem(wrapper.getTemplateName());
+		if (!(item instanceof TemplateProject)) {
+			throw new IOException(implementation.getName() + " implements " + wrapper.getTemplateName() + ", which is not a template.");
+		}
+		return (TemplateProject) item;
+	}
+
+	/**
+	 * The hashes an implementation synced before they were recorded was found with the first time it was scanned.
+	 */
+	private static class Baseline {
+		private final String renderedHash;
+		private final String configHash;
+
+		private Baseline(String renderedHash, String configHash) {
+			this.renderedHash = renderedHash;
+			this.configHash = configHash;
+		}
+	}
+
+	/**
+	 * Scans once Jenkins has loaded, and forgets the baselines of implementations that are deleted or renamed.
+	 */
+	@Extension
+	public static class ListenerImpl extends ItemListener {
+		@Override
+		public void onLoaded() {
+			if (Boolean.valueOf(System.getProperty(ON_STARTUP_PROPERTY, "true"))) {
+				getInstance().scanInBackground(Hudson.getInstance(), Boolean.getBoolean(REPAIR_PROPERTY));
+			}
+		}
+
+		@Override
+		public void onDeleted(Item item) {
+			if (item instanceof TemplateImplementationProject) {
+				getInstance().remove(item.getName());
+			}
+		}
+
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			if (item instanceof TemplateImplementationProject) {
+				getInstance().remove(oldName);
+			}
+		}
+	}
+
+	/**
+	 * Scans on a schedule.
+	 */
+	@Extension
+	public static class PeriodicScan extends PeriodicWork {
+		private static final long PERIOD_MINUTES = Long.getLong(PERIOD_PROPERTY, 24 * 60);
+
+		@Override
+		public long getRecurrencePeriod() {
+			return PERIOD_MINUTES > 0 ? TimeUnit.MINUTES.toMillis(PERIOD_MINUTES) : DAY;
+		}
+
+		@Override
+		protected void doRun() {
+			if (PERIOD_MINUTES > 0) {
+				getInstance().scanInBackground(Hudson.getInstance(), Boolean.getBoolean(REPAIR_PROPERTY));
+			}
+		}
+	}
+}
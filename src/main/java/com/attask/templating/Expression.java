@@ -0,0 +1,505 @@
+package com.attask.templating;
+
+import java.util.*;
+
+/**
+ * A $${...} expression in a template or a parameter value, parsed once into a tree and evaluated for each render.
+ * <ul>
+ * <li>$${NAME} is the value of the variable NAME.</li>
+ * <li>$${NAME:-fallback} is the value of NAME, or the fallback if NAME has no value or is empty.
+ * The fallback is plain text unless it's a quoted string, a $$NAME or $${...} reference or a function call.</li>
+ * <li>$${lower(NAME)}, upper, trim, replace(text, target, replacement) and concat(a, b, ...) transform values.
+ * Arguments are expressions, 'quoted' or "quoted" for plain text.</li>
+ * </ul>
+ * A parameter value containing $${...} can refer to other parameters, see {@link Context}.
+ * Expressions are immutable and safe to share between threads.
+ */
+public abstract class Expression {
+	public static final String START = "$${";
+
+	private enum Function {
+		LOWER(1, 1),
+		UPPER(1, 1),
+		TRIM(1, 1),
+		REPLACE(3, 3),
+		CONCAT(1, Integer.MAX_VALUE);
+
+		private final int minArguments;
+		private final int maxArguments;
+
+		Function(int minArguments, int maxArguments) {
+			this.minArguments = minArguments;
+			this.maxArguments = maxArguments;
+		}
+
+		private String apply(String[] arguments) {
+			switch (this) {
+				case LOWER:
+					return arguments[0].toLowerCase(Locale.ENGLISH);
+				case UPPER:
+					return arguments[0].toUpperCase(Locale.ENGLISH);
+				case TRIM:
+					return arguments[0].trim();
+				case REPLACE:
+					return arguments[0].replace(arguments[1], arguments[2]);
+				default:
+					StringBuilder result = new StringBuilder();
+					for (String argument : arguments) {
+						result.append(argument);
+					}
+					return result.toString();
+			}
+		}
+	}
+
+	/**
+	 * @param context The variables to evaluate against.
+	 * @return The value, or null if a variable it needs has no value.
+	 * @throws ExpressionException If variables refer to each other in a cycle.
+	 */
+	public abstract String evaluate(Context context) throws ExpressionException;
+
+	/**
+	 * Adds the names of the variables this expression refers to, in the order they appear.
+	 */
+	abstract void collectVariableNames(Collection<String> names);
+
+	/**
+	 * Parses the inside of a $${...} expression.
+	 * @param source The expression, without the surrounding $${ and }.
+	 * @return The parsed expression.
+	 * @throws ExpressionException If the expression isn't valid.
+	 */
+	public static Expression parse(String source) throws ExpressionException {
+		Parser parser = new Parser(source);
+		Expression expression = parser.expression();
+		parser.skipSpaces();
+		if (!parser.atEnd()) {
+			throw parser.error("Unexpected '" + source.charAt(parser.position) + "'");
+		}
+		return expression;
+	}
+
+	/**
+	 * Parses text with $${...} expressions in it, such as a parameter value.
+	 * Expressions that aren't valid, and expressions whose variables have no value, are left in the text as they are.
+	 * @param text The text.
+	 * @return The parsed text.
+	 */
+	public static Expression parseText(String text) {
+		List<Expression> parts = new ArrayList<Expression>();
+		List<String> sources = new ArrayList<String>();
+		byte[] bytes = text.getBytes(CompiledTemplate.CHARSET);
+		int copyFrom = 0;
+		int i = 0;
+		while (i < bytes.length) {
+			int end = startsExpression(bytes, i, bytes.length) ? findEnd(bytes, i, bytes.length) : -1;
+			if (end < 0) {
+				i++;
+				continue;
+			}
+			try {
+				Expression expression = parse(new String(bytes, i + START.length(), end - i - START.length(), CompiledTemplate.CHARSET));
+				if (i > copyFrom) {
+					String literal = new String(bytes, copyFrom, i - copyFrom, CompiledTemplate.CHARSET);
+					parts.add(new Literal(literal));
+					sources.add(literal);
+				}
+				parts.add(expression);
+				sources.add(new String(bytes, i, end + 1 - i, CompiledTemplate.CHARSET));
+				copyFrom = end + 1;
+			} catch (ExpressionException e) {
+				// Left as text.
+			}
+			i = end + 1;
+		}
+		if (copyFrom < bytes.length) {
+			String literal = new String(bytes, copyFrom, bytes.length - copyFrom, CompiledTemplate.CHARSET);
+			parts.add(new Literal(literal));
+			sources.add(literal);
+		}
+		return new Text(parts.toArray(new Expression[parts.size()]), sources.toArray(new String[sources.size()]));
+	}
+
+	/**
+	 * @return True if an expression starts at the given position.
+	 */
+	static boolean startsExpression(byte[] bytes, int start, int end) {
+		return start + 2 < end && bytes[start] == '$' && bytes[start + 1] == '$' && bytes[start + 2] == '{';
+	}
+
+	/**
+	 * Finds the } closing the expression starting at the given position, skipping nested expressions and quoted text.
+	 * Only looks at ASCII bytes, which never appear inside other characters in UTF-8.
+	 * @return The position of the closing }, or -1 if the expression isn't closed.
+	 */
+	static int findEnd(byte[] bytes, int start, int end) {
+		int depth = 0;
+		byte quote = 0;
+		for (int i = start + START.length(); i < end; i++) {
+			byte b = bytes[i];
+			if (quote != 0) {
+				if (b == '\\') {
+					i++;
+				} else if (b == quote) {
+					quote = 0;
+				}
+			} else if (b == '\'' || b == '"') {
+				quote = b;
+			} else if (b == '{') {
+				depth++;
+			} else if (b == '}') {
+				if (depth == 0) {
+					return i;
+				}
+				depth--;
+			} else if (b == '\n' || b == '<') {
+				// Expressions never span lines or elements, so a stray $${ doesn't swallow the rest of the config.
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The values of an implementation's variables while one config is rendered.
+	 * A parameter whose value contains $${...} is evaluated the first time it's needed and then reused for the rest of the render.
+	 * Not safe to share between threads, each render gets its own.
+	 */
+	public static class Context {
+		private final Map<String, String> values;
+		private final Map<String, Expression> expressions;
+		private final Map<String, String> evaluated = new HashMap<String, String>();
+		private final List<String> evaluating = new ArrayList<String>();
+
+		/**
+		 * @param values The variable names (without the leading $$) and their values.
+		 * @param expressions The parsed values of the variables whose values contain $${...}, see {@link TemplateParameters#getExpressions()}.
+		 */
+		public Context(Map<String, String> values, Map<String, Expression> expressions) {
+			this.values = values;
+			this.expressions = expressions;
+		}
+
+		/**
+		 * @param name The name of a variable.
+		 * @return The variable's value with any expressions in it evaluated, or null if it has no value.
+		 * @throws ExpressionException If variables refer to each other in a cycle.
+		 */
+		public String get(String name) throws ExpressionException {
+			Expression expression = expressions.get(name);
+			if (expression == null) {
+				return values.get(name);
+			}
+			String result = evaluated.get(name);
+			if (result == null) {
+				if (evaluating.contains(name)) {
+					StringBuilder cycle = new StringBuilder();
+					for (String variable : evaluating.subList(evaluating.indexOf(name), evaluating.size())) {
+						cycle.append(variable).append(" -> ");
+					}
+					throw new ExpressionException("Variables refer to each other in a cycle: " + cycle + name);
+				}
+				evaluating.add(name);
+				try {
+					result = expression.evaluate(this);
+				} finally {
+					evaluating.remove(evaluating.size() - 1);
+				}
+				evaluated.put(name, result);
+			}
+			return result;
+		}
+	}
+
+	static class Literal extends Expression {
+		private final String value;
+
+		Literal(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public String evaluate(Context context) {
+			return value;
+		}
+
+		@Override
+		void collectVariableNames(Collection<String> names) {
+		}
+	}
+
+	static class Reference extends Expression {
+		private final String name;
+
+		Reference(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String evaluate(Context context) throws ExpressionException {
+			return context.get(name);
+		}
+
+		@Override
+		void collectVariableNames(Collection<String> names) {
+			names.add(name);
+		}
+	}
+
+	static class Fallback extends Expression {
+		private final Expression primary;
+		private final Expression fallback;
+
+		Fallback(Expression primary, Expression fallback) {
+			this.primary = primary;
+			this.fallback = fallback;
+		}
+
+		@Override
+		public String evaluate(Context context) throws ExpressionException {
+			String value = primary.evaluate(context);
+			return value == null || value.isEmpty() ? fallback.evaluate(context) : value;
+		}
+
+		@Override
+		void collectVariableNames(Collection<String> names) {
+			primary.collectVariableNames(names);
+			fallback.collectVariableNames(names);
+		}
+	}
+
+	static class Call extends Expression {
+		private final Function function;
+		private final Expression[] arguments;
+
+		Call(Function function, Expression[] arguments) {
+			this.function = function;
+			this.arguments = arguments;
+		}
+
+		@Override
+		public String evaluate(Context context) throws ExpressionException {
+			String[] values = new String[arguments.length];
+			for (int i = 0; i < arguments.length; i++) {
+				values[i] = arguments[i].evaluate(context);
+				if (values[i] == null) {
+					return null;
+				}
+			}
+			return function.apply(values);
+		}
+
+		@Override
+		void collectVariableNames(Collection<String> names) {
+			for (Expression argument : arguments) {
+				argument.collectVariableNames(names);
+			}
+		}
+	}
+
+	/**
+	 * Text with expressions in it. Never evaluates to null, expressions without a value are left as they were written.
+	 */
+	static class Text extends Expression {
+		private final Expression[] parts;
+		private final String[] sources;
+
+		Text(Expression[] parts, String[] sources) {
+			this.parts = parts;
+			this.sources = sources;
+		}
+
+		@Override
+		public String evaluate(Context context) throws ExpressionException {
+			StringBuilder result = new StringBuilder();
+			for (int i = 0; i < parts.length; i++) {
+				String value = parts[i].evaluate(context);
+				result.append(value == null ? sources[i] : value);
+			}
+			return result.toString();
+		}
+
+		@Override
+		void collectVariableNames(Collection<String> names) {
+			for (Expression part : parts) {
+				part.collectVariableNames(names);
+			}
+		}
+	}
+
+	/**
+	 * A recursive descent parser over the characters of one expression, see the class comment for the grammar.
+	 */
+	private static class Parser {
+		private final String source;
+		private int position;
+		private int depth;
+
+		private Parser(String source) {
+			this.source = source;
+		}
+
+		private Expression expression() throws ExpressionException {
+			Expression primary = primary();
+			skipSpaces();
+			if (source.startsWith(":-", position)) {
+				position += 2;
+				return new Fallback(primary, fallback());
+			}
+			return primary;
+		}
+
+		private Expression primary() throws ExpressionException {
+			skipSpaces();
+			if (atEnd()) {
+				throw error("Expected a variable, function or string");
+			}
+			char c = source.charAt(position);
+			if (c == '\'' || c == '"') {
+				return string(c);
+			}
+			if (source.startsWith(START, position)) {
+				position += START.length();
+				depth++;
+				Expression nested = expression();
+				depth--;
+				skipSpaces();
+				expect('}');
+				return nested;
+			}
+			if (source.startsWith("$$", position)) {
+				position += 2;
+				return new Reference(name());
+			}
+			String name = name();
+			skipSpaces();
+			if (!atEnd() && source.charAt(position) == '(') {
+				return call(name);
+			}
+			return new Reference(name);
+		}
+
+		private Expression fallback() throws ExpressionException {
+			int start = position;
+			skipSpaces();
+			if (!atEnd()) {
+				char c = source.charAt(position);
+				if (c == '\'' || c == '"' || source.startsWith("$$", position) || startsCall()) {
+					return expression();
+				}
+			}
+			position = start;
+			while (!atEnd()) {
+				char c = source.charAt(position);
+				if (depth > 0 && (c == ',' || c == ')' || c == '}')) {
+					break;
+				}
+				position++;
+			}
+			return new Literal(source.substring(start, position));
+		}
+
+		private boolean startsCall() {
+			int i = position;
+			while (i < source.length() && isNameCharacter(source.charAt(i))) {
+				i++;
+			}
+			if (i == position) {
+				return false;
+			}
+			while (i < source.length() && source.charAt(i) == ' ') {
+				i++;
+			}
+			return i < source.length() && source.charAt(i) == '(';
+		}
+
+		private Expression call(String name) throws ExpressionException {
+			Function function;
+			try {
+				function = Function.valueOf(name.toUpperCase(Locale.ENGLISH));
+			} catch (IllegalArgumentException e) {
+				throw error("Unknown function " + name);
+			}
+			expect('(');
+			depth++;
+			List<Expression> arguments = new ArrayList<Expression>();
+			skipSpaces();
+			if (!atEnd() && source.charAt(position) == ')') {
+				position++;
+			} else {
+				while (true) {
+					arguments.add(expression());
+					skipSpaces();
+					if (atEnd()) {
+						throw error("Expected ')'");
+					}
+					char c = source.charAt(position++);
+					if (c == ')') {
+						break;
+					}
+					if (c != ',') {
+						throw error("Expected ',' or ')'");
+					}
+				}
+			}
+			depth--;
+			if (arguments.size() < function.minArguments || arguments.size() > function.maxArguments) {
+				throw error(name + " doesn't take " + arguments.size() + " argument(s)");
+			}
+			return new Call(function, arguments.toArray(new Expression[arguments.size()]));
+		}
+
+		private Expression string(char quote) throws ExpressionException {
+			position++;
+			StringBuilder value = new StringBuilder();
+			while (!atEnd()) {
+				char c = source.charAt(position++);
+				if (c == quote) {
+					return new Literal(value.toString());
+				}
+				if (c == '\\' && !atEnd()) {
+					c = source.charAt(position++);
+				}
+				value.append(c);
+			}
+			throw error("Unclosed string");
+		}
+
+		private String name() throws ExpressionException {
+			int start = position;
+			while (!atEnd() && isNameCharacter(source.charAt(position))) {
+				position++;
+			}
+			if (start == position) {
+				throw error("Expected a variable name");
+			}
+			return source.substring(start, position);
+		}
+
+		private void expect(char c) throws ExpressionException {
+			if (atEnd() || source.charAt(position) != c) {
+				throw error("Expected '" + c + "'");
+			}
+			position++;
+		}
+
+		private void skipSpaces() {
+			while (!atEnd() && source.charAt(position) == ' ') {
+				position++;
+			}
+		}
+
+		private boolean atEnd() {
+			return position >= source.length();
+		}
+
+		private ExpressionException error(String message) {
+			return new ExpressionException(message + " at " + position + " in $${" + source + "}");
+		}
+
+		private static boolean isNameCharacter(char c) {
+			return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_';
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package com.attask.templating;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a $${...} expression can't be parsed, or can't be evaluated because variables refer to each other in a cycle.
+ */
+public class ExpressionException extends IOException {
+	public ExpressionException(String message) {
+		super(message);
+	}
+}
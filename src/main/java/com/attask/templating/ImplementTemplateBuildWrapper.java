@@ -1,21 +1,22 @@
 package com.attask.templating;
 
-import com.attask.utils.CollectionUtils;
+import com.attask.utils.RenderBuffer;
 import com.attask.utils.UnixUtils;
-import com.google.common.collect.ImmutableMap;
+import com.thoughtworks.xstream.converters.ConversionException;
+import com.thoughtworks.xstream.io.StreamException;
+import com.thoughtworks.xstream.io.xml.XppReader;
 import hudson.Extension;
 import hudson.Launcher;
-import hudson.XmlFile;
 import hudson.model.*;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
 import hudson.util.FormValidation;
+import hudson.util.IOException2;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
 import java.io.*;
-import java.util.Map;
-import java.util.regex.Pattern;
+import java.nio.channels.Channels;
 
 /**
  * This is the build wrapper that needs to be enabled on a TemplateImplementationProject for the implementation effects to take place.
@@ -27,7 +28,11 @@ import java.util.regex.Pattern;
  */
 public class ImplementTemplateBuildWrapper extends BuildWrapper {
 	private String templateName;
-	private String parameters; //TODO: change to a map and use a repeater in the jelly file for defining variables
+	private String parameters; //TODO: use a repeater in the jelly file for defining variables
+	private transient volatile TemplateParameters parsedParameters;
+	private transient volatile TemplateParameters renderedParameters;
+	private volatile String renderedHash;
+	private transient volatile String configHash;
 
 	public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
 
@@ -35,11 +40,23 @@ public class ImplementTemplateBuildWrapper extends BuildWrapper {
 	public ImplementTemplateBuildWrapper(String templateName, String parameters) {
 		this.templateName = templateName;
 		this.parameters = parameters;
+		this.parsedParameters = TemplateParameters.parse(parameters);
+	}
+
+	/**
+	 * Parses the parameters when loaded from disk, since XStream doesn't call the constructor.
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	protected Object readResolve() {
+		this.parsedParameters = TemplateParameters.parse(parameters);
+		return this;
 	}
 
 	/**
 	 * Updates the the given implementation to implement the given template
 	 * with the parameter values specified in this BuildWrapper.
+	 * If the rendered config is the same as it was the last time the implementation was synced, nothing is written.
+	 * Safe to call from multiple threads, the implementation is locked while it's synced.
 	 * @param implementation The implementation Project to sync.
 	 * @param template The Template to sync from.
 	 * @throws IOException
@@ -47,42 +64,169 @@ public class ImplementTemplateBuildWrapper extends BuildWrapper {
 	 * an IOException will be thrown.
 	 */
 	public void updateImplementationWithTemplate(TemplateImplementationProject implementation, TemplateProject template) throws IOException {
+		updateImplementationWithTemplate(implementation, template, false);
+	}
+
+	/**
+	 * Updates the the given implementation to implement the given template
+	 * with the parameter values specified in this BuildWrapper.
+	 * Safe to call from multiple threads, the implementation is locked while it's synced.
+	 * Renders from the template's current snapshot, so a save of the template while this runs can't be seen half written.
+	 * @param implementation The implementation Project to sync.
+	 * @param template The Template to sync from.
+	 * @param force If false and the rendered config hashes the same as the last time the implementation was synced,
+	 * the implementation isn't rewritten, reloaded or saved.
+	 * Should be true whenever the implementation itself may have been changed since it was last synced.
+	 * @return True if the implementation was rewritten, false if it was skipped.
+	 * @throws IOException
+	 * If the config XML file cannot be found, read, or written for either the template or implementation,
+	 * an IOException will be thrown.
+	 */
+	public boolean updateImplementationWithTemplate(TemplateImplementationProject implementation, TemplateProject template, boolean force) throws IOException {
 		if(implementation == null) {
-			return;
+			return false;
 		}
 
 		if(template == null) {
-			return;
+			return false;
 		}
 
-		ImmutableMap.Builder<Pattern, String> patternPairsBuilder = ImmutableMap.builder();
-		patternPairsBuilder.put(Pattern.compile(TemplateProject.class.getCanonicalName() + ">"), TemplateImplementationProject.class.getCanonicalName() + ">");
-		for (Map.Entry<String, String> parameters : CollectionUtils.expandToMap(this.parameters).entrySet()) {
-			patternPairsBuilder.put(Pattern.compile("\\$\\$" + parameters.getKey()), parameters.getValue());
-		}
+		// AbstractItem.save() locks on the job, so holding the same lock keeps a save of the implementation
+		// from interleaving with a sync running on another thread.
+		TemplateMetrics metrics = TemplateMetrics.forTemplate(template.getName());
+		long start = System.nanoTime();
+		synchronized (implementation) {
+			assert template.getConfigFile() != null : "template config file shouldn't be null";
+			TemplateSnapshot snapshot = TemplateSnapshots.getInstance().get(template);
+			RenderBuffer rendered = RenderBuffer.acquire();
+			try {
+				render(snapshot, rendered);
+				metrics.bytesRendered(rendered.size());
 
-		XmlFile implementationXmlFile = implementation.getConfigFile();
-		File implementationFile = implementationXmlFile.getFile();
+				String hash = rendered.sha1();
+				if (!force && hash.equals(renderedHash)) {
+					metrics.implementationSkipped();
+					return false;
+				}
 
-		assert template.getConfigFile() != null : "template config file shouldn't be null";
+				reloadDescriptor(implementation);
+				apply(implementation, rendered.toInputStream(), hash);
+				metrics.implementationSynced();
+				return true;
+			} finally {
+				rendered.release();
+				metrics.record(TemplateMetrics.Stage.SYNC, start);
+			}
+		}
+	}
 
-		InputStream templateFileStream = new FileInputStream(template.getConfigFile().getFile());
-		try {
-			OutputStream outputStream = new FileOutputStream(implementationFile);
+	/**
+	 * Replaces the implementation's settings with an already rendered template config and saves it with this wrapper attached.
+	 * The config is unmarshalled straight from memory and the result is only written once.
+	 * saveNoUpdate writes the whole config to a temp file and renames it over config.xml,
+	 * so a failed write or a crash leaves the old config.xml alone.
+	 * The hash of the written config.xml is kept in memory for the {@link DriftScanner}, see {@link #getConfigHash()}.
+	 * Unlike {@link #updateImplementationWithTemplate(TemplateImplementationProject, TemplateProject, boolean)}
+	 * this doesn't reload the implementation's descriptor, callers applying many configs should do that once beforehand.
+	 * @param implementation The implementation Project to update.
+	 * @param rendered The template config rendered with this wrapper's parameters, encoded with {@link CompiledTemplate#CHARSET}.
+	 * @param hash SHA-1 of the rendered config.
+	 * @throws IOException If the rendered config can't be unmarshalled or the implementation can't be saved.
+	 */
+	public void apply(TemplateImplementationProject implementation, InputStream rendered, String hash) throws IOException {
+		TemplateMetrics metrics = TemplateMetrics.forTemplate(templateName);
+		synchronized (implementation) {
+			long start = System.nanoTime();
+			unmarshal(implementation, rendered);
+			metrics.record(TemplateMetrics.Stage.UNMARSHAL, start);
+
+			start = System.nanoTime();
+			// The hash is saved along with the wrapper, but only counts once the save succeeded,
+			// otherwise the next sync would skip an implementation that was never written.
+			String previousHash = this.renderedHash;
+			boolean saved = false;
 			try {
-				UnixUtils.sed(templateFileStream, outputStream, patternPairsBuilder.build());
+				this.renderedHash = hash;
+				implementation.getBuildWrappersList().add(this);
+				this.configHash = implementation.saveNoUpdate();
+				saved = true;
 			} finally {
-				outputStream.flush();
-				outputStream.close();
+				if (!saved) {
+					this.renderedHash = previousHash;
+				}
 			}
-		} finally {
-			templateFileStream.close();
+			metrics.record(TemplateMetrics.Stage.SAVE, start);
 		}
+	}
 
+	/**
+	 * Reloads the implementation's descriptor so the rendered config is read with its current settings.
+	 * @param implementation The implementation about to be synced.
+	 */
+	protected void reloadDescriptor(TemplateImplementationProject implementation) {
 		implementation.getDescriptor().load();
-		implementation = (TemplateImplementationProject) implementationXmlFile.unmarshal(implementation);
-		implementation.getBuildWrappersList().add(this);
-		implementation.saveNoUpdate();
+	}
+
+	/**
+	 * Replaces the implementation's settings with the rendered template config.
+	 * @param implementation The implementation to update.
+	 * @param rendered The rendered config, encoded with {@link CompiledTemplate#CHARSET}.
+	 * @throws IOException If the rendered config can't be unmarshalled.
+	 */
+	protected void unmarshal(TemplateImplementationProject implementation, InputStream rendered) throws IOException {
+		Reader reader = new InputStreamReader(rendered, CompiledTemplate.CHARSET);
+		try {
+			Items.XSTREAM.unmarshal(new XppReader(reader), implementation);
+		} catch (StreamException e) {
+			throw new IOException2("Unable to read the rendered config of " + implementation.getName(), e);
+		} catch (ConversionException e) {
+			throw new IOException2("Unable to read the rendered config of " + implementation.getName(), e);
+		} catch (Error e) {
+			throw new IOException2("Unable to read the rendered config of " + implementation.getName(), e);
+		}
+	}
+
+	/**
+	 * Renders the current snapshot of the given template with this wrapper's parameters, see {@link TemplateSnapshots}.
+	 * @param template The template to render.
+	 * @param outputStream Where to write the rendered config. The stream is not closed.
+	 * @throws IOException If the template can't be read or merged, or the stream can't be written to.
+	 */
+	public void render(TemplateProject template, OutputStream outputStream) throws IOException {
+		render(TemplateSnapshots.getInstance().get(template), outputStream);
+	}
+
+	/**
+	 * Renders the given snapshot of a template with this wrapper's parameters laid over the snapshot's default parameters,
+	 * entirely from memory.
+	 * Uses the {@link XmlTemplateRenderer} if it's enabled, otherwise the snapshot's compiled template when the parameter
+	 * names allow it, otherwise evaluates the snapshot's expressions and streams the result through the parameters' token replacer.
+	 * @param snapshot The snapshot to render.
+	 * @param outputStream Where to write the rendered config. The stream is not closed.
+	 * @throws IOException If the stream can't be written to, or variables refer to each other in a cycle.
+	 */
+	public void render(TemplateSnapshot snapshot, OutputStream outputStream) throws IOException {
+		TemplateMetrics metrics = TemplateMetrics.forTemplate(templateName);
+		long start = System.nanoTime();
+		TemplateParameters parameters = getParsedParameters(snapshot.getDefaults());
+		if (XmlTemplateRenderer.isEnabled()) {
+			Expression.Context context = new Expression.Context(parameters.getValues(), parameters.getExpressions());
+			XmlTemplateRenderer.render(snapshot.openStream(), parameters.getTextReplacer(), context, outputStream);
+			metrics.record(TemplateMetrics.Stage.XML, start);
+		} else if (parameters.isCompilable()) {
+			snapshot.getCompiled().render(parameters, outputStream);
+			metrics.record(TemplateMetrics.Stage.RENDER, start);
+		} else {
+			// Variable names the compiled slots can't match are replaced as text, once the expressions have been evaluated.
+			RenderBuffer evaluated = RenderBuffer.acquire();
+			try {
+				snapshot.getCompiled().renderExpressions(parameters, evaluated);
+				UnixUtils.sed(Channels.newChannel(evaluated.toInputStream()), Channels.newChannel(outputStream), parameters.getReplacer());
+			} finally {
+				evaluated.release();
+			}
+			metrics.record(TemplateMetrics.Stage.SED, start);
+		}
 	}
 
 	/**
@@ -90,34 +234,31 @@ public class ImplementTemplateBuildWrapper extends BuildWrapper {
 	 * given ItemGroup (which is typically the Hudson.getInstance() object)
 	 * to be in sync with the given template.
 	 * Will only sync the implementation projects, any other type of Project in the ItemGroup will be skipped.
+	 * The implementations are looked up through the {@link ImplementationIndex} rather than scanning every item,
+	 * and are synced by the {@link TemplatePropagator}.
 	 * @param hudson ItemGroup that will contain all the projects that might be updated, typically Hudson.getInstance()
 	 * @param template The template to sync all the implementations.
 	 * @throws IOException
-	 * If the config XML file cannot be found, read, or written for either the template or implementation,
-	 * an IOException will be thrown.
+	 * If the config XML file cannot be found, read, or written for either the template or any of the implementations,
+	 * a {@link PropagationException} listing every implementation that failed will be thrown.
 	 */
 	public static void updateImplementationsOfTemplate(ItemGroup hudson, TemplateProject template) throws IOException {
-		for (Object o : hudson.getItems()) {
-			if(o instanceof TopLevelItem) {
-				TopLevelItem implementationProject = (TopLevelItem)o;
-				if (implementationProject instanceof TemplateImplementationProject) {
-					ImplementTemplateBuildWrapper implementer = null;
-					for (BuildWrapper buildWrapper : ((TemplateImplementationProject) implementationProject).getBuildWrappers().values()) {
-						if (buildWrapper != null && buildWrapper instanceof ImplementTemplateBuildWrapper) {
-							ImplementTemplateBuildWrapper temp = (ImplementTemplateBuildWrapper) buildWrapper;
-							if (template.getName().equals(temp.getTemplateName())) {
-								implementer = temp;
-								break;
-							}
-						}
-					}
-
-					if (implementer != null) {
-						implementer.updateImplementationWithTemplate((TemplateImplementationProject) implementationProject, template);
-					}
+		TemplatePropagator.getInstance().propagate(hudson, template);
+	}
+
+	/**
+	 * @return The ImplementTemplateBuildWrapper of the given implementation if it implements the given template, otherwise null.
+	 */
+	static ImplementTemplateBuildWrapper findImplementer(TemplateImplementationProject implementationProject, TemplateProject template) {
+		for (BuildWrapper buildWrapper : implementationProject.getBuildWrappers().values()) {
+			if (buildWrapper != null && buildWrapper instanceof ImplementTemplateBuildWrapper) {
+				ImplementTemplateBuildWrapper temp = (ImplementTemplateBuildWrapper) buildWrapper;
+				if (template.getName().equals(temp.getTemplateName())) {
+					return temp;
 				}
 			}
 		}
+		return null;
 	}
 
 	/**
@@ -140,6 +281,24 @@ public class ImplementTemplateBuildWrapper extends BuildWrapper {
 		return templateName;
 	}
 
+	/**
+	 * @return SHA-1 of the template config as rendered for this implementation the last time it was synced,
+	 * or null if it hasn't been synced since these settings were saved.
+	 */
+	public String getRenderedHash() {
+		return renderedHash;
+	}
+
+	/**
+	 * The config.xml is hashed as it's written, so it's never read back. The hash can't be saved in the config it's
+	 * the hash of, so it's only kept until Jenkins restarts.
+	 * @return SHA-1 of the implementation's config.xml as the last sync since Jenkins started wrote it,
+	 * or null if it hasn't been synced since.
+	 */
+	public String getConfigHash() {
+		return configHash;
+	}
+
 	/**
 	 * @param templateName The name of the template to be implemented
 	 */
@@ -159,6 +318,46 @@ public class ImplementTemplateBuildWrapper extends BuildWrapper {
 	 */
 	public void setParameters(String parameters) {
 		this.parameters = parameters;
+		this.parsedParameters = TemplateParameters.parse(parameters);
+	}
+
+	/**
+	 * @return The parameters parsed into a map, along with anything needed to render them.
+	 */
+	public TemplateParameters getParsedParameters() {
+		TemplateParameters result = parsedParameters;
+		if (result == null) {
+			result = TemplateParameters.parse(parameters);
+			parsedParameters = result;
+		}
+		return result;
+	}
+
+	/**
+	 * The parameters laid over the given template defaults.
+	 * The result is kept until the defaults change, so syncing many times against the same snapshot doesn't build it again.
+	 * @param defaults The template's default parameters, see {@link TemplateSnapshot#getDefaults()}.
+	 * @return The parameters, with the defaults' values for any variable this wrapper doesn't set.
+	 */
+	public TemplateParameters getParsedParameters(TemplateParameters defaults) {
+		TemplateParameters own = getParsedParameters();
+		TemplateParameters result = renderedParameters;
+		if (result == null || result.getOwnValues() != own.getOwnValues() || result.getDefaults() != defaults) {
+			result = own.withDefaults(defaults);
+			renderedParameters = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Drops the parameters that are the same as the given template defaults, so only what differs is saved with the implementation.
+	 * @param defaults The template's default parameters.
+	 */
+	public void removeDefaultParameters(TemplateParameters defaults) {
+		String compacted = TemplateParameters.withoutDefaults(parameters, defaults);
+		if (compacted != null && !compacted.equals(parameters)) {
+			setParameters(compacted);
+		}
 	}
 
 	@Extension
@@ -189,6 +388,9 @@ public class ImplementTemplateBuildWrapper extends BuildWrapper {
 			}
 
 			ItemGroup<TopLevelItem> instance = getHudson();
+			if (TemplateRegistry.forItemGroup(instance).contains(value)) {
+				return FormValidation.ok();
+			}
 			TopLevelItem topLevelItem = instance.getItem(value);
 			if (topLevelItem == null) {
 				return FormValidation.error("Project " + value + " does not exist.");
@@ -0,0 +1,240 @@
+package com.attask.templating;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.listeners.ItemListener;
+import hudson.tasks.BuildWrapper;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reverse index from a template's name to the names of the implementations implementing it,
+ * so syncing a template doesn't have to look at every job in Jenkins to find its implementations.
+ * There is one index per ItemGroup. It is built the first time it's needed (or when Jenkins finishes loading)
+ * and then kept current by {@link ListenerImpl} and by {@link TemplateImplementationProject#save()}.
+ */
+public class ImplementationIndex {
+	private static final Logger LOGGER = Logger.getLogger(ImplementationIndex.class.getName());
+	private static final Map<ItemGroup, ImplementationIndex> INDEXES = Collections.synchronizedMap(new WeakHashMap<ItemGroup, ImplementationIndex>());
+
+	private final ConcurrentMap<String, Set<String>> implementationsByTemplate = new ConcurrentHashMap<String, Set<String>>();
+	private final ConcurrentMap<String, String> templateByImplementation = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Gets the index for the given ItemGroup, building it if it hasn't been built yet.
+	 * @param itemGroup The ItemGroup containing the implementations, typically Hudson.getInstance().
+	 * @return The index of the implementations in the given ItemGroup.
+	 */
+	public static ImplementationIndex forItemGroup(ItemGroup itemGroup) {
+		ImplementationIndex index = INDEXES.get(itemGroup);
+		if (index == null) {
+			synchronized (INDEXES) {
+				index = INDEXES.get(itemGroup);
+				if (index == null) {
+					index = build(itemGroup);
+					INDEXES.put(itemGroup, index);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Throws away the current index of the given ItemGroup and builds it again from scratch.
+	 * @param itemGroup The ItemGroup containing the implementations, typically Hudson.getInstance().
+	 * @return The new index.
+	 */
+	public static ImplementationIndex rebuild(ItemGroup itemGroup) {
+		ImplementationIndex index = build(itemGroup);
+		INDEXES.put(itemGroup, index);
+		return index;
+	}
+
+	/**
+	 * Looks at every item in the ItemGroup in parallel, indexing all of the TemplateImplementationProjects.
+	 */
+	private static ImplementationIndex build(ItemGroup itemGroup) {
+		final ImplementationIndex index = new ImplementationIndex();
+		final List<Object> items = new ArrayList<Object>(itemGroup.getItems());
+
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), Math.max(1, items.size() / 1000));
+		if (threads <= 1) {
+			index.addAll(items);
+			return index;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			int chunkSize = (items.size() + threads - 1) / threads;
+			for (int start = 0; start < items.size(); start += chunkSize) {
+				final List<Object> chunk = items.subList(start, Math.min(items.size(), start + chunkSize));
+				futures.add(executor.submit(new Runnable() {
+					public void run() {
+						index.addAll(chunk);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while building the implementation index", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to build the implementation index", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return index;
+	}
+
+	/**
+	 * @param templateName The name of the template.
+	 * @return The names of all the implementations of the given template. Never null.
+	 */
+	public Set<String> getImplementationNames(String templateName) {
+		Set<String> names = implementationsByTemplate.get(templateName);
+		if (names == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(names);
+	}
+
+	/**
+	 * @param implementationName The name of the implementation.
+	 * @return The name of the template the given implementation implements, or null if it isn't indexed.
+	 */
+	public String getTemplateName(String implementationName) {
+		return templateByImplementation.get(implementationName);
+	}
+
+	/**
+	 * Indexes the given implementation under the template its ImplementTemplateBuildWrapper points to,
+	 * removing it from the template it previously implemented.
+	 * @param implementation The implementation that has been created, loaded or changed.
+	 */
+	public void update(TemplateImplementationProject implementation) {
+		String implementationName = implementation.getName();
+		String templateName = findTemplateName(implementation);
+		if (templateName == null) {
+			remove(implementationName);
+			return;
+		}
+
+		String previousTemplateName = templateByImplementation.put(implementationName, templateName);
+		if (previousTemplateName != null && !previousTemplateName.equals(templateName)) {
+			removeFromTemplate(previousTemplateName, implementationName);
+		}
+		getOrCreateImplementations(templateName).add(implementationName);
+	}
+
+	/**
+	 * @param implementationName The name of the implementation that no longer exists.
+	 */
+	public void remove(String implementationName) {
+		String templateName = templateByImplementation.remove(implementationName);
+		if (templateName != null) {
+			removeFromTemplate(templateName, implementationName);
+		}
+	}
+
+	/**
+	 * @param oldName The implementation's previous name.
+	 * @param newName The implementation's new name.
+	 */
+	public void rename(String oldName, String newName) {
+		String templateName = templateByImplementation.remove(oldName);
+		if (templateName != null) {
+			templateByImplementation.put(newName, templateName);
+			Set<String> implementations = getOrCreateImplementations(templateName);
+			implementations.add(newName);
+			implementations.remove(oldName);
+		}
+	}
+
+	private void addAll(List<Object> items) {
+		for (Object item : items) {
+			if (item instanceof TemplateImplementationProject) {
+				update((TemplateImplementationProject) item);
+			}
+		}
+	}
+
+	private Set<String> getOrCreateImplementations(String templateName) {
+		Set<String> implementations = implementationsByTemplate.get(templateName);
+		if (implementations == null) {
+			Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			implementations = implementationsByTemplate.putIfAbsent(templateName, created);
+			if (implementations == null) {
+				implementations = created;
+			}
+		}
+		return implementations;
+	}
+
+	private void removeFromTemplate(String templateName, String implementationName) {
+		Set<String> implementations = implementationsByTemplate.get(templateName);
+		if (implementations != null) {
+			implementations.remove(implementationName);
+		}
+	}
+
+	private static String findTemplateName(TemplateImplementationProject implementation) {
+		Map<?, BuildWrapper> buildWrappers = implementation.getBuildWrappers();
+		if (buildWrappers == null) {
+			return null;
+		}
+		for (BuildWrapper buildWrapper : buildWrappers.values()) {
+			if (buildWrapper instanceof ImplementTemplateBuildWrapper) {
+				return ((ImplementTemplateBuildWrapper) buildWrapper).getTemplateName();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Keeps the index of the Jenkins instance up to date as jobs are created, copied, renamed and deleted.
+	 */
+	@Extension
+	public static class ListenerImpl extends ItemListener {
+		@Override
+		public void onLoaded() {
+			long start = System.currentTimeMillis();
+			ImplementationIndex index = rebuild(Hudson.getInstance());
+			LOGGER.log(Level.FINE, "Indexed {0} template implementations in {1}ms",
+					new Object[]{index.templateByImplementation.size(), System.currentTimeMillis() - start});
+		}
+
+		@Override
+		public void onCreated(Item item) {
+			if (item instanceof TemplateImplementationProject) {
+				forItemGroup(item.getParent()).update((TemplateImplementationProject) item);
+			}
+		}
+
+		@Override
+		public void onCopied(Item src, Item item) {
+			onCreated(item);
+		}
+
+		@Override
+		public void onDeleted(Item item) {
+			if (item instanceof TemplateImplementationProject) {
+				forItemGroup(item.getParent()).remove(item.getName());
+			}
+		}
+
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			if (item instanceof TemplateImplementationProject) {
+				forItemGroup(item.getParent()).rename(oldName, newName);
+			}
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.attask.templating;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thrown when one or more implementations of a template couldn't be synced.
+ * Every implementation is still attempted, this reports all of the ones that failed rather than just the first.
+ */
+public class PropagationException extends IOException {
+	private final String templateName;
+	private final Map<String, Throwable> failures;
+
+	public PropagationException(String templateName, Map<String, Throwable> failures) {
+		super("Failed to sync " + failures.size() + " implementation(s) of " + templateName + ": " + failures.keySet(), failures.values().iterator().next());
+		this.templateName = templateName;
+		this.failures = Collections.unmodifiableMap(new LinkedHashMap<String, Throwable>(failures));
+	}
+
+	/**
+	 * @return The name of the template being synced.
+	 */
+	public String getTemplateName() {
+		return templateName;
+	}
+
+	/**
+	 * @return The name of each implementation that failed to sync and why.
+	 */
+	public Map<String, Throwable> getFailures() {
+		return failures;
+	}
+}
@@ -0,0 +1,174 @@
+package com.attask.templating;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import org.apache.commons.io.FileUtils;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append-only record of a template's propagation in progress, so a propagation cut short by a restart or an error
+ * can pick up where it stopped instead of syncing every implementation again.
+ * The journal records the version (a hash of the config) of the template being propagated and the name of each
+ * implementation as it's synced. It's deleted once every implementation has been synced.
+ * Starting a propagation of the same version of the template resumes the journal, any other version starts it over.
+ * Journals left behind when Jenkins stopped are resumed by {@link ListenerImpl} once Jenkins has loaded.
+ */
+public class PropagationJournal {
+	public static final String DIRECTORY = "template-propagation";
+
+	private static final Logger LOGGER = Logger.getLogger(PropagationJournal.class.getName());
+	private static final String EXTENSION = ".journal";
+	private static final String VERSION = "VERSION ";
+	private static final String DONE = "DONE ";
+
+	private final File file;
+	private final Set<String> completed;
+	private Writer writer;
+
+	private PropagationJournal(File file, Set<String> completed, Writer writer) {
+		this.file = file;
+		this.completed = completed;
+		this.writer = writer;
+	}
+
+	/**
+	 * Opens the journal of the given template, resuming it if it was recording the same version of the template.
+	 * @param rootDir The directory of the ItemGroup containing the template, typically Hudson.getInstance().getRootDir().
+	 * @param templateName The name of the template being propagated.
+	 * @param version The version of the template being propagated, see {@link #versionOf(TemplateProject)}.
+	 * @return The journal.
+	 * @throws IOException If the journal can't be read or written.
+	 */
+	public static PropagationJournal open(File rootDir, String templateName, String version) throws IOException {
+		File file = new File(new File(rootDir, DIRECTORY), templateName + EXTENSION);
+		Set<String> completed = new HashSet<String>();
+		boolean resume = false;
+		boolean cutOff = false;
+
+		if (file.isFile()) {
+			String content = FileUtils.readFileToString(file, CompiledTemplate.CHARSET.name());
+			// Only whole lines count, the last one may have been cut off when Jenkins stopped.
+			String[] lines = content.substring(0, content.lastIndexOf('\n') + 1).split("\n");
+			if (lines.length > 0 && lines[0].equals(VERSION + version)) {
+				resume = true;
+				cutOff = !content.endsWith("\n");
+				for (int i = 1; i < lines.length; i++) {
+					if (lines[i].startsWith(DONE)) {
+						completed.add(lines[i].substring(DONE.length()));
+					}
+				}
+			}
+		}
+
+		file.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file, resume), CompiledTemplate.CHARSET);
+		if (!resume) {
+			writer.write(VERSION + version + "\n");
+			writer.flush();
+		} else if (cutOff) {
+			writer.write("\n");
+			writer.flush();
+		}
+		return new PropagationJournal(file, completed, writer);
+	}
+
+	/**
+	 * @param template The template being propagated.
+	 * @return A hash of the config the template's implementations are rendered from.
+	 * @throws IOException If the config can't be read.
+	 */
+	public static String versionOf(TemplateProject template) throws IOException {
+		return TemplateSnapshots.getInstance().get(template).getHash();
+	}
+
+	/**
+	 * @param rootDir The directory of the ItemGroup containing the templates, typically Hudson.getInstance().getRootDir().
+	 * @return The names of the templates whose propagation didn't finish.
+	 */
+	public static List<String> findUnfinished(File rootDir) {
+		List<String> result = new ArrayList<String>();
+		File[] files = new File(rootDir, DIRECTORY).listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(EXTENSION)) {
+					result.add(name.substring(0, name.length() - EXTENSION.length()));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param implementationName The name of an implementation.
+	 * @return True if the implementation was already synced with this version of the template.
+	 */
+	public boolean isCompleted(String implementationName) {
+		return completed.contains(implementationName);
+	}
+
+	/**
+	 * @return The number of implementations already synced when the journal was opened.
+	 */
+	public int getCompletedCount() {
+		return completed.size();
+	}
+
+	/**
+	 * Records that the given implementation has been synced.
+	 * @param implementationName The name of the implementation.
+	 * @throws IOException If the journal can't be written.
+	 */
+	public synchronized void completed(String implementationName) throws IOException {
+		if (writer != null) {
+			writer.write(DONE + implementationName + "\n");
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Closes the journal, deleting it if every implementation was synced.
+	 * Otherwise it's kept so the implementations that weren't synced are the only ones synced when it's resumed.
+	 * @param succeeded True if every implementation was synced.
+	 */
+	public synchronized void close(boolean succeeded) {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.close();
+		} catch (IOException e) {
+			LOGGER.log(Level.FINE, "Unable to close " + file, e);
+		}
+		writer = null;
+		if (succeeded && !file.delete()) {
+			LOGGER.log(Level.WARNING, "Unable to delete the finished propagation journal {0}", file);
+		}
+	}
+
+	/**
+	 * Resumes the propagations that were left unfinished when Jenkins stopped.
+	 */
+	@Extension
+	public static class ListenerImpl extends ItemListener {
+		@Override
+		public void onLoaded() {
+			Hudson hudson = Hudson.getInstance();
+			for (String templateName : findUnfinished(hudson.getRootDir())) {
+				Item item = hudson.getItem(templateName);
+				if (item instanceof TemplateProject) {
+					LOGGER.log(Level.INFO, "Resuming the unfinished propagation of {0}", templateName);
+					PropagationQueue.getInstance().schedule(hudson, (TemplateProject) item);
+				} else {
+					new File(new File(hudson.getRootDir(), DIRECTORY), templateName + EXTENSION).delete();
+				}
+			}
+		}
+	}
+}
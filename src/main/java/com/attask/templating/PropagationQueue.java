@@ -0,0 +1,209 @@
+package com.attask.templating;
+
+import com.attask.utils.DaemonThreadFactory;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.listeners.ItemListener;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Propagates template changes to their implementations in the background so saving a template returns right away.
+ * Saves of the same template are coalesced: a propagation only starts once the template hasn't been saved for
+ * the debounce delay (the com.attask.templating.PropagationQueue.delay system property, in milliseconds),
+ * and any number of saves while a propagation is queued or running result in just one more propagation of the latest version.
+ * Different templates are propagated at the same time, up to the com.attask.templating.PropagationQueue.concurrency
+ * system property (4 by default), so one large propagation doesn't hold up every other template.
+ * The implementations of all of them are still synced on the propagator's threads.
+ */
+public class PropagationQueue {
+	public static final String DELAY_PROPERTY = PropagationQueue.class.getName() + ".delay";
+	public static final String CONCURRENCY_PROPERTY = PropagationQueue.class.getName() + ".concurrency";
+
+	private static final Logger LOGGER = Logger.getLogger(PropagationQueue.class.getName());
+	private static final PropagationQueue INSTANCE = new PropagationQueue(TemplatePropagator.getInstance(), Long.getLong(DELAY_PROPERTY, 1000), Integer.getInteger(CONCURRENCY_PROPERTY, 4));
+
+	private final TemplatePropagator propagator;
+	private final long delay;
+	private final ScheduledExecutorService dispatcher;
+	private final ExecutorService runners;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * @param propagator Does the actual syncing of the implementations.
+	 * @param delay How long in milliseconds a template has to go without being saved before it's propagated.
+	 * @param concurrency The most templates to propagate at the same time.
+	 */
+	public PropagationQueue(TemplatePropagator propagator, long delay, int concurrency) {
+		this.propagator = propagator;
+		this.delay = Math.max(0, delay);
+		this.dispatcher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Template propagation queue"));
+		int threads = Math.max(1, concurrency);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("Template propagation runner"));
+		pool.allowCoreThreadTimeOut(true);
+		this.runners = pool;
+	}
+
+	/**
+	 * @return The queue used when templates are saved.
+	 */
+	public static PropagationQueue getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Queues the given template to be propagated to all of its implementations.
+	 * If the template is already queued, this just pushes back when it will start.
+	 * If it's currently being propagated, it will be propagated once more when the current run finishes.
+	 * @param hudson ItemGroup that contains the implementations, typically Hudson.getInstance()
+	 * @param template The template that changed.
+	 * @return The status of the template's propagation.
+	 */
+	public synchronized PropagationStatus schedule(ItemGroup hudson, TemplateProject template) {
+		String templateName = template.getName();
+		Entry entry = entries.get(templateName);
+		if (entry == null) {
+			entry = new Entry(new PropagationStatus(templateName));
+			entries.put(templateName, entry);
+		}
+
+		entry.hudson = hudson;
+		entry.template = template;
+		entry.dueAt = System.currentTimeMillis() + delay;
+		entry.status.queued(entry.scheduled || entry.rerun);
+
+		if (entry.running) {
+			entry.rerun = true;
+		} else if (!entry.scheduled) {
+			entry.scheduled = true;
+			dispatcher.schedule(new Dispatch(entry), delay, TimeUnit.MILLISECONDS);
+		}
+		return entry.status;
+	}
+
+	/**
+	 * @param templateName The name of the template.
+	 * @return The status of the template's latest propagation, or null if it hasn't been queued since Jenkins started.
+	 */
+	public synchronized PropagationStatus getStatus(String templateName) {
+		Entry entry = entries.get(templateName);
+		return entry == null ? null : entry.status;
+	}
+
+	/**
+	 * Forgets the given template, so a deleted or renamed template's status isn't kept forever.
+	 * A propagation of it that's already running finishes, but isn't run again.
+	 * @param templateName The name of the template that no longer exists.
+	 */
+	public synchronized void remove(String templateName) {
+		Entry entry = entries.remove(templateName);
+		if (entry != null) {
+			entry.removed = true;
+			entry.rerun = false;
+		}
+	}
+
+	private static class Entry {
+		private final PropagationStatus status;
+		private ItemGroup hudson;
+		private TemplateProject template;
+		private long dueAt;
+		private boolean scheduled;
+		private boolean running;
+		private boolean rerun;
+		private boolean removed;
+
+		private Entry(PropagationStatus status) {
+			this.status = status;
+		}
+	}
+
+	/**
+	 * Waits on the dispatcher until the template has gone the whole delay without being saved,
+	 * then hands it over to a runner so the dispatcher is never busy propagating.
+	 */
+	private class Dispatch implements Runnable {
+		private final Entry entry;
+
+		private Dispatch(Entry entry) {
+			this.entry = entry;
+		}
+
+		public void run() {
+			synchronized (PropagationQueue.this) {
+				if (entry.removed) {
+					return;
+				}
+				long remaining = entry.dueAt - System.currentTimeMillis();
+				if (remaining > 0) {
+					dispatcher.schedule(this, remaining, TimeUnit.MILLISECONDS);
+					return;
+				}
+				entry.scheduled = false;
+				entry.running = true;
+			}
+			runners.execute(new Runner(entry));
+		}
+	}
+
+	private class Runner implements Runnable {
+		private final Entry entry;
+
+		private Runner(Entry entry) {
+			this.entry = entry;
+		}
+
+		public void run() {
+			ItemGroup hudson;
+			TemplateProject template;
+			synchronized (PropagationQueue.this) {
+				hudson = entry.hudson;
+				template = entry.template;
+			}
+
+			Throwable error = null;
+			try {
+				propagator.propagate(hudson, template, entry.status);
+			} catch (Throwable t) {
+				error = t;
+				LOGGER.log(Level.WARNING, "Failed to propagate " + template.getName() + " to its implementations", t);
+			} finally {
+				entry.status.finished(error);
+				synchronized (PropagationQueue.this) {
+					entry.running = false;
+					if (entry.rerun) {
+						entry.rerun = false;
+						entry.scheduled = true;
+						entry.status.queued(false);
+						dispatcher.schedule(new Dispatch(entry), Math.max(0, entry.dueAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops the entries of deleted and renamed templates.
+	 */
+	@Extension
+	public static class ListenerImpl extends ItemListener {
+		@Override
+		public void onDeleted(Item item) {
+			if (item instanceof TemplateProject) {
+				getInstance().remove(item.getName());
+			}
+		}
+
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			if (item instanceof TemplateProject) {
+				getInstance().remove(oldName);
+			}
+		}
+	}
+}
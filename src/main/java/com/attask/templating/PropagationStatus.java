@@ -0,0 +1,204 @@
+package com.attask.templating;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * The state of the most recent propagation of a template to its implementations.
+ * Updated by the {@link PropagationQueue} and {@link TemplatePropagator} as the propagation runs,
+ * read by anyone wanting to show the progress.
+ */
+public class PropagationStatus {
+	public enum State {
+		/** Nothing has been propagated since Jenkins started. */
+		IDLE,
+		/** Waiting for the template to stop changing before propagating. */
+		QUEUED,
+		/** Currently syncing the implementations. */
+		RUNNING,
+		/** Every implementation was synced. */
+		DONE,
+		/** At least one implementation couldn't be synced. */
+		FAILED
+	}
+
+	private static final int MAX_REPORTED_FAILURES = 50;
+
+	private final String templateName;
+	private volatile State state = State.IDLE;
+	private volatile int implementations;
+	private volatile int synced;
+	private volatile int failed;
+	private volatile int coalesced;
+	private volatile long queuedAt;
+	private volatile long startedAt;
+	private volatile long finishedAt;
+	private final Map<String, String> failures = new LinkedHashMap<String, String>();
+	private final List<Wave> waves = new ArrayList<Wave>();
+
+	public PropagationStatus(String templateName) {
+		this.templateName = templateName;
+	}
+
+	synchronized void queued(boolean alreadyPending) {
+		if (alreadyPending) {
+			coalesced++;
+		} else if (state != State.RUNNING) {
+			state = State.QUEUED;
+		}
+		queuedAt = System.currentTimeMillis();
+	}
+
+	synchronized void started(int implementations) {
+		this.state = State.RUNNING;
+		this.implementations = implementations;
+		this.synced = 0;
+		this.failed = 0;
+		this.failures.clear();
+		this.waves.clear();
+		this.startedAt = System.currentTimeMillis();
+		this.finishedAt = 0;
+	}
+
+	synchronized void implementationSynced() {
+		synced++;
+	}
+
+	synchronized void implementationFailed(String implementationName, Throwable cause) {
+		failed++;
+		if (failures.size() < MAX_REPORTED_FAILURES) {
+			failures.put(implementationName, String.valueOf(cause));
+		}
+	}
+
+	synchronized void waveFinished(boolean canary, int implementations, long millis, int failed) {
+		waves.add(new Wave(canary, implementations, millis, failed));
+	}
+
+	synchronized void finished(Throwable error) {
+		if (error != null && failed == 0) {
+			failures.put(templateName, String.valueOf(error));
+		}
+		state = (error == null && failed == 0) ? State.DONE : State.FAILED;
+		finishedAt = System.currentTimeMillis();
+	}
+
+	public String getTemplateName() {
+		return templateName;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return The number of implementations being synced by the current or last propagation.
+	 */
+	public int getImplementations() {
+		return implementations;
+	}
+
+	public int getSynced() {
+		return synced;
+	}
+
+	public int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return How many saves of the template were folded into an already queued propagation since Jenkins started.
+	 */
+	public int getCoalesced() {
+		return coalesced;
+	}
+
+	public long getQueuedAt() {
+		return queuedAt;
+	}
+
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	public long getFinishedAt() {
+		return finishedAt;
+	}
+
+	/**
+	 * @return The name of each implementation that failed in the current or last propagation and why. Limited to the first 50.
+	 */
+	public synchronized Map<String, String> getFailures() {
+		return Collections.unmodifiableMap(new LinkedHashMap<String, String>(failures));
+	}
+
+	/**
+	 * @return The waves of the current or last propagation that have finished, in order. See {@link RolloutPlan}.
+	 */
+	public synchronized List<Wave> getWaves() {
+		return Collections.unmodifiableList(new ArrayList<Wave>(waves));
+	}
+
+	public synchronized JSONObject toJSON() {
+		JSONObject json = new JSONObject();
+		json.put("template", templateName);
+		json.put("state", state.name());
+		json.put("implementations", implementations);
+		json.put("synced", synced);
+		json.put("failed", failed);
+		json.put("coalesced", coalesced);
+		json.put("queuedAt", queuedAt);
+		json.put("startedAt", startedAt);
+		json.put("finishedAt", finishedAt);
+		json.put("failures", failures);
+		JSONArray wavesJson = new JSONArray();
+		for (Wave wave : waves) {
+			JSONObject waveJson = new JSONObject();
+			waveJson.put("canary", wave.isCanary());
+			waveJson.put("implementations", wave.getImplementations());
+			waveJson.put("millis", wave.getMillis());
+			waveJson.put("failed", wave.getFailed());
+			wavesJson.add(waveJson);
+		}
+		json.put("waves", wavesJson);
+		return json;
+	}
+
+	/**
+	 * One wave of a propagation.
+	 */
+	public static class Wave {
+		private final boolean canary;
+		private final int implementations;
+		private final long millis;
+		private final int failed;
+
+		Wave(boolean canary, int implementations, long millis, int failed) {
+			this.canary = canary;
+			this.implementations = implementations;
+			this.millis = millis;
+			this.failed = failed;
+		}
+
+		public boolean isCanary() {
+			return canary;
+		}
+
+		public int getImplementations() {
+			return implementations;
+		}
+
+		/**
+		 * @return How long the wave took to sync, in milliseconds.
+		 */
+		public long getMillis() {
+			return millis;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+	}
+}
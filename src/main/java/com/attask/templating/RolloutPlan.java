@@ -0,0 +1,105 @@
+package com.attask.templating;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How a template change is rolled out to its implementations by the {@link TemplatePropagator}:
+ * a canary wave of a few implementations first, then waves of a fixed size, one wave after another,
+ * while keeping to a budget of syncs and bytes per second shared by every propagation.
+ * The default plan is a single wave with no budget.
+ * Set with the com.attask.templating.RolloutPlan.* system properties, see {@link #fromSystemProperties()}.
+ */
+public class RolloutPlan {
+	public static final String PREFIX = RolloutPlan.class.getName() + ".";
+	public static final RolloutPlan UNLIMITED = new RolloutPlan(0, 0, 0, 0, 0, false);
+
+	private final int canarySize;
+	private final int waveSize;
+	private final double opsPerSecond;
+	private final long bytesPerSecond;
+	private final long latencyThresholdMillis;
+	private final boolean haltOnCanaryFailure;
+
+	/**
+	 * @param canarySize The number of implementations in the first wave, 0 for no canary wave.
+	 * @param waveSize The number of implementations in each wave after the canary, 0 for all of them at once.
+	 * @param opsPerSecond The most implementations to sync per second, 0 for no limit.
+	 * @param bytesPerSecond The most bytes of config to render and write per second, 0 for no limit.
+	 * @param latencyThresholdMillis The average time to sync an implementation above which syncs are spaced out further, 0 to never back off.
+	 * @param haltOnCanaryFailure True to stop the rollout if any implementation in the canary wave fails.
+	 */
+	public RolloutPlan(int canarySize, int waveSize, double opsPerSecond, long bytesPerSecond, long latencyThresholdMillis, boolean haltOnCanaryFailure) {
+		this.canarySize = Math.max(0, canarySize);
+		this.waveSize = Math.max(0, waveSize);
+		this.opsPerSecond = Math.max(0, opsPerSecond);
+		this.bytesPerSecond = Math.max(0, bytesPerSecond);
+		this.latencyThresholdMillis = Math.max(0, latencyThresholdMillis);
+		this.haltOnCanaryFailure = haltOnCanaryFailure;
+	}
+
+	/**
+	 * Reads the plan from the canary, waveSize, opsPerSecond, bytesPerSecond, latencyThreshold (milliseconds)
+	 * and haltOnCanaryFailure system properties, each prefixed with com.attask.templating.RolloutPlan.
+	 * @return The plan, unlimited for any property that isn't set.
+	 */
+	public static RolloutPlan fromSystemProperties() {
+		String opsPerSecond = System.getProperty(PREFIX + "opsPerSecond");
+		return new RolloutPlan(
+				Integer.getInteger(PREFIX + "canary", 0),
+				Integer.getInteger(PREFIX + "waveSize", 0),
+				opsPerSecond == null ? 0 : Double.parseDouble(opsPerSecond),
+				Long.getLong(PREFIX + "bytesPerSecond", 0),
+				Long.getLong(PREFIX + "latencyThreshold", 0),
+				Boolean.valueOf(System.getProperty(PREFIX + "haltOnCanaryFailure", "true")));
+	}
+
+	/**
+	 * Splits the given implementations into waves, in order.
+	 * @param implementations The implementations to roll out to.
+	 * @return The waves, the canary wave first if there is one. Empty if there are no implementations.
+	 */
+	public <T> List<List<T>> split(List<T> implementations) {
+		if (implementations.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<List<T>> waves = new ArrayList<List<T>>();
+		int start = 0;
+		if (canarySize > 0) {
+			start = Math.min(canarySize, implementations.size());
+			waves.add(implementations.subList(0, start));
+		}
+		int size = waveSize > 0 ? waveSize : implementations.size();
+		while (start < implementations.size()) {
+			int end = Math.min(start + size, implementations.size());
+			waves.add(implementations.subList(start, end));
+			start = end;
+		}
+		return waves;
+	}
+
+	public int getCanarySize() {
+		return canarySize;
+	}
+
+	public int getWaveSize() {
+		return waveSize;
+	}
+
+	public double getOpsPerSecond() {
+		return opsPerSecond;
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public long getLatencyThresholdMillis() {
+		return latencyThresholdMillis;
+	}
+
+	public boolean isHaltOnCanaryFailure() {
+		return haltOnCanaryFailure;
+	}
+}
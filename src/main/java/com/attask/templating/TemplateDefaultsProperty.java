@@ -0,0 +1,67 @@
+package com.attask.templating;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Default values for a template's variables, used by every implementation that doesn't give its own value.
+ * Implementations then only need to store the values that differ, see {@link TemplateParameters#withDefaults(TemplateParameters)}.
+ * The defaults are part of the template's {@link TemplateSnapshot}, and are left out of the implementations' configs.
+ */
+public class TemplateDefaultsProperty extends JobProperty<TemplateProject> {
+	private final String parameters;
+
+	@DataBoundConstructor
+	public TemplateDefaultsProperty(String parameters) {
+		this.parameters = parameters;
+	}
+
+	/**
+	 * @return The default values, formatted the same as an implementation's parameters.
+	 */
+	public String getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * @param template The template.
+	 * @return The template's default values text, or null if it doesn't have any.
+	 */
+	static String getParameters(TemplateProject template) {
+		TemplateDefaultsProperty property = template.getProperty(TemplateDefaultsProperty.class);
+		if (property == null || property.getParameters() == null || property.getParameters().trim().isEmpty()) {
+			return null;
+		}
+		return property.getParameters();
+	}
+
+	@Extension
+	public static class DescriptorImpl extends JobPropertyDescriptor {
+		@Override
+		public boolean isApplicable(Class<? extends Job> jobType) {
+			return TemplateProject.class.isAssignableFrom(jobType);
+		}
+
+		/**
+		 * Doesn't add the property at all unless there are defaults.
+		 */
+		@Override
+		public JobProperty<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+			String parameters = formData.optString("parameters", "");
+			if (parameters.trim().isEmpty()) {
+				return null;
+			}
+			return new TemplateDefaultsProperty(parameters);
+		}
+
+		@Override
+		public String getDisplayName() {
+			return "Default parameters";
+		}
+	}
+}
@@ -33,10 +33,17 @@ public class TemplateImplementationBuild extends Build<TemplateImplementationPro
 		protected WorkspaceList.Lease decideWorkspace(Node n, WorkspaceList wsl) throws IOException, InterruptedException {
 			String customWorkspace = getProject().getCustomWorkspace();
 			if (customWorkspace != null) {
-				// we allow custom workspaces to be concurrently used between jobs.
+				// we allow custom workspaces to be concurrently used between jobs, so they're never seeded.
 				return WorkspaceList.Lease.createDummyLease(n.getRootPath().child(getEnvironment(listener).expand(customWorkspace)));
 			}
-			return super.decideWorkspace(n,wsl);
+			WorkspaceList.Lease lease = super.decideWorkspace(n,wsl);
+			try {
+				WorkspaceSeeder.seed(getProject(), n, wsl, lease.path, listener);
+			} catch (InterruptedException e) {
+				lease.release();
+				throw e;
+			}
+			return lease;
 		}
 	}
 }
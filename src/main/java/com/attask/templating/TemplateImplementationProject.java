@@ -1,14 +1,21 @@
 package com.attask.templating;
 
-import com.google.common.collect.ImmutableList;
+import com.attask.utils.AtomicFile;
+import com.attask.utils.HashUtils;
+import hudson.BulkChange;
 import hudson.Extension;
+import hudson.XmlFile;
 import hudson.model.*;
+import hudson.model.listeners.SaveableListener;
 import hudson.tasks.BuildWrapper;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import javax.servlet.ServletException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Collection;
 
 /**
@@ -37,13 +44,15 @@ public class TemplateImplementationProject extends Project<TemplateImplementatio
 	/**
 	 * Calls the normal save then syncs up with the template.
 	 * Effectively overwrites any changes made except to the ImplementTemplateBuildWrapper
+	 * Holds the lock on this job for the whole save so it can't interleave with a sync of its template.
 	 * @throws IOException
 	 * If the config.xml file of the template or implementation cannot be read or written to
 	 * an appropriate IOException will be thrown.
 	 */
 	@Override
-	public void save() throws IOException {
+	public synchronized void save() throws IOException {
 		super.save();
+		ImplementationIndex.forItemGroup(getParent()).update(this);
 		ImplementTemplateBuildWrapper implementer = null;
 		for (BuildWrapper buildWrapper : this.getBuildWrappers().values()) {
 			if(buildWrapper != null && buildWrapper instanceof ImplementTemplateBuildWrapper) {
@@ -53,19 +62,35 @@ public class TemplateImplementationProject extends Project<TemplateImplementatio
 
 		if(implementer != null && implementer.getTemplateName() != null) {
 			TemplateProject template = (TemplateProject) Hudson.getInstance().getItem(implementer.getTemplateName());
-			implementer.updateImplementationWithTemplate(this, template);
+			implementer.updateImplementationWithTemplate(this, template, true);
 		}
 	}
 
 	/**
-	 * Calls the normal save but doesn't sync.
+	 * Saves the job the same as the normal save but doesn't sync.
 	 * This is necessary to prevent infinite loops.
+	 * The config is serialized in memory and renamed over config.xml in one step (see {@link AtomicFile}),
+	 * unlike XmlFile.write, which on 1.399 deletes config.xml before renaming its temp file into place,
+	 * so a crash while syncing never leaves the job without a config.xml.
+	 * @return SHA-1 of the config.xml written, or null if nothing was written because the job is in a BulkChange.
 	 * @throws IOException
 	 * If the config.xml file of the template or implementation cannot be read or written to
 	 * an appropriate IOException will be thrown.
 	 */
-	public void saveNoUpdate() throws IOException {
-		super.save();
+	public synchronized String saveNoUpdate() throws IOException {
+		if (BulkChange.contains(this)) {
+			return null;
+		}
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		Writer writer = new OutputStreamWriter(outputStream, CompiledTemplate.CHARSET);
+		writer.write("<?xml version='1.0' encoding='UTF-8'?>\n");
+		Items.XSTREAM.toXML(this, writer);
+		writer.close();
+		byte[] config = outputStream.toByteArray();
+		XmlFile configFile = getConfigFile();
+		AtomicFile.replace(configFile.getFile(), config);
+		SaveableListener.fireOnChange(this, configFile);
+		return HashUtils.sha1(config);
 	}
 
 	@Override
@@ -99,21 +124,10 @@ public class TemplateImplementationProject extends Project<TemplateImplementatio
 	}
 
 	/**
-	 *
-	 * @return
+	 * @return All the templates that can be implemented, sorted by name. See {@link TemplateRegistry}.
 	 */
 	public Collection<TemplateProject> getTemplates() {
-		ImmutableList.Builder<TemplateProject> builder = ImmutableList.builder();
-
-		Hudson instance = Hudson.getInstance();
-		Collection<String> topLevelItemNames = instance.getTopLevelItemNames();
-		for (String topLevelItemName : topLevelItemNames) {
-			TopLevelItem topLevelItem = instance.getItem(topLevelItemName);
-			if(topLevelItem instanceof TemplateProject) {
-				builder.add((TemplateProject) topLevelItem);
-			}
-		}
-
-		return builder.build();
+		Hudson hudson = Hudson.getInstance();
+		return TemplateRegistry.forItemGroup(hudson).getTemplates(hudson);
 	}
 }
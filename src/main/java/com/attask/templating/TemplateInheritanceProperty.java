@@ -0,0 +1,101 @@
+package com.attask.templating;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import hudson.util.FormValidation;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Makes a template extend another template.
+ * The implementations of the extending template get the parent template's config,
+ * except for the sections (top level elements of config.xml, such as builders or publishers) the extending template overrides.
+ * Templates can extend templates that extend other templates, see {@link TemplateLayers}.
+ */
+public class TemplateInheritanceProperty extends JobProperty<TemplateProject> {
+	private final String parentTemplate;
+	private final String overriddenSections;
+
+	@DataBoundConstructor
+	public TemplateInheritanceProperty(String parentTemplate, String overriddenSections) {
+		this.parentTemplate = parentTemplate == null ? null : parentTemplate.trim();
+		this.overriddenSections = overriddenSections;
+	}
+
+	/**
+	 * @return The name of the template this template extends.
+	 */
+	public String getParentTemplate() {
+		return parentTemplate;
+	}
+
+	/**
+	 * @return The sections this template overrides, separated by commas or whitespace.
+	 */
+	public String getOverriddenSections() {
+		return overriddenSections;
+	}
+
+	/**
+	 * @return The names of the top level elements this template overrides.
+	 */
+	public List<String> getSections() {
+		if (overriddenSections == null) {
+			return Collections.emptyList();
+		}
+		List<String> result = new ArrayList<String>();
+		for (String section : overriddenSections.split("[,\\s]+")) {
+			if (!section.isEmpty()) {
+				result.add(section);
+			}
+		}
+		return result;
+	}
+
+	@Extension
+	public static class DescriptorImpl extends JobPropertyDescriptor {
+		@Override
+		public boolean isApplicable(Class<? extends Job> jobType) {
+			return TemplateProject.class.isAssignableFrom(jobType);
+		}
+
+		/**
+		 * Doesn't add the property at all when no parent template is given.
+		 */
+		@Override
+		public JobProperty<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+			String parentTemplate = formData.optString("parentTemplate", "");
+			if (parentTemplate.trim().isEmpty()) {
+				return null;
+			}
+			return new TemplateInheritanceProperty(parentTemplate, formData.optString("overriddenSections", ""));
+		}
+
+		/**
+		 * Verifies that the parent template, if any, is a template.
+		 */
+		public FormValidation doCheckParentTemplate(@QueryParameter String value) {
+			if (value == null || value.trim().isEmpty()) {
+				return FormValidation.ok();
+			}
+			if (!TemplateRegistry.forItemGroup(Hudson.getInstance()).contains(value.trim())) {
+				return FormValidation.error("Project " + value + " is not a template.");
+			}
+			return FormValidation.ok();
+		}
+
+		@Override
+		public String getDisplayName() {
+			return "Extend another template";
+		}
+	}
+}
@@ -0,0 +1,488 @@
+package com.attask.templating;
+
+import com.attask.utils.DaemonThreadFactory;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.listeners.ItemListener;
+import hudson.util.IOException2;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Merges templates that extend other templates (see {@link TemplateInheritanceProperty}) into the config their
+ * implementations are rendered from.
+ * Each template in an inheritance chain is a layer: its own config, as last saved (see {@link TemplateSnapshots}),
+ * merged over the merged config of its parent.
+ * Every layer is cached and only merged again when the template or one of the templates under it is saved,
+ * so a change to a leaf template only merges that one layer.
+ */
+public class TemplateLayers {
+	private static final Logger LOGGER = Logger.getLogger(TemplateLayers.class.getName());
+	private static final TemplateLayers INSTANCE = new TemplateLayers();
+	/** Properties that only mean something on a template, so are left out of the config implementations are rendered from. */
+	static final List<String> TEMPLATE_ONLY_PROPERTIES = Collections.unmodifiableList(Arrays.asList(
+			TemplateInheritanceProperty.class.getName(),
+			TemplateDefaultsProperty.class.getName(),
+			WorkspaceSeedingProperty.class.getName()));
+
+	private final ConcurrentMap<String, Layer> layers = new ConcurrentHashMap<String, Layer>();
+	private final ExecutorService coordinator = Executors.newSingleThreadExecutor(new DaemonThreadFactory("Template layers coordinator"));
+	private final ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("Template layers"));
+
+	/**
+	 * @return The layers of all the templates in this Jenkins instance.
+	 */
+	public static TemplateLayers getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Gets the merged config of the given template.
+	 * @param template The template to render.
+	 * @return The template's layer, or null if the template doesn't extend another template and should be rendered from its own config.
+	 * @throws IOException If any of the templates in the chain can't be serialized or merged, or they extend each other in a cycle.
+	 */
+	public Layer get(TemplateProject template) throws IOException {
+		if (getParentTemplateName(template) == null) {
+			return null;
+		}
+		return getLayer(template, new HashSet<String>());
+	}
+
+	/**
+	 * Drops the cached layer of a template that no longer exists.
+	 * @param templateName The name of the deleted or renamed template.
+	 */
+	public void remove(String templateName) {
+		layers.remove(templateName);
+	}
+
+	/**
+	 * Finds every template that extends the given template, directly or not.
+	 * @param itemGroup The ItemGroup containing the templates, typically Hudson.getInstance().
+	 * @param template The template that changed.
+	 * @return The descendants grouped by generation: children first, then grandchildren and so on.
+	 * A template only appears once, in the generation after its parent's.
+	 */
+	public static List<List<TemplateProject>> getDescendants(ItemGroup itemGroup, TemplateProject template) {
+		Map<String, List<TemplateProject>> children = new HashMap<String, List<TemplateProject>>();
+		for (TemplateProject candidate : TemplateRegistry.forItemGroup(itemGroup).getTemplates(itemGroup)) {
+			String parentName = getParentTemplateName(candidate);
+			if (parentName != null) {
+				List<TemplateProject> siblings = children.get(parentName);
+				if (siblings == null) {
+					siblings = new ArrayList<TemplateProject>();
+					children.put(parentName, siblings);
+				}
+				siblings.add(candidate);
+			}
+		}
+
+		List<List<TemplateProject>> generations = new ArrayList<List<TemplateProject>>();
+		Set<String> seen = new HashSet<String>();
+		seen.add(template.getName());
+		List<TemplateProject> current = Collections.singletonList(template);
+		while (!current.isEmpty()) {
+			List<TemplateProject> next = new ArrayList<TemplateProject>();
+			for (TemplateProject parent : current) {
+				List<TemplateProject> parentChildren = children.get(parent.getName());
+				if (parentChildren != null) {
+					for (TemplateProject child : parentChildren) {
+						if (seen.add(child.getName())) {
+							next.add(child);
+						}
+					}
+				}
+			}
+			if (!next.isEmpty()) {
+				generations.add(next);
+			}
+			current = next;
+		}
+		return generations;
+	}
+
+	/**
+	 * Rebuilds the layers of every template extending the given template and then queues each of them to be propagated.
+	 * Runs in the background, one generation at a time so each layer is merged over its parent's new layer,
+	 * with all the templates of a generation merged in parallel.
+	 * @param itemGroup The ItemGroup containing the templates, typically Hudson.getInstance().
+	 * @param template The template that changed.
+	 */
+	public void refreshDescendants(final ItemGroup itemGroup, final TemplateProject template) {
+		coordinator.submit(new Runnable() {
+			public void run() {
+				List<List<TemplateProject>> generations = getDescendants(itemGroup, template);
+				for (List<TemplateProject> generation : generations) {
+					List<Callable<Void>> merges = new ArrayList<Callable<Void>>(generation.size());
+					for (final TemplateProject descendant : generation) {
+						merges.add(new Callable<Void>() {
+							public Void call() throws IOException {
+								get(descendant);
+								return null;
+							}
+						});
+					}
+					try {
+						for (Future<Void> merge : workers.invokeAll(merges)) {
+							merge.get();
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					} catch (Exception e) {
+						LOGGER.log(Level.WARNING, "Failed to merge the templates extending " + template.getName(), e);
+					}
+				}
+
+				for (List<TemplateProject> generation : generations) {
+					for (TemplateProject descendant : generation) {
+						PropagationQueue.getInstance().schedule(itemGroup, descendant);
+					}
+				}
+			}
+		});
+	}
+
+	private Layer getLayer(TemplateProject template, Set<String> visiting) throws IOException {
+		String name = template.getName();
+		if (!visiting.add(name)) {
+			throw new IOException("Templates extend each other in a cycle: " + visiting);
+		}
+
+		TemplateSnapshots.SavedConfig own = TemplateSnapshots.getInstance().getSaved(template);
+		String parentName = getParentTemplateName(template);
+		if (parentName == null) {
+			return new Layer(own.version, own.config);
+		}
+		Item parent = template.getParent().getItem(parentName);
+		if (!(parent instanceof TemplateProject)) {
+			throw new IOException(name + " extends " + parentName + ", which is not a template.");
+		}
+		Layer parentLayer = getLayer((TemplateProject) parent, visiting);
+
+		// Versions only ever grow, so the newest save anywhere in the chain identifies the merged config
+		long version = Math.max(own.version, parentLayer.version);
+		Layer layer = layers.get(name);
+		if (layer != null && layer.version == version) {
+			return layer;
+		}
+
+		Layer merged = new Layer(version, merge(parentLayer.config, own.config, getSections(template)));
+		while (true) {
+			layer = layers.get(name);
+			if (layer == null) {
+				if (layers.putIfAbsent(name, merged) == null) {
+					return merged;
+				}
+			} else if (layer.version >= version) {
+				return layer;
+			} else if (layers.replace(name, layer, merged)) {
+				return merged;
+			}
+		}
+	}
+
+	/**
+	 * Replaces the given sections of the parent's config with the ones from the child's config.
+	 * A section the parent doesn't have is added, a section the child doesn't have is removed.
+	 * Template only properties ({@link #TEMPLATE_ONLY_PROPERTIES}) are left out so they don't end up in the implementations.
+	 * @param parent The merged config of the parent template.
+	 * @param child The config of the extending template.
+	 * @param sections The names of the top level elements the child overrides.
+	 * @return The merged config, encoded with {@link CompiledTemplate#CHARSET}.
+	 * @throws IOException If either config isn't well formed XML.
+	 */
+	static byte[] merge(byte[] parent, byte[] child, Collection<String> sections) throws IOException {
+		try {
+			DocumentBuilder builder = newDocumentBuilder();
+			Document merged = builder.parse(new ByteArrayInputStream(parent));
+			Document own = builder.parse(new ByteArrayInputStream(child));
+			Element mergedRoot = merged.getDocumentElement();
+			Element ownRoot = own.getDocumentElement();
+
+			for (String section : sections) {
+				Node insertBefore = null;
+				for (Element existing : childElements(mergedRoot, section)) {
+					insertBefore = existing.getNextSibling();
+					mergedRoot.removeChild(existing);
+				}
+				for (Element replacement : childElements(ownRoot, section)) {
+					mergedRoot.insertBefore(merged.importNode(replacement, true), insertBefore);
+				}
+			}
+
+			removeTemplateOnlyProperties(mergedRoot);
+			return write(merged, parent.length + child.length);
+		} catch (ParserConfigurationException e) {
+			throw new IOException2("Unable to merge template configs", e);
+		} catch (SAXException e) {
+			throw new IOException2("Unable to merge template configs", e);
+		} catch (TransformerException e) {
+			throw new IOException2("Unable to merge template configs", e);
+		}
+	}
+
+	/**
+	 * Leaves the template only properties ({@link #TEMPLATE_ONLY_PROPERTIES}) out of a template's config,
+	 * for templates that don't extend another template and so aren't merged.
+	 * Only the property elements are cut out, along with their lines when they're on lines of their own,
+	 * every other byte of the config is kept as it is, so the rendered configs of implementations don't change
+	 * just because the template has defaults.
+	 * Markup is always ASCII, and no byte of a multi-byte UTF-8 character is, so the config is scanned without decoding it.
+	 * @param config The template's config, encoded with {@link CompiledTemplate#CHARSET}.
+	 * @return The config without those properties, or the given array itself if it has none.
+	 * @throws IOException If the config isn't well formed, or has a DOCTYPE.
+	 */
+	static byte[] withoutTemplateOnlyProperties(byte[] config) throws IOException {
+		List<int[]> ranges = new ArrayList<int[]>();
+		List<String> openElements = new ArrayList<String>();
+		int propertyStart = -1;
+		int i = 0;
+		while (i < config.length) {
+			if (config[i] != '<') {
+				i++;
+				continue;
+			}
+			if (startsWith(config, i, "<?")) {
+				i = skipPast(config, i, "?>");
+			} else if (startsWith(config, i, "<!--")) {
+				i = skipPast(config, i, "-->");
+			} else if (startsWith(config, i, "<![CDATA[")) {
+				i = skipPast(config, i, "]]>");
+			} else if (startsWith(config, i, "<!")) {
+				throw new IOException("Template configs can't have a DOCTYPE");
+			} else {
+				int tagEnd = skipTag(config, i);
+				boolean endTag = config[i + 1] == '/';
+				if (!endTag) {
+					String name = tagName(config, i + 1);
+					if (openElements.size() == 2 && "properties".equals(openElements.get(1)) && TEMPLATE_ONLY_PROPERTIES.contains(name)) {
+						propertyStart = i;
+					}
+					openElements.add(name);
+				}
+				if (endTag || config[tagEnd - 2] == '/') {
+					if (openElements.isEmpty()) {
+						throw new IOException("Unexpected end tag at " + i + " of the template config");
+					}
+					openElements.remove(openElements.size() - 1);
+					if (propertyStart >= 0 && openElements.size() == 2) {
+						ranges.add(lineRange(config, propertyStart, tagEnd));
+						propertyStart = -1;
+					}
+				}
+				i = tagEnd;
+			}
+		}
+		if (!openElements.isEmpty()) {
+			throw new IOException("The template config ends before " + openElements.get(openElements.size() - 1) + " is closed");
+		}
+		if (ranges.isEmpty()) {
+			return config;
+		}
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(config.length);
+		int copied = 0;
+		for (int[] range : ranges) {
+			outputStream.write(config, copied, range[0] - copied);
+			copied = range[1];
+		}
+		outputStream.write(config, copied, config.length - copied);
+		return outputStream.toByteArray();
+	}
+
+	private static boolean startsWith(byte[] config, int index, String prefix) {
+		if (index + prefix.length() > config.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (config[index + i] != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The index just past the given terminator, looked for from the given index.
+	 */
+	private static int skipPast(byte[] config, int index, String terminator) throws IOException {
+		for (int i = index; i < config.length; i++) {
+			if (startsWith(config, i, terminator)) {
+				return i + terminator.length();
+			}
+		}
+		throw new IOException("The template config ends before " + terminator);
+	}
+
+	/**
+	 * @return The index just past the '>' closing the tag starting at the given index, skipping any '>' in attribute values.
+	 */
+	private static int skipTag(byte[] config, int index) throws IOException {
+		byte quote = 0;
+		for (int i = index + 1; i < config.length; i++) {
+			byte b = config[i];
+			if (quote != 0) {
+				if (b == quote) {
+					quote = 0;
+				}
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '>') {
+				return i + 1;
+			}
+		}
+		throw new IOException("The template config ends inside a tag");
+	}
+
+	private static String tagName(byte[] config, int index) {
+		int end = index;
+		while (end < config.length && config[end] != '>' && config[end] != '/' && config[end] > ' ') {
+			end++;
+		}
+		return new String(config, index, end - index, CompiledTemplate.CHARSET);
+	}
+
+	/**
+	 * Widens the given range to the whole line when nothing but whitespace shares the line with it.
+	 * @return The start (inclusive) and end (exclusive) to cut out.
+	 */
+	private static int[] lineRange(byte[] config, int start, int end) {
+		int lineStart = start;
+		while (lineStart > 0 && (config[lineStart - 1] == ' ' || config[lineStart - 1] == '\t')) {
+			lineStart--;
+		}
+		int lineEnd = end;
+		while (lineEnd < config.length && (config[lineEnd] == ' ' || config[lineEnd] == '\t' || config[lineEnd] == '\r')) {
+			lineEnd++;
+		}
+		if ((lineStart == 0 || config[lineStart - 1] == '\n') && lineEnd < config.length && config[lineEnd] == '\n') {
+			return new int[]{lineStart, lineEnd + 1};
+		}
+		return new int[]{start, end};
+	}
+
+	/**
+	 * Template configs never need a DTD, so none is allowed: entities declared in one could read local files or URLs.
+	 */
+	private static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+		factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+		factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+		factory.setXIncludeAware(false);
+		factory.setExpandEntityReferences(false);
+		return factory.newDocumentBuilder();
+	}
+
+	private static void removeTemplateOnlyProperties(Element root) {
+		for (Element properties : childElements(root, "properties")) {
+			for (String name : TEMPLATE_ONLY_PROPERTIES) {
+				for (Element property : childElements(properties, name)) {
+					properties.removeChild(property);
+				}
+			}
+		}
+	}
+
+	private static byte[] write(Document document, int sizeHint) throws TransformerException {
+		Transformer transformer = TransformerFactory.newInstance().newTransformer();
+		transformer.setOutputProperty(OutputKeys.ENCODING, CompiledTemplate.CHARSET.name());
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(sizeHint);
+		transformer.transform(new DOMSource(document), new StreamResult(outputStream));
+		return outputStream.toByteArray();
+	}
+
+	private static List<Element> childElements(Element parent, String name) {
+		List<Element> result = new ArrayList<Element>();
+		for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node.getNodeType() == Node.ELEMENT_NODE && name.equals(node.getNodeName())) {
+				result.add((Element) node);
+			}
+		}
+		return result;
+	}
+
+	static String getParentTemplateName(TemplateProject template) {
+		TemplateInheritanceProperty inheritance = template.getProperty(TemplateInheritanceProperty.class);
+		if (inheritance == null || inheritance.getParentTemplate() == null || inheritance.getParentTemplate().isEmpty()) {
+			return null;
+		}
+		return inheritance.getParentTemplate();
+	}
+
+	private static List<String> getSections(TemplateProject template) {
+		TemplateInheritanceProperty inheritance = template.getProperty(TemplateInheritanceProperty.class);
+		return inheritance == null ? Collections.<String>emptyList() : inheritance.getSections();
+	}
+
+	/**
+	 * The merged config of one template, built over its parent's layer.
+	 */
+	public static class Layer {
+		private final long version;
+		private final byte[] config;
+
+		private Layer(long version, byte[] config) {
+			this.version = version;
+			this.config = config;
+		}
+
+		/**
+		 * @return The version of the newest saved config among the template and the templates under it.
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return The merged config, encoded with {@link CompiledTemplate#CHARSET}.
+		 */
+		public InputStream openStream() {
+			return new ByteArrayInputStream(config);
+		}
+
+		byte[] getConfig() {
+			return config;
+		}
+	}
+
+	/**
+	 * Drops the layers of deleted and renamed templates.
+	 */
+	@Extension
+	public static class ListenerImpl extends ItemListener {
+		@Override
+		public void onDeleted(Item item) {
+			if (item instanceof TemplateProject) {
+				getInstance().remove(item.getName());
+			}
+		}
+
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			if (item instanceof TemplateProject) {
+				getInstance().remove(oldName);
+			}
+		}
+	}
+}
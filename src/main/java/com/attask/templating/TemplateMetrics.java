@@ -0,0 +1,288 @@
+package com.attask.templating;
+
+import com.attask.utils.LatencyHistogram;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import net.sf.json.JSONObject;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timers and counters of the work done for one template since Jenkins started:
+ * how long each stage of propagating and scaffolding takes, how much is rendered, and how much fails.
+ * Each template's metrics are registered as MBeans under com.attask.templating:type=TemplateMetrics
+ * the first time they're used and unregistered when the template is deleted or renamed,
+ * and all of them are served as JSON by {@link TemplateMetricsAction}.
+ */
+public class TemplateMetrics implements TemplateMetricsMBean {
+	public enum Stage {
+		/** Syncing every implementation of the template. */
+		PROPAGATE,
+		/** Syncing one implementation, from rendering to saving. */
+		SYNC,
+		/** Rendering the template with a compiled template. */
+		RENDER,
+		/** Rendering the template by streaming it through a token replacer, see {@link com.attask.utils.UnixUtils}. */
+		SED,
+		/** Rendering the template with the {@link XmlTemplateRenderer}. */
+		XML,
+		/** Unmarshalling the rendered config into the implementation. */
+		UNMARSHAL,
+		/** Writing the implementation's config.xml. */
+		SAVE,
+		/** Seeding an implementation's workspace from the template's reference workspace, see {@link WorkspaceSeeder}. */
+		SEED
+	}
+
+	private static final Logger LOGGER = Logger.getLogger(TemplateMetrics.class.getName());
+	private static final String DOMAIN = "com.attask.templating";
+	private static final ConcurrentMap<String, TemplateMetrics> METRICS = new ConcurrentHashMap<String, TemplateMetrics>();
+	private static final LatencyHistogram SCAFFOLDING = new LatencyHistogram();
+	private static final TemplateMetrics UNNAMED = new TemplateMetrics(null);
+
+	static {
+		register("type=TemplateMetrics,name=scaffolding", SCAFFOLDING);
+	}
+
+	private final String templateName;
+	private final Map<Stage, LatencyHistogram> latencies = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+	private final AtomicLong bytesRendered = new AtomicLong();
+	private final AtomicLong implementationsSynced = new AtomicLong();
+	private final AtomicLong implementationsSkipped = new AtomicLong();
+	private final AtomicLong implementationsStoodUp = new AtomicLong();
+	private final AtomicLong lastPropagationImplementations = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	private TemplateMetrics(String templateName) {
+		this.templateName = templateName;
+		for (Stage stage : Stage.values()) {
+			latencies.put(stage, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * @param templateName The name of the template.
+	 * @return The template's metrics, created and registered with JMX if this is the first time they're used.
+	 * Metrics recorded without a template name are kept apart, and are neither registered nor listed.
+	 */
+	public static TemplateMetrics forTemplate(String templateName) {
+		if (templateName == null) {
+			return UNNAMED;
+		}
+		TemplateMetrics metrics = METRICS.get(templateName);
+		if (metrics == null) {
+			TemplateMetrics created = new TemplateMetrics(templateName);
+			metrics = METRICS.putIfAbsent(templateName, created);
+			if (metrics == null) {
+				metrics = created;
+				metrics.register();
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Forgets the metrics of a template and unregisters its MBeans.
+	 * @param templateName The name of the template that no longer exists.
+	 */
+	public static void remove(String templateName) {
+		TemplateMetrics metrics = METRICS.remove(templateName);
+		if (metrics != null) {
+			metrics.unregister();
+		}
+	}
+
+	/**
+	 * @return How long each scaffolding batch took, across all templates.
+	 */
+	public static LatencyHistogram getScaffoldingLatency() {
+		return SCAFFOLDING;
+	}
+
+	/**
+	 * @return The metrics of every template that's been used since Jenkins started, and of scaffolding.
+	 */
+	public static JSONObject allToJSON() {
+		JSONObject templates = new JSONObject();
+		for (TemplateMetrics metrics : new TreeMap<String, TemplateMetrics>(METRICS).values()) {
+			templates.put(metrics.templateName, metrics.toJSON());
+		}
+		JSONObject json = new JSONObject();
+		json.put("scaffolding", toJSON(SCAFFOLDING));
+		json.put("templates", templates);
+		return json;
+	}
+
+	/**
+	 * Records how long the given stage took.
+	 * @param stage The stage that finished.
+	 * @param startNanos The System.nanoTime() when the stage started.
+	 */
+	public void record(Stage stage, long startNanos) {
+		latencies.get(stage).recordSince(startNanos);
+	}
+
+	public LatencyHistogram getLatency(Stage stage) {
+		return latencies.get(stage);
+	}
+
+	public void bytesRendered(long bytes) {
+		bytesRendered.addAndGet(bytes);
+	}
+
+	public void implementationSynced() {
+		implementationsSynced.incrementAndGet();
+	}
+
+	public void implementationSkipped() {
+		implementationsSkipped.incrementAndGet();
+	}
+
+	public void implementationStoodUp() {
+		implementationsStoodUp.incrementAndGet();
+	}
+
+	/**
+	 * @param implementations How many implementations the propagation synced.
+	 * @param failures How many of them failed.
+	 */
+	public void propagated(int implementations, int failures) {
+		lastPropagationImplementations.set(implementations);
+		errors.addAndGet(failures);
+	}
+
+	public void error() {
+		errors.incrementAndGet();
+	}
+
+	public String getTemplateName() {
+		return templateName;
+	}
+
+	public long getBytesRendered() {
+		return bytesRendered.get();
+	}
+
+	public long getImplementationsSynced() {
+		return implementationsSynced.get();
+	}
+
+	public long getImplementationsSkipped() {
+		return implementationsSkipped.get();
+	}
+
+	public long getImplementationsStoodUp() {
+		return implementationsStoodUp.get();
+	}
+
+	public long getLastPropagationImplementations() {
+		return lastPropagationImplementations.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public JSONObject toJSON() {
+		JSONObject json = new JSONObject();
+		json.put("bytesRendered", getBytesRendered());
+		json.put("implementationsSynced", getImplementationsSynced());
+		json.put("implementationsSkipped", getImplementationsSkipped());
+		json.put("implementationsStoodUp", getImplementationsStoodUp());
+		json.put("lastPropagationImplementations", getLastPropagationImplementations());
+		json.put("errors", getErrors());
+		JSONObject stages = new JSONObject();
+		for (Map.Entry<Stage, LatencyHistogram> latency : latencies.entrySet()) {
+			stages.put(latency.getKey().name(), toJSON(latency.getValue()));
+		}
+		json.put("latencies", stages);
+		return json;
+	}
+
+	private static JSONObject toJSON(LatencyHistogram histogram) {
+		JSONObject json = new JSONObject();
+		json.put("count", histogram.getCount());
+		json.put("totalMillis", histogram.getTotalMillis());
+		json.put("meanMillis", histogram.getMeanMillis());
+		json.put("maxMillis", histogram.getMaxMillis());
+		json.put("p50Millis", histogram.get50thPercentileMillis());
+		json.put("p95Millis", histogram.get95thPercentileMillis());
+		json.put("p99Millis", histogram.get99thPercentileMillis());
+		JSONObject buckets = new JSONObject();
+		for (Map.Entry<Long, Long> bucket : histogram.getBuckets().entrySet()) {
+			buckets.put(String.valueOf(bucket.getKey()), bucket.getValue());
+		}
+		json.put("bucketsMicros", buckets);
+		return json;
+	}
+
+	private void register() {
+		String template = ObjectName.quote(templateName);
+		register("type=TemplateMetrics,template=" + template, this);
+		for (Map.Entry<Stage, LatencyHistogram> latency : latencies.entrySet()) {
+			register("type=TemplateMetrics,template=" + template + ",stage=" + latency.getKey().name(), latency.getValue());
+		}
+	}
+
+	private void unregister() {
+		String template = ObjectName.quote(templateName);
+		unregister("type=TemplateMetrics,template=" + template);
+		for (Stage stage : latencies.keySet()) {
+			unregister("type=TemplateMetrics,template=" + template + ",stage=" + stage.name());
+		}
+	}
+
+	private static void unregister(String properties) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		} catch (JMException e) {
+			LOGGER.log(Level.FINE, "Unable to unregister the MBean " + properties, e);
+		}
+	}
+
+	private static void register(String properties, Object mbean) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(mbean, name);
+			}
+		} catch (JMException e) {
+			LOGGER.log(Level.FINE, "Unable to register the MBean " + properties, e);
+		}
+	}
+
+	/**
+	 * Drops the metrics of deleted and renamed templates, a renamed template starts over under its new name.
+	 */
+	@Extension
+	public static class ListenerImpl extends ItemListener {
+		@Override
+		public void onDeleted(Item item) {
+			if (item instanceof TemplateProject) {
+				remove(item.getName());
+			}
+		}
+
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			if (item instanceof TemplateProject) {
+				remove(oldName);
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.attask.templating;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.RootAction;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves the {@link TemplateMetrics} of every template as JSON at /templateMetrics/,
+ * and the {@link DriftScanner}'s report at /templateMetrics/drift.
+ * Doesn't show up in the side panel, it's meant for monitoring tools.
+ */
+@Extension
+public class TemplateMetricsAction implements RootAction {
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "Template Metrics";
+	}
+
+	public String getUrlName() {
+		return "templateMetrics";
+	}
+
+	@SuppressWarnings("UnusedDeclaration")
+	public void doIndex(StaplerRequest request, StaplerResponse response) throws IOException {
+		Hudson.getInstance().checkPermission(Hudson.READ);
+		response.setContentType("application/json;charset=UTF-8");
+		response.getWriter().print(TemplateMetrics.allToJSON().toString());
+	}
+
+	/**
+	 * Serves the report of the running or last {@link DriftScanner} scan as JSON, or an empty object if there hasn't been one.
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void doDrift(StaplerRequest request, StaplerResponse response) throws IOException {
+		Hudson.getInstance().checkPermission(Hudson.READ);
+		DriftReport report = DriftScanner.getInstance().getLastReport();
+		response.setContentType("application/json;charset=UTF-8");
+		response.getWriter().print(report == null ? "{}" : report.toJSON().toString());
+	}
+
+	/**
+	 * Starts a drift scan in the background, repairing what it finds if the repair parameter is true.
+	 * Responds with 409 if a scan is already running.
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void doScanDrift(StaplerRequest request, StaplerResponse response) throws IOException {
+		Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+		if (!"POST".equals(request.getMethod())) {
+			response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		boolean repair = Boolean.parseBoolean(request.getParameter("repair"));
+		if (!DriftScanner.getInstance().scanInBackground(Hudson.getInstance(), repair)) {
+			response.sendError(HttpServletResponse.SC_CONFLICT, "A drift scan is already running.");
+			return;
+		}
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+	}
+}
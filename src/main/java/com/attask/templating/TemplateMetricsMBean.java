@@ -0,0 +1,21 @@
+package com.attask.templating;
+
+/**
+ * JMX view of the counters in {@link TemplateMetrics}.
+ * The latencies of each stage are registered as their own {@link com.attask.utils.LatencyHistogramMBean}.
+ */
+public interface TemplateMetricsMBean {
+	String getTemplateName();
+
+	long getBytesRendered();
+
+	long getImplementationsSynced();
+
+	long getImplementationsSkipped();
+
+	long getImplementationsStoodUp();
+
+	long getLastPropagationImplementations();
+
+	long getErrors();
+}
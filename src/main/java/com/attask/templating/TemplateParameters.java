@@ -0,0 +1,221 @@
+package com.attask.templating;
+
+import com.attask.utils.ByteTokenReplacer;
+import com.attask.utils.CollectionUtils;
+import com.attask.utils.OverlayMap;
+import com.attask.utils.StringPool;
+import com.attask.utils.TokenReplacer;
+import com.google.common.collect.ImmutableMap;
+
+import java.nio.charset.CharacterCodingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The parsed form of an ImplementTemplateBuildWrapper's parameters.
+ * The parameters are still stored and edited as properties file text, this is parsed once when the wrapper is
+ * created or loaded so syncing doesn't have to parse the text or build any replacement structures again.
+ * Instances are immutable and safe to share between threads.
+ * <p>
+ * Most implementations of a template share most of their values, so the names and short values are pooled and an
+ * implementation's parameters can be laid over the template's defaults (see {@link TemplateDefaultsProperty})
+ * without copying them. Each implementation then only holds the values that differ from the defaults.
+ */
+public class TemplateParameters {
+	/** Values longer than this are rarely shared, so aren't pooled. */
+	static final int MAX_POOLED_LENGTH = 256;
+	private static final StringPool STRINGS = new StringPool();
+
+	public static final TemplateParameters EMPTY = new TemplateParameters(ImmutableMap.<String, String>of(), Collections.<String, Expression>emptyMap(), null);
+
+	private final Map<String, String> own;
+	private final Map<String, Expression> ownExpressions;
+	private final TemplateParameters defaults;
+	private final Map<String, String> values;
+	private final Map<String, Expression> expressions;
+	private final boolean compilable;
+	private volatile ByteTokenReplacer replacer;
+	private volatile TokenReplacer textReplacer;
+
+	private TemplateParameters(Map<String, String> own, Map<String, Expression> ownExpressions, TemplateParameters defaults) {
+		this.own = own;
+		this.ownExpressions = ownExpressions;
+		this.defaults = defaults;
+		if (defaults == null || defaults.values.isEmpty()) {
+			this.values = own;
+			this.expressions = ownExpressions;
+			this.compilable = CompiledTemplate.canRender(own);
+		} else {
+			this.values = own.isEmpty() ? defaults.values : new OverlayMap<String, String>(own, defaults.values);
+			this.expressions = mergeExpressions(own, ownExpressions, defaults.expressions);
+			this.compilable = CompiledTemplate.canRender(own) && defaults.compilable;
+		}
+	}
+
+	/**
+	 * @param text Parameters formatted as a properties file, see {@link CollectionUtils#expandToMap(String)}. May be null.
+	 * @return The parsed parameters, without any defaults.
+	 */
+	public static TemplateParameters parse(String text) {
+		if (text == null || text.isEmpty()) {
+			return EMPTY;
+		}
+		ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+		for (Map.Entry<String, String> parameter : CollectionUtils.expandToMap(text).entrySet()) {
+			builder.put(STRINGS.intern(parameter.getKey()), pool(parameter.getValue()));
+		}
+		Map<String, String> own = builder.build();
+		return new TemplateParameters(own, parseExpressions(own), null);
+	}
+
+	private static String pool(String value) {
+		return value.length() > MAX_POOLED_LENGTH ? value : STRINGS.intern(value);
+	}
+
+	/**
+	 * Lays these parameters over the given defaults. Nothing is parsed or copied again.
+	 * @param defaults The template's default parameters, may be null for none.
+	 * @return Parameters with these values, and the defaults' values for any variable these don't have.
+	 * This instance if the defaults are the ones these parameters already use.
+	 */
+	public TemplateParameters withDefaults(TemplateParameters defaults) {
+		if (defaults == this.defaults || (defaults == null || defaults.values.isEmpty()) && this.defaults == null) {
+			return this;
+		}
+		return new TemplateParameters(own, ownExpressions, defaults);
+	}
+
+	/**
+	 * @return The variable names (without the leading $$) and their values, including the defaults'.
+	 */
+	public Map<String, String> getValues() {
+		return values;
+	}
+
+	/**
+	 * @return Only the values given for this implementation, without the defaults'.
+	 */
+	public Map<String, String> getOwnValues() {
+		return own;
+	}
+
+	/**
+	 * @return The defaults these parameters are laid over, or null if there aren't any.
+	 */
+	public TemplateParameters getDefaults() {
+		return defaults;
+	}
+
+	/**
+	 * Drops the values that are the same as the defaults from parameters text, so only what differs is stored.
+	 * Lines that aren't values, like comments, are kept.
+	 * @param text Parameters formatted as a properties file. May be null.
+	 * @param defaults The template's default parameters, may be null for none.
+	 * @return The text without the values the defaults already give.
+	 */
+	public static String withoutDefaults(String text, TemplateParameters defaults) {
+		if (text == null || defaults == null || defaults.values.isEmpty()) {
+			return text;
+		}
+		StringBuilder result = new StringBuilder(text.length());
+		for (String line : text.split("\n")) {
+			Map<String, String> parsed = CollectionUtils.expandToMap(line);
+			if (parsed.size() == 1) {
+				Map.Entry<String, String> parameter = parsed.entrySet().iterator().next();
+				if (parameter.getValue().equals(defaults.values.get(parameter.getKey()))) {
+					continue;
+				}
+			}
+			result.append(line).append('\n');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * The defaults' expressions for the variables that aren't overridden, plus the overriding values' own expressions.
+	 */
+	private static Map<String, Expression> mergeExpressions(Map<String, String> own, Map<String, Expression> ownExpressions, Map<String, Expression> defaultExpressions) {
+		if (defaultExpressions.isEmpty()) {
+			return ownExpressions;
+		}
+		Map<String, Expression> result = new HashMap<String, Expression>(ownExpressions);
+		for (Map.Entry<String, Expression> expression : defaultExpressions.entrySet()) {
+			if (!own.containsKey(expression.getKey())) {
+				result.put(expression.getKey(), expression.getValue());
+			}
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * @return The parsed values of the parameters whose values contain $${...} expressions, which may refer to other parameters.
+	 */
+	public Map<String, Expression> getExpressions() {
+		return expressions;
+	}
+
+	/**
+	 * @param values The variable names and their values.
+	 * @return The parsed values of the variables whose values contain $${...} expressions.
+	 */
+	static Map<String, Expression> parseExpressions(Map<String, String> values) {
+		Map<String, Expression> result = null;
+		for (Map.Entry<String, String> value : values.entrySet()) {
+			if (value.getValue() != null && value.getValue().contains(Expression.START)) {
+				if (result == null) {
+					result = new HashMap<String, Expression>();
+				}
+				result.put(value.getKey(), Expression.parseText(value.getValue()));
+			}
+		}
+		return result == null ? Collections.<String, Expression>emptyMap() : Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * @return True if these parameters can be rendered with a {@link CompiledTemplate}.
+	 */
+	public boolean isCompilable() {
+		return compilable;
+	}
+
+	/**
+	 * Gets the replacer that renders a template with these parameters when they can't be used with a {@link CompiledTemplate}.
+	 * Built the first time it's needed and then reused.
+	 * @return The replacer, encoded with {@link CompiledTemplate#CHARSET}.
+	 * @throws CharacterCodingException If the parameters can't be encoded.
+	 */
+	public ByteTokenReplacer getReplacer() throws CharacterCodingException {
+		ByteTokenReplacer result = replacer;
+		if (result == null) {
+			Map<String, String> replacements = new LinkedHashMap<String, String>();
+			replacements.put(CompiledTemplate.TEMPLATE_CLASS_TOKEN, CompiledTemplate.IMPLEMENTATION_CLASS_TOKEN);
+			for (Map.Entry<String, String> parameter : values.entrySet()) {
+				replacements.put("$$" + parameter.getKey(), parameter.getValue());
+			}
+			result = new TokenReplacer(replacements).encode(CompiledTemplate.CHARSET);
+			replacer = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the replacer used by {@link XmlTemplateRenderer} on text and attribute values.
+	 * Unlike {@link #getReplacer()} it only replaces the variables, the root element is renamed structurally.
+	 * Built the first time it's needed and then reused.
+	 * @return The replacer.
+	 */
+	public TokenReplacer getTextReplacer() {
+		TokenReplacer result = textReplacer;
+		if (result == null) {
+			Map<String, String> replacements = new LinkedHashMap<String, String>();
+			for (Map.Entry<String, String> parameter : values.entrySet()) {
+				replacements.put("$$" + parameter.getKey(), parameter.getValue());
+			}
+			result = new TokenReplacer(replacements);
+			textReplacer = result;
+		}
+		return result;
+	}
+}
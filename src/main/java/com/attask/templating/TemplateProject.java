@@ -6,7 +6,11 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import javax.servlet.ServletException;
-import java.io.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
 
 /**
  * Simply the same as a FreeStyleProject,
@@ -31,16 +35,76 @@ public class TemplateProject extends Project<TemplateProject, TemplateBuild> imp
 	}
 
 	/**
-	 * Saves as normal then syncs all the child implementations with the changes. Replacing all the $$VARIABLES
+	 * Saves as normal then queues all the child implementations to be synced with the changes. Replacing all the $$VARIABLES
+	 * The saved config is published as the template's new {@link TemplateSnapshot} before anything is synced,
+	 * syncs already running keep rendering the snapshot they started with.
+	 * The implementations are synced in the background by the {@link PropagationQueue}, see {@link #getPropagationStatus()}.
+	 * Templates extending this template are queued too, once their merged configs have been rebuilt, see {@link TemplateLayers}.
 	 * @throws IOException
-	 * If the config.xml file of the template or implementation cannot be read or written to
-	 * an appropriate IOException will be thrown.
+	 * If the config.xml file of the template cannot be written to an appropriate IOException will be thrown.
 	 */
 	@Override
-	public void save() throws IOException {
+	public synchronized void save() throws IOException {
 		super.save();
+		TemplateSnapshots.getInstance().publish(this, serializeConfig());
 
-		ImplementTemplateBuildWrapper.updateImplementationsOfTemplate(Hudson.getInstance(), this);
+		PropagationQueue.getInstance().schedule(Hudson.getInstance(), this);
+		TemplateLayers.getInstance().refreshDescendants(Hudson.getInstance(), this);
+	}
+
+	/**
+	 * Serializes this template exactly as {@link #save()} writes it to config.xml.
+	 * Called while holding the template's lock, so the result is the config the last save wrote.
+	 * @return The config, encoded with {@link CompiledTemplate#CHARSET}.
+	 * @throws IOException If the template can't be serialized.
+	 */
+	synchronized byte[] serializeConfig() throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		Writer writer = new OutputStreamWriter(outputStream, CompiledTemplate.CHARSET);
+		writer.write("<?xml version='1.0' encoding='UTF-8'?>\n");
+		Items.XSTREAM.toXML(this, writer);
+		writer.close();
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * Gets the names of all the $$VARIABLES used by this template.
+	 * The names are found in the template's {@link TemplateSnapshot} the first time they're needed, and kept with it,
+	 * so this doesn't read the config file.
+	 * A template extending another template gets the variables of its merged config.
+	 * @return The variable names, in the order they first appear.
+	 * @throws IOException If the template can't be serialized or merged.
+	 */
+	public Collection<String> getVariableNames() throws IOException {
+		return TemplateSnapshots.getInstance().get(this).getVariableNames();
+	}
+
+	/**
+	 * @return The name of the template this template extends, or null if it doesn't extend another template.
+	 */
+	public String getParentTemplateName() {
+		return TemplateLayers.getParentTemplateName(this);
+	}
+
+	/**
+	 * @return The status of the latest propagation of this template to its implementations,
+	 * or null if it hasn't been saved since Jenkins started.
+	 */
+	public PropagationStatus getPropagationStatus() {
+		return PropagationQueue.getInstance().getStatus(getName());
+	}
+
+	/**
+	 * Serves the status of the latest propagation of this template as JSON.
+	 */
+	@SuppressWarnings("UnusedDeclaration")
+	public void doPropagationStatus(StaplerRequest request, StaplerResponse response) throws IOException {
+		PropagationStatus status = getPropagationStatus();
+		if (status == null) {
+			status = new PropagationStatus(getName());
+		}
+		response.setContentType("application/json;charset=UTF-8");
+		response.getWriter().print(status.toJSON().toString());
 	}
 
 	@Override
@@ -0,0 +1,283 @@
+package com.attask.templating;
+
+import com.attask.utils.AdaptiveRateLimiter;
+import com.attask.utils.DaemonThreadFactory;
+import com.attask.utils.IoThrottle;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Syncs all the implementations of a template, several at a time on a bounded pool of worker threads.
+ * The size of the pool is set with the com.attask.templating.TemplatePropagator.threads system property.
+ * It defaults to one thread per core, up to {@link #DEFAULT_MAX_THREADS}.
+ * Setting it to 1 syncs the implementations one after another on the calling thread instead,
+ * for installs where other plugins' parts of a job config aren't safe to load concurrently.
+ * A failure to sync one implementation doesn't stop the others from being synced, see {@link PropagationException}.
+ * Progress is recorded in a {@link PropagationJournal} so an interrupted propagation only syncs the implementations it hadn't got to.
+ * Propagations are rolled out in waves, within a budget of syncs and bytes per second that backs off while syncs are slow,
+ * see {@link RolloutPlan}.
+ */
+public class TemplatePropagator {
+	public static final String THREADS_PROPERTY = TemplatePropagator.class.getName() + ".threads";
+	public static final int DEFAULT_MAX_THREADS = 4;
+
+	private static final Logger LOGGER = Logger.getLogger(TemplatePropagator.class.getName());
+	private static final TemplatePropagator INSTANCE = new TemplatePropagator(Integer.getInteger(THREADS_PROPERTY, defaultThreads()), RolloutPlan.fromSystemProperties());
+
+	private final int threads;
+	private final ExecutorService executor;
+	private final RolloutPlan plan;
+	private final AdaptiveRateLimiter rateLimiter;
+	private final IoThrottle ioThrottle;
+
+	/**
+	 * @param threads The maximum number of implementations to sync at the same time.
+	 */
+	public TemplatePropagator(int threads) {
+		this(threads, RolloutPlan.UNLIMITED);
+	}
+
+	/**
+	 * @param threads The maximum number of implementations to sync at the same time.
+	 * @param plan How to split each propagation into waves, and the budget shared by every propagation.
+	 */
+	public TemplatePropagator(int threads, RolloutPlan plan) {
+		this.plan = plan;
+		this.rateLimiter = new AdaptiveRateLimiter(plan.getOpsPerSecond(), plan.getLatencyThresholdMillis());
+		this.ioThrottle = new IoThrottle(plan.getBytesPerSecond());
+		this.threads = Math.max(1, threads);
+		if (this.threads > 1) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(this.threads, this.threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("Template propagation"));
+			pool.allowCoreThreadTimeOut(true);
+			this.executor = pool;
+		} else {
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * @return The number of threads used when the threads property isn't set: one per core, but no more than {@link #DEFAULT_MAX_THREADS}.
+	 */
+	static int defaultThreads() {
+		return Math.min(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_THREADS);
+	}
+
+	/**
+	 * @return The propagator used when templates are saved.
+	 */
+	public static TemplatePropagator getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return The maximum number of implementations synced at the same time.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return How propagations are split into waves and throttled.
+	 */
+	public RolloutPlan getPlan() {
+		return plan;
+	}
+
+	/**
+	 * Syncs every implementation of the given template in the given ItemGroup and waits for them all to finish.
+	 * @param hudson ItemGroup that contains the implementations, typically Hudson.getInstance()
+	 * @param template The template to sync all the implementations with.
+	 * @throws PropagationException If any of the implementations couldn't be synced.
+	 * @throws IOException If interrupted while waiting for the implementations to be synced.
+	 */
+	public void propagate(ItemGroup hudson, TemplateProject template) throws IOException {
+		propagate(hudson, template, null);
+	}
+
+	/**
+	 * Syncs every implementation of the given template in the given ItemGroup and waits for them all to finish,
+	 * reporting the progress to the given status as each implementation finishes.
+	 * @param hudson ItemGroup that contains the implementations, typically Hudson.getInstance()
+	 * @param template The template to sync all the implementations with.
+	 * @param status Where to report the progress. May be null.
+	 * @throws PropagationException If any of the implementations couldn't be synced.
+	 * @throws IOException If interrupted while waiting for the implementations to be synced.
+	 */
+	public void propagate(final ItemGroup hudson, final TemplateProject template, PropagationStatus status) throws IOException {
+		TemplateMetrics metrics = TemplateMetrics.forTemplate(template.getName());
+		long start = System.nanoTime();
+		final PropagationJournal journal = openJournal(hudson, template);
+		boolean succeeded = false;
+		try {
+			List<String> pending = new ArrayList<String>();
+			for (String implementationName : ImplementationIndex.forItemGroup(hudson).getImplementationNames(template.getName())) {
+				if (journal == null || !journal.isCompleted(implementationName)) {
+					pending.add(implementationName);
+				}
+			}
+			if (status != null) {
+				status.started(pending.size());
+			}
+			final long bytesPerSync = plan.getBytesPerSecond() > 0 ? TemplateSnapshots.getInstance().get(template).getSize() : 0;
+
+			Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+			int attempted = 0;
+			List<List<String>> waves = plan.split(pending);
+			for (int wave = 0; wave < waves.size(); wave++) {
+				Map<String, Callable<Void>> tasks = new LinkedHashMap<String, Callable<Void>>();
+				for (final String implementationName : waves.get(wave)) {
+					tasks.put(implementationName, new Callable<Void>() {
+						public Void call() throws IOException, InterruptedException {
+							rateLimiter.acquire();
+							ioThrottle.acquire(bytesPerSync);
+							long syncStart = System.nanoTime();
+							sync(hudson, implementationName, template);
+							rateLimiter.record(System.nanoTime() - syncStart);
+							if (journal != null) {
+								journal.completed(implementationName);
+							}
+							return null;
+						}
+					});
+				}
+
+				long waveStart = System.nanoTime();
+				Map<String, Throwable> waveFailures = run(tasks, status, "Interrupted while syncing the implementations of " + template.getName());
+				failures.putAll(waveFailures);
+				attempted += tasks.size();
+				boolean canary = wave == 0 && plan.getCanarySize() > 0;
+				long waveMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waveStart);
+				if (status != null) {
+					status.waveFinished(canary, tasks.size(), waveMillis, waveFailures.size());
+				}
+				if (waves.size() > 1) {
+					LOGGER.log(Level.INFO, "Synced wave {0} of {1} of {2}: {3} implementation(s) in {4}ms, {5} failed, backing off {6}ms",
+							new Object[]{wave + 1, waves.size(), template.getName(), tasks.size(), waveMillis, waveFailures.size(), rateLimiter.getBackoffMillis()});
+				}
+				if (canary && !waveFailures.isEmpty() && plan.isHaltOnCanaryFailure()) {
+					LOGGER.log(Level.WARNING, "Halted the rollout of {0}, {1} implementation(s) of the canary wave failed", new Object[]{template.getName(), waveFailures.size()});
+					break;
+				}
+			}
+
+			metrics.propagated(attempted, failures.size());
+			metrics.record(TemplateMetrics.Stage.PROPAGATE, start);
+			if (!failures.isEmpty()) {
+				throw new PropagationException(template.getName(), failures);
+			}
+			succeeded = true;
+		} finally {
+			if (journal != null) {
+				journal.close(succeeded);
+			}
+		}
+	}
+
+	/**
+	 * Runs the given tasks on this propagator's workers, so they're bounded by the same number of threads as syncing.
+	 * Every task is run even if some of them fail.
+	 * @param tasks The tasks to run, keyed by the name of the job each one works on.
+	 * @return The name of each task that failed and why. Empty if they all succeeded.
+	 * @throws InterruptedIOException If interrupted while waiting for the tasks to finish.
+	 */
+	public Map<String, Throwable> runAll(Map<String, ? extends Callable<?>> tasks) throws InterruptedIOException {
+		return run(tasks, null, "Interrupted while waiting for " + tasks.size() + " jobs");
+	}
+
+	/**
+	 * Runs one task on this propagator's workers, or right away on the calling thread if there's only one worker.
+	 * @param task The task to run.
+	 * @return The task's result.
+	 */
+	public <T> Future<T> submit(Callable<T> task) {
+		if (executor == null) {
+			FutureTask<T> future = new FutureTask<T>(task);
+			future.run();
+			return future;
+		}
+		return executor.submit(task);
+	}
+
+	private Map<String, Throwable> run(Map<String, ? extends Callable<?>> tasks, PropagationStatus status, String interruptedMessage) throws InterruptedIOException {
+		Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+		if (executor == null) {
+			for (Map.Entry<String, ? extends Callable<?>> task : tasks.entrySet()) {
+				try {
+					task.getValue().call();
+					succeeded(status);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException(interruptedMessage);
+				} catch (Exception e) {
+					failed(status, failures, task.getKey(), e);
+				}
+			}
+		} else {
+			Map<String, Future<?>> futures = new LinkedHashMap<String, Future<?>>();
+			for (Map.Entry<String, ? extends Callable<?>> task : tasks.entrySet()) {
+				futures.put(task.getKey(), executor.submit(task.getValue()));
+			}
+
+			try {
+				for (Map.Entry<String, Future<?>> future : futures.entrySet()) {
+					try {
+						future.getValue().get();
+						succeeded(status);
+					} catch (ExecutionException e) {
+						failed(status, failures, future.getKey(), e.getCause());
+					}
+				}
+			} catch (InterruptedException e) {
+				for (Future<?> future : futures.values()) {
+					future.cancel(false);
+				}
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(interruptedMessage);
+			}
+		}
+		return failures;
+	}
+
+	private static void succeeded(PropagationStatus status) {
+		if (status != null) {
+			status.implementationSynced();
+		}
+	}
+
+	private static void failed(PropagationStatus status, Map<String, Throwable> failures, String implementationName, Throwable cause) {
+		failures.put(implementationName, cause);
+		if (status != null) {
+			status.implementationFailed(implementationName, cause);
+		}
+	}
+
+	/**
+	 * @return The journal of the template's propagation, or null if the ItemGroup isn't stored on disk.
+	 */
+	private static PropagationJournal openJournal(ItemGroup hudson, TemplateProject template) throws IOException {
+		File rootDir = hudson.getRootDir();
+		if (rootDir == null) {
+			return null;
+		}
+		return PropagationJournal.open(rootDir, template.getName(), PropagationJournal.versionOf(template));
+	}
+
+	private static void sync(ItemGroup hudson, String implementationName, TemplateProject template) throws IOException {
+		Item item = hudson.getItem(implementationName);
+		if (item instanceof TemplateImplementationProject) {
+			TemplateImplementationProject implementation = (TemplateImplementationProject) item;
+			ImplementTemplateBuildWrapper implementer = ImplementTemplateBuildWrapper.findImplementer(implementation, template);
+			if (implementer != null) {
+				implementer.updateImplementationWithTemplate(implementation, template);
+			}
+		}
+	}
+}
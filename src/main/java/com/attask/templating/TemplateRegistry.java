@@ -0,0 +1,159 @@
+package com.attask.templating;
+
+import com.google.common.collect.ImmutableList;
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.listeners.ItemListener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The names of all the templates in an ItemGroup,
+ * so listing the templates doesn't have to look at every job in Jenkins.
+ * There is one registry per ItemGroup. It is built the first time it's needed (or when Jenkins finishes loading)
+ * and then kept current by {@link ListenerImpl}.
+ */
+public class TemplateRegistry {
+	// Registries must not refer back to their ItemGroup, or the ItemGroup would never be weakly reachable
+	private static final Map<ItemGroup, TemplateRegistry> REGISTRIES = Collections.synchronizedMap(new WeakHashMap<ItemGroup, TemplateRegistry>());
+
+	private final Set<String> templateNames = new ConcurrentSkipListSet<String>();
+
+	private TemplateRegistry() {
+	}
+
+	/**
+	 * Gets the registry for the given ItemGroup, building it if it hasn't been built yet.
+	 * @param itemGroup The ItemGroup containing the templates, typically Hudson.getInstance().
+	 * @return The registry of the templates in the given ItemGroup.
+	 */
+	public static TemplateRegistry forItemGroup(ItemGroup itemGroup) {
+		TemplateRegistry registry = REGISTRIES.get(itemGroup);
+		if (registry == null) {
+			synchronized (REGISTRIES) {
+				registry = REGISTRIES.get(itemGroup);
+				if (registry == null) {
+					registry = build(itemGroup);
+					REGISTRIES.put(itemGroup, registry);
+				}
+			}
+		}
+		return registry;
+	}
+
+	/**
+	 * Throws away the current registry of the given ItemGroup and builds it again from scratch.
+	 * @param itemGroup The ItemGroup containing the templates, typically Hudson.getInstance().
+	 * @return The new registry.
+	 */
+	public static TemplateRegistry rebuild(ItemGroup itemGroup) {
+		TemplateRegistry registry = build(itemGroup);
+		REGISTRIES.put(itemGroup, registry);
+		return registry;
+	}
+
+	private static TemplateRegistry build(ItemGroup itemGroup) {
+		TemplateRegistry registry = new TemplateRegistry();
+		for (Object item : itemGroup.getItems()) {
+			if (item instanceof TemplateProject) {
+				registry.add(((TemplateProject) item).getName());
+			}
+		}
+		return registry;
+	}
+
+	/**
+	 * @return The names of all the templates, sorted. Never null.
+	 */
+	public Set<String> getTemplateNames() {
+		return Collections.unmodifiableSet(templateNames);
+	}
+
+	/**
+	 * Looks up each registered template by name, so this only costs as much as there are templates.
+	 * @param itemGroup The ItemGroup this registry was built for.
+	 * @return All the templates, sorted by name.
+	 */
+	public List<TemplateProject> getTemplates(ItemGroup itemGroup) {
+		ImmutableList.Builder<TemplateProject> builder = ImmutableList.builder();
+		for (String templateName : templateNames) {
+			Item item = itemGroup.getItem(templateName);
+			if (item instanceof TemplateProject) {
+				builder.add((TemplateProject) item);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @param name The name of a job.
+	 * @return True if the job is a template.
+	 */
+	public boolean contains(String name) {
+		return name != null && templateNames.contains(name);
+	}
+
+	/**
+	 * @param templateName The name of the template that has been created or loaded.
+	 */
+	public void add(String templateName) {
+		templateNames.add(templateName);
+	}
+
+	/**
+	 * @param templateName The name of the template that no longer exists.
+	 */
+	public void remove(String templateName) {
+		templateNames.remove(templateName);
+	}
+
+	/**
+	 * @param oldName The template's previous name.
+	 * @param newName The template's new name.
+	 */
+	public void rename(String oldName, String newName) {
+		if (templateNames.remove(oldName)) {
+			templateNames.add(newName);
+		}
+	}
+
+	/**
+	 * Keeps the registry of the Jenkins instance up to date as jobs are created, copied, renamed and deleted.
+	 */
+	@Extension
+	public static class ListenerImpl extends ItemListener {
+		@Override
+		public void onLoaded() {
+			rebuild(Hudson.getInstance());
+		}
+
+		@Override
+		public void onCreated(Item item) {
+			if (item instanceof TemplateProject) {
+				forItemGroup(item.getParent()).add(item.getName());
+			}
+		}
+
+		@Override
+		public void onCopied(Item src, Item item) {
+			onCreated(item);
+		}
+
+		@Override
+		public void onDeleted(Item item) {
+			if (item instanceof TemplateProject) {
+				forItemGroup(item.getParent()).remove(item.getName());
+			}
+		}
+
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			if (item instanceof TemplateProject) {
+				forItemGroup(item.getParent()).rename(oldName, newName);
+			}
+		}
+	}
+}
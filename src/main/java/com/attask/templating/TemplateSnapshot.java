@@ -0,0 +1,107 @@
+package com.attask.templating;
+
+import com.attask.utils.HashUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One version of the config a template's implementations are rendered from, held in memory.
+ * Snapshots never change once they're created, so any number of syncs can render from the same snapshot
+ * without locking while the template is being saved again. See {@link TemplateSnapshots}.
+ */
+public class TemplateSnapshot {
+	private final String templateName;
+	private final long version;
+	private final byte[] config;
+	private final String hash;
+	private final TemplateParameters defaults;
+	private volatile CompiledTemplate compiled;
+	private volatile List<String> variableNames;
+
+	TemplateSnapshot(String templateName, long version, byte[] config) {
+		this(templateName, version, config, null);
+	}
+
+	/**
+	 * @param defaults The template's default parameters text, see {@link TemplateDefaultsProperty}. Null if it has none.
+	 */
+	TemplateSnapshot(String templateName, long version, byte[] config, String defaults) {
+		this.templateName = templateName;
+		this.version = version;
+		this.config = config;
+		this.hash = defaults == null ? HashUtils.sha1(config) : HashUtils.sha1(concat(config, defaults.getBytes(CompiledTemplate.CHARSET)));
+		this.defaults = defaults == null ? TemplateParameters.EMPTY : TemplateParameters.parse(defaults);
+	}
+
+	public String getTemplateName() {
+		return templateName;
+	}
+
+	/**
+	 * @return Increases every time the template, or a template it extends, is saved.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return SHA-1 of the config and the default parameters.
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return The template's default parameters, which implementations' parameters are laid over when rendering this snapshot.
+	 */
+	public TemplateParameters getDefaults() {
+		return defaults;
+	}
+
+	/**
+	 * @return The config, encoded with {@link CompiledTemplate#CHARSET}.
+	 */
+	public InputStream openStream() {
+		return new ByteArrayInputStream(config);
+	}
+
+	/**
+	 * @return The config compiled, compiled the first time it's needed.
+	 */
+	public CompiledTemplate getCompiled() {
+		CompiledTemplate result = compiled;
+		if (result == null) {
+			result = CompiledTemplate.compile(config);
+			compiled = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The names of the $$VARIABLES in the config, in the order they first appear.
+	 */
+	public List<String> getVariableNames() {
+		List<String> result = variableNames;
+		if (result == null) {
+			result = Collections.unmodifiableList(Arrays.asList(getCompiled().getVariableNames()));
+			variableNames = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The size of the config in bytes.
+	 */
+	public int getSize() {
+		return config.length;
+	}
+
+	private static byte[] concat(byte[] first, byte[] second) {
+		return ByteBuffer.allocate(first.length + second.length).put(first).put(second).array();
+	}
+}
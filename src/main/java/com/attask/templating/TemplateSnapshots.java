@@ -0,0 +1,165 @@
+package com.attask.templating;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The current {@link TemplateSnapshot} of each template.
+ * Syncs take the current snapshot and render from it, never from the config.xml on disk,
+ * so they can't see a template half way through being saved and never wait for a save to finish.
+ * Saving a template publishes the config it just wrote, serialized while the template is still locked for the save,
+ * and the new snapshot replaces the current one in a single step.
+ * Templates that haven't been saved since Jenkins started are serialized the first time they're used.
+ * For templates extending other templates the snapshot is built from the template's layer, see {@link TemplateLayers}.
+ * Each snapshot also holds the template's default parameters, see {@link TemplateDefaultsProperty}.
+ */
+public class TemplateSnapshots {
+	private static final TemplateSnapshots INSTANCE = new TemplateSnapshots();
+
+	private final ConcurrentMap<String, SavedConfig> saved = new ConcurrentHashMap<String, SavedConfig>();
+	private final ConcurrentMap<String, TemplateSnapshot> snapshots = new ConcurrentHashMap<String, TemplateSnapshot>();
+	private final AtomicLong versions = new AtomicLong();
+
+	/**
+	 * @return The snapshots of all the templates in this Jenkins instance.
+	 */
+	public static TemplateSnapshots getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Gets the current snapshot of the given template, building it if there isn't one
+	 * or the template or one it extends was saved since.
+	 * @param template The template to render.
+	 * @return The current snapshot.
+	 * @throws IOException If the template can't be serialized, or the templates it extends can't be merged.
+	 */
+	public TemplateSnapshot get(TemplateProject template) throws IOException {
+		TemplateLayers.Layer layer = TemplateLayers.getInstance().get(template);
+		long version = layer == null ? getSaved(template).version : layer.getVersion();
+		TemplateSnapshot snapshot = snapshots.get(template.getName());
+		if (snapshot != null && snapshot.getVersion() >= version) {
+			return snapshot;
+		}
+		return build(template, layer);
+	}
+
+	/**
+	 * Makes the given config the template's current snapshot. Called by {@link TemplateProject#save()} with
+	 * the config it just wrote, while it still holds the template's lock, so saves are published in the order they were written.
+	 * @param template The template that was saved.
+	 * @param config The template's config.xml as it was written, encoded with {@link CompiledTemplate#CHARSET}.
+	 * @return The new snapshot.
+	 * @throws IOException If the templates the template extends can't be merged.
+	 */
+	public TemplateSnapshot publish(TemplateProject template, byte[] config) throws IOException {
+		synchronized (template) {
+			saved.put(template.getName(), new SavedConfig(versions.incrementAndGet(), config, TemplateDefaultsProperty.getParameters(template)));
+		}
+		return build(template, TemplateLayers.getInstance().get(template));
+	}
+
+	/**
+	 * @param templateName The name of the template that no longer exists.
+	 */
+	public void remove(String templateName) {
+		saved.remove(templateName);
+		snapshots.remove(templateName);
+	}
+
+	/**
+	 * Gets the config the template was last saved with, serializing the template if it hasn't been saved since Jenkins started.
+	 * @param template The template.
+	 * @return The template's own config, before being merged with any template it extends.
+	 * @throws IOException If the template can't be serialized.
+	 */
+	SavedConfig getSaved(TemplateProject template) throws IOException {
+		SavedConfig result = saved.get(template.getName());
+		if (result != null) {
+			return result;
+		}
+		synchronized (template) {
+			result = saved.get(template.getName());
+			if (result == null) {
+				byte[] config = template.serializeConfig();
+				if (config == null) {
+					throw new IOException("Unable to read the config of " + template.getName());
+				}
+				result = new SavedConfig(versions.incrementAndGet(), config, TemplateDefaultsProperty.getParameters(template));
+				saved.put(template.getName(), result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Builds the snapshot from the template's saved config or layer and makes it current, unless a newer one already is.
+	 */
+	private TemplateSnapshot build(TemplateProject template, TemplateLayers.Layer layer) throws IOException {
+		SavedConfig own = getSaved(template);
+		TemplateSnapshot built;
+		if (layer == null) {
+			// Implementations would otherwise carry the template's own properties, defaults and all
+			byte[] config = TemplateLayers.withoutTemplateOnlyProperties(own.config);
+			built = new TemplateSnapshot(template.getName(), own.version, config, own.defaults);
+		} else {
+			built = new TemplateSnapshot(template.getName(), layer.getVersion(), layer.getConfig(), own.defaults);
+		}
+
+		String name = template.getName();
+		while (true) {
+			TemplateSnapshot existing = snapshots.get(name);
+			if (existing == null) {
+				if (snapshots.putIfAbsent(name, built) == null) {
+					return built;
+				}
+			} else if (existing.getVersion() >= built.getVersion()) {
+				return existing;
+			} else if (snapshots.replace(name, existing, built)) {
+				return built;
+			}
+		}
+	}
+
+	/**
+	 * A template's own config as it was saved, along with its defaults at the time.
+	 */
+	static class SavedConfig {
+		/** Unique across all templates, and greater for every config saved later. */
+		final long version;
+		final byte[] config;
+		final String defaults;
+
+		private SavedConfig(long version, byte[] config, String defaults) {
+			this.version = version;
+			this.config = config;
+			this.defaults = defaults;
+		}
+	}
+
+	/**
+	 * Drops the snapshots of deleted and renamed templates.
+	 */
+	@Extension
+	public static class ListenerImpl extends ItemListener {
+		@Override
+		public void onDeleted(Item item) {
+			if (item instanceof TemplateProject) {
+				getInstance().remove(item.getName());
+			}
+		}
+
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			if (item instanceof TemplateProject) {
+				getInstance().remove(oldName);
+			}
+		}
+	}
+}
@@ -0,0 +1,209 @@
+package com.attask.templating;
+
+import hudson.FilePath;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.WorkspaceList;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fills the empty workspace of an implementation build from its template's reference workspace,
+ * see {@link WorkspaceSeedingProperty}.
+ * The build's own workspace is always an exclusive lease from the node's WorkspaceList, so concurrent builds of an
+ * implementation get their own directories (workspace@2 and so on), each seeded separately.
+ * The reference workspace is leased too while it's copied, so a build of the template can't change it half way through.
+ * If a build of the template is using it, the workspace isn't seeded rather than waiting for that build to finish.
+ * Copies are made with cp on the node, so seeding only happens on Unix nodes.
+ */
+public class WorkspaceSeeder {
+	/**
+	 * Seeds the given workspace if the implementation's template asks for it and the workspace is empty.
+	 * Failing to seed doesn't fail the build, the workspace is just left empty.
+	 * @param implementation The implementation being built.
+	 * @param node The node it's building on.
+	 * @param workspaceList The node's workspaces.
+	 * @param workspace The workspace leased for the build.
+	 * @param listener The build's listener.
+	 * @return True if the workspace was seeded.
+	 * @throws InterruptedException If the build is aborted while copying the reference workspace.
+	 */
+	public static boolean seed(TemplateImplementationProject implementation, Node node, WorkspaceList workspaceList, FilePath workspace, TaskListener listener) throws InterruptedException {
+		String templateName = ImplementationIndex.forItemGroup(implementation.getParent()).getTemplateName(implementation.getName());
+		if (templateName == null) {
+			return false;
+		}
+		Object item = Hudson.getInstance().getItem(templateName);
+		if (!(item instanceof TemplateProject)) {
+			return false;
+		}
+		TemplateProject template = (TemplateProject) item;
+		WorkspaceSeedingProperty seeding = template.getProperty(WorkspaceSeedingProperty.class);
+		if (seeding == null) {
+			return false;
+		}
+
+		try {
+			if (workspace.exists() && !workspace.list().isEmpty()) {
+				return false;
+			}
+			FilePath reference = seeding.getReferenceWorkspace(template, node);
+			if (reference == null || reference.equals(workspace)) {
+				return false;
+			}
+
+			// allocate() hands out reference@2 rather than waiting when a build of the template holds the reference
+			WorkspaceList.Lease referenceLease = workspaceList.allocate(reference);
+			try {
+				if (!reference.equals(referenceLease.path)) {
+					listener.getLogger().println("The reference workspace " + reference + " is in use, not seeding the workspace.");
+					return false;
+				}
+				if (!reference.exists() || reference.list().isEmpty()) {
+					listener.getLogger().println("The reference workspace " + reference + " is empty, not seeding the workspace.");
+					return false;
+				}
+				long start = System.nanoTime();
+				copy(reference, workspace, seeding.getMode());
+				TemplateMetrics.forTemplate(templateName).record(TemplateMetrics.Stage.SEED, start);
+				listener.getLogger().println("Seeded the workspace from " + reference + " (" + seeding.getMode().getDisplayName().toLowerCase() + ")");
+				return true;
+			} finally {
+				referenceLease.release();
+			}
+		} catch (IOException e) {
+			e.printStackTrace(listener.error("Unable to seed the workspace from the template's reference workspace, starting with an empty workspace"));
+			TemplateMetrics.forTemplate(templateName).error();
+			return false;
+		}
+	}
+
+	/**
+	 * Copies the reference workspace into the workspace. If the copy fails or is interrupted part way through,
+	 * the workspace is emptied again, otherwise later builds would find it not empty and build on what was copied so far.
+	 * @param reference The reference workspace, leased by the caller.
+	 * @param workspace The empty workspace to fill.
+	 * @param mode How to copy the files.
+	 * @throws IOException If the files couldn't be copied.
+	 * @throws InterruptedException If interrupted while copying, the workspace has been emptied.
+	 */
+	static void copy(FilePath reference, FilePath workspace, WorkspaceSeedingProperty.Mode mode) throws IOException, InterruptedException {
+		boolean copied = false;
+		try {
+			workspace.mkdirs();
+			reference.act(new Copy(workspace.getRemote(), mode));
+			copied = true;
+		} finally {
+			if (!copied) {
+				deleteContents(workspace);
+			}
+		}
+	}
+
+	private static void deleteContents(FilePath workspace) {
+		// Interrupts are cleared once they're thrown, so a build that's being aborted can still clean up.
+		boolean interrupted = Thread.interrupted();
+		try {
+			workspace.deleteContents();
+		} catch (IOException ignored) {
+			// The build will report the workspace if it's unusable.
+		} catch (InterruptedException ignored) {
+			interrupted = true;
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Copies the contents of the reference workspace into the workspace with cp, run on the node holding them.
+	 * In {@link WorkspaceSeedingProperty.Mode#HARDLINK} mode the Git objects are hard linked instead of copied.
+	 */
+	static class Copy implements FilePath.FileCallable<Void>, Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String workspace;
+		private final WorkspaceSeedingProperty.Mode mode;
+
+		Copy(String workspace, WorkspaceSeedingProperty.Mode mode) {
+			this.workspace = workspace;
+			this.mode = mode;
+		}
+
+		public Void invoke(File reference, VirtualChannel channel) throws IOException, InterruptedException {
+			if (File.separatorChar != '/') {
+				throw new IOException("Workspaces can only be seeded on Unix nodes.");
+			}
+			File referenceGit = new File(reference, ".git");
+			File referenceObjects = new File(referenceGit, "objects");
+			if (mode != WorkspaceSeedingProperty.Mode.HARDLINK || !referenceObjects.isDirectory()) {
+				cp("--reflink=auto", Collections.singletonList(reference.getAbsolutePath() + "/."), workspace);
+				return null;
+			}
+
+			// Git never changes an object once it's written, so they're the only files that can be shared safely
+			File workspaceGit = new File(workspace, ".git");
+			if (!workspaceGit.isDirectory() && !workspaceGit.mkdirs()) {
+				throw new IOException("Unable to create " + workspaceGit);
+			}
+			cp("--reflink=auto", listExcept(reference, ".git"), workspace);
+			cp("--reflink=auto", listExcept(referenceGit, "objects"), workspaceGit.getAbsolutePath());
+			cp("-l", Collections.singletonList(referenceObjects.getAbsolutePath()), workspaceGit.getAbsolutePath());
+			return null;
+		}
+
+		private static List<String> listExcept(File directory, String excluded) throws IOException {
+			String[] names = directory.list();
+			if (names == null) {
+				throw new IOException("Unable to list " + directory);
+			}
+			List<String> result = new ArrayList<String>(names.length);
+			for (String name : names) {
+				if (!name.equals(excluded)) {
+					result.add(new File(directory, name).getAbsolutePath());
+				}
+			}
+			return result;
+		}
+
+		private static void cp(String option, List<String> sources, String target) throws IOException, InterruptedException {
+			if (sources.isEmpty()) {
+				return;
+			}
+			List<String> command = new ArrayList<String>();
+			command.add("cp");
+			command.add("-a");
+			command.add(option);
+			command.addAll(sources);
+			command.add(target);
+
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			process.getOutputStream().close();
+			String output;
+			try {
+				output = IOUtils.toString(process.getInputStream());
+			} finally {
+				process.getInputStream().close();
+			}
+			int exitCode;
+			try {
+				exitCode = process.waitFor();
+			} catch (InterruptedException e) {
+				process.destroy();
+				throw e;
+			}
+			if (exitCode != 0) {
+				throw new IOException("cp exited with " + exitCode + ": " + output.trim());
+			}
+		}
+	}
+}
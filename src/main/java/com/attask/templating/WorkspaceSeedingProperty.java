@@ -0,0 +1,113 @@
+package com.attask.templating;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import hudson.model.Node;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Seeds the workspace of each new implementation of a template from a reference workspace,
+ * rather than every implementation starting with an empty workspace and a full checkout. See {@link WorkspaceSeeder}.
+ * The reference workspace is the template's own workspace on the node the implementation builds on, unless another one is given.
+ */
+public class WorkspaceSeedingProperty extends JobProperty<TemplateProject> {
+	public enum Mode {
+		/** Copy-on-write copies where the file system supports them (btrfs, XFS), full copies elsewhere. */
+		REFLINK("Copy-on-write copy"),
+		/**
+		 * Copy-on-write copies, except for the Git objects, which are hard linked to the reference workspace's.
+		 * Git never changes an object once it's written, so sharing them is safe, unlike any other file in a workspace.
+		 * Workspaces without a .git directory are copied the same as {@link #REFLINK}.
+		 */
+		HARDLINK("Copy-on-write copy, hard linking Git objects");
+
+		private final String displayName;
+
+		Mode(String displayName) {
+			this.displayName = displayName;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+	}
+
+	private final Mode mode;
+	private final String referenceWorkspace;
+
+	@DataBoundConstructor
+	public WorkspaceSeedingProperty(String mode, String referenceWorkspace) {
+		this.mode = parseMode(mode);
+		this.referenceWorkspace = referenceWorkspace == null || referenceWorkspace.trim().isEmpty() ? null : referenceWorkspace.trim();
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return The reference workspace, relative to the node's root directory, or null to use the template's workspace.
+	 */
+	public String getReferenceWorkspace() {
+		return referenceWorkspace;
+	}
+
+	/**
+	 * @param template The template this property belongs to.
+	 * @param node The node the implementation is building on.
+	 * @return The workspace to seed from on the given node, or null if the node is offline.
+	 */
+	public FilePath getReferenceWorkspace(TemplateProject template, Node node) {
+		String path = referenceWorkspace != null ? referenceWorkspace : template.getCustomWorkspace();
+		if (path != null) {
+			FilePath root = node.getRootPath();
+			return root == null ? null : root.child(path);
+		}
+		return node.getWorkspaceFor(template);
+	}
+
+	static Mode parseMode(String mode) {
+		if (mode != null) {
+			for (Mode candidate : Mode.values()) {
+				if (candidate.name().equalsIgnoreCase(mode.trim())) {
+					return candidate;
+				}
+			}
+		}
+		return Mode.REFLINK;
+	}
+
+	@Extension
+	public static class DescriptorImpl extends JobPropertyDescriptor {
+		@Override
+		public boolean isApplicable(Class<? extends Job> jobType) {
+			return TemplateProject.class.isAssignableFrom(jobType);
+		}
+
+		/**
+		 * Doesn't add the property at all unless seeding is turned on.
+		 */
+		@Override
+		public JobProperty<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+			JSONObject seeding = formData.optJSONObject("seedWorkspace");
+			if (seeding == null || seeding.isNullObject()) {
+				return null;
+			}
+			return new WorkspaceSeedingProperty(seeding.optString("mode", null), seeding.optString("referenceWorkspace", ""));
+		}
+
+		public Mode[] getModes() {
+			return Mode.values();
+		}
+
+		@Override
+		public String getDisplayName() {
+			return "Seed implementation workspaces";
+		}
+	}
+}
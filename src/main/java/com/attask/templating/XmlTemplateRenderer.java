@@ -0,0 +1,228 @@
+package com.attask.templating;
+
+import com.attask.utils.TokenReplacer;
+import hudson.util.IOException2;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders a template's config.xml by streaming it through a StAX parser once, rather than replacing text in the raw file.
+ * Variables and $${...} expressions are only replaced in text and attribute values, and the values are escaped,
+ * so a value containing &lt;, &amp; or new lines still produces a valid config.
+ * Expressions are evaluated first, so a $$VARIABLE in an expression's value is replaced too.
+ * The template's root element is renamed to the implementation's class instead of matching the class name anywhere in the file.
+ * Comments and processing instructions are copied as is, whitespace outside the root element isn't kept.
+ * Turned on with the com.attask.templating.XmlTemplateRenderer.enabled system property.
+ */
+public class XmlTemplateRenderer {
+	public static final String ENABLED_PROPERTY = XmlTemplateRenderer.class.getName() + ".enabled";
+
+	private static final boolean ENABLED = Boolean.getBoolean(ENABLED_PROPERTY);
+	private static final String TEMPLATE_ROOT = TemplateProject.class.getName();
+	private static final String IMPLEMENTATION_ROOT = TemplateImplementationProject.class.getName();
+	private static final XMLInputFactory INPUT_FACTORY;
+	static {
+		INPUT_FACTORY = XMLInputFactory.newInstance();
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+		INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	/**
+	 * @return True if templates should be rendered with this renderer.
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * Renders the given template config.
+	 * @param template The template's config.xml. The stream is not closed.
+	 * @param replacer Replaces the $$VARIABLES in text and attribute values.
+	 * @param context The values the $${...} expressions in text and attribute values are evaluated against.
+	 * @param outputStream Where to write the rendered config, encoded with {@link CompiledTemplate#CHARSET}. The stream is flushed but not closed.
+	 * @throws IOException If the template isn't well formed XML, can't be read, or the stream can't be written to,
+	 * or variables refer to each other in a cycle.
+	 */
+	public static void render(InputStream template, TokenReplacer replacer, Expression.Context context, OutputStream outputStream) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, CompiledTemplate.CHARSET), 16 * 1024);
+		StringBuilder replaced = new StringBuilder();
+		List<String> openElements = new ArrayList<String>();
+		boolean startTagOpen = false;
+
+		try {
+			XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(template);
+			try {
+				writer.write("<?xml version='1.0' encoding='" + CompiledTemplate.CHARSET.name() + "'?>\n");
+				while (reader.hasNext()) {
+					int event = reader.next();
+					if (startTagOpen) {
+						writer.write(event == XMLStreamConstants.END_ELEMENT ? "/>" : ">");
+					}
+
+					switch (event) {
+						case XMLStreamConstants.START_ELEMENT:
+							String name = qualifiedName(reader.getPrefix(), reader.getLocalName());
+							if (openElements.isEmpty() && TEMPLATE_ROOT.equals(name)) {
+								name = IMPLEMENTATION_ROOT;
+							}
+							openElements.add(name);
+							writer.write('<');
+							writer.write(name);
+							for (int i = 0; i < reader.getNamespaceCount(); i++) {
+								String prefix = reader.getNamespacePrefix(i);
+								writer.write(prefix == null || prefix.isEmpty() ? " xmlns" : " xmlns:" + prefix);
+								writer.write("=\"");
+								escape(reader.getNamespaceURI(i), writer, true);
+								writer.write('"');
+							}
+							for (int i = 0; i < reader.getAttributeCount(); i++) {
+								writer.write(' ');
+								writer.write(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)));
+								writer.write("=\"");
+								writeReplaced(reader.getAttributeValue(i), replacer, context, replaced, writer, true);
+								writer.write('"');
+							}
+							startTagOpen = true;
+							continue;
+
+						case XMLStreamConstants.END_ELEMENT:
+							String openName = openElements.remove(openElements.size() - 1);
+							if (!startTagOpen) {
+								writer.write("</");
+								writer.write(openName);
+								writer.write('>');
+							}
+							if (openElements.isEmpty()) {
+								writer.write('\n');
+							}
+							break;
+
+						case XMLStreamConstants.CHARACTERS:
+						case XMLStreamConstants.CDATA:
+						case XMLStreamConstants.SPACE:
+							if (!openElements.isEmpty()) {
+								writeReplaced(CharBuffer.wrap(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength()), replacer, context, replaced, writer, false);
+							}
+							break;
+
+						case XMLStreamConstants.ENTITY_REFERENCE:
+							writer.write('&');
+							writer.write(reader.getLocalName());
+							writer.write(';');
+							break;
+
+						case XMLStreamConstants.COMMENT:
+							writer.write("<!--");
+							writer.write(reader.getText());
+							writer.write("-->");
+							if (openElements.isEmpty()) {
+								writer.write('\n');
+							}
+							break;
+
+						case XMLStreamConstants.PROCESSING_INSTRUCTION:
+							writer.write("<?");
+							writer.write(reader.getPITarget());
+							String data = reader.getPIData();
+							if (data != null && !data.isEmpty()) {
+								writer.write(' ');
+								writer.write(data);
+							}
+							writer.write("?>");
+							if (openElements.isEmpty()) {
+								writer.write('\n');
+							}
+							break;
+
+						default:
+							// START_DOCUMENT, END_DOCUMENT and DTD aren't copied, the declaration is always rewritten above.
+							break;
+					}
+					startTagOpen = false;
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException2("Unable to render the template config", e);
+		}
+		writer.flush();
+	}
+
+	private static String qualifiedName(String prefix, String localName) {
+		if (prefix == null || prefix.isEmpty()) {
+			return localName;
+		}
+		return prefix + ":" + localName;
+	}
+
+	private static void writeReplaced(CharSequence text, TokenReplacer replacer, Expression.Context context, StringBuilder replaced, Writer writer, boolean attribute) throws IOException {
+		int variable = indexOf(text, '$');
+		if (variable < 0) {
+			escape(text, writer, attribute);
+			return;
+		}
+		if (text.toString().indexOf(Expression.START, variable) >= 0) {
+			text = Expression.parseText(text.toString()).evaluate(context);
+		}
+		if (replacer.isEmpty()) {
+			escape(text, writer, attribute);
+			return;
+		}
+		replaced.setLength(0);
+		replacer.replace(text, replaced);
+		escape(replaced, writer, attribute);
+	}
+
+	/**
+	 * Escapes the characters that can't appear as is in text, and in attribute values also the ones the parser would normalize.
+	 */
+	private static void escape(CharSequence text, Writer writer, boolean attribute) throws IOException {
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '<':
+					writer.write("&lt;");
+					break;
+				case '>':
+					writer.write("&gt;");
+					break;
+				case '&':
+					writer.write("&amp;");
+					break;
+				case '"':
+					writer.write(attribute ? "&quot;" : "\"");
+					break;
+				case '\n':
+					writer.write(attribute ? "&#10;" : "\n");
+					break;
+				case '\r':
+					writer.write("&#13;");
+					break;
+				case '\t':
+					writer.write(attribute ? "&#9;" : "\t");
+					break;
+				default:
+					writer.write(c);
+			}
+		}
+	}
+
+	private static int indexOf(CharSequence text, char c) {
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
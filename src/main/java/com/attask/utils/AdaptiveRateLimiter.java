@@ -0,0 +1,77 @@
+package com.attask.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out operations shared by several threads so they run at most a given number of times per second,
+ * and spaces them out further while the operations themselves are slow.
+ * The time each operation takes is fed back with {@link #record(long)}. While the moving average is above the
+ * latency threshold the gap between operations doubles, and once it's back under the gap halves again.
+ */
+public class AdaptiveRateLimiter {
+	private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(5);
+	private static final double SMOOTHING = 0.2;
+
+	private final long intervalNanos;
+	private final long latencyThresholdNanos;
+	private long backoffNanos;
+	private double averageLatencyNanos = -1;
+	private long nextFreeNanos;
+
+	/**
+	 * @param opsPerSecond The most operations to start per second, 0 or less for no limit.
+	 * @param latencyThresholdMillis The average operation time above which to back off, 0 or less to never back off.
+	 */
+	public AdaptiveRateLimiter(double opsPerSecond, long latencyThresholdMillis) {
+		this.intervalNanos = opsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / opsPerSecond) : 0;
+		this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, latencyThresholdMillis));
+		this.nextFreeNanos = System.nanoTime();
+	}
+
+	/**
+	 * Waits until the next operation may start.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void acquire() throws InterruptedException {
+		long waitNanos;
+		synchronized (this) {
+			long gap = intervalNanos + backoffNanos;
+			if (gap == 0) {
+				return;
+			}
+			long now = System.nanoTime();
+			if (nextFreeNanos - now < 0) {
+				nextFreeNanos = now;
+			}
+			waitNanos = nextFreeNanos - now;
+			nextFreeNanos += gap;
+		}
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Records how long an operation took, backing off or speeding back up if needed.
+	 * @param latencyNanos The time the operation took.
+	 */
+	public synchronized void record(long latencyNanos) {
+		if (latencyThresholdNanos <= 0) {
+			return;
+		}
+		averageLatencyNanos = averageLatencyNanos < 0 ? latencyNanos : averageLatencyNanos + SMOOTHING * (latencyNanos - averageLatencyNanos);
+		if (averageLatencyNanos > latencyThresholdNanos) {
+			backoffNanos = Math.min(MAX_BACKOFF_NANOS, Math.max(MIN_BACKOFF_NANOS, backoffNanos * 2));
+		} else if (backoffNanos > 0) {
+			backoffNanos = backoffNanos / 2 < MIN_BACKOFF_NANOS ? 0 : backoffNanos / 2;
+		}
+	}
+
+	/**
+	 * @return The extra time currently added between operations because they've been slow, in milliseconds.
+	 */
+	public synchronized long getBackoffMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(backoffNanos);
+	}
+}
@@ -0,0 +1,51 @@
+package com.attask.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Replaces a file's contents so that anything reading it, or a crash part way through, only ever sees the old or the new contents.
+ */
+public class AtomicFile {
+	/**
+	 * Writes the content to a temp file next to the file, syncs it to disk and renames it over the file.
+	 * On POSIX file systems the rename replaces the file atomically. Where a file can't be renamed over another (Windows),
+	 * the old file is moved aside first and only deleted once the new one is in place, so it can still be recovered.
+	 * @param file The file to replace, or create if it doesn't exist.
+	 * @param content The new contents.
+	 * @throws IOException If the content can't be written, in which case the file is left as it was.
+	 */
+	public static void replace(File file, byte[] content) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		boolean replaced = false;
+		try {
+			FileOutputStream outputStream = new FileOutputStream(temp);
+			try {
+				outputStream.write(content);
+				outputStream.getFD().sync();
+			} finally {
+				outputStream.close();
+			}
+
+			if (!temp.renameTo(file)) {
+				File old = new File(directory, file.getName() + ".old");
+				old.delete();
+				if (!file.renameTo(old)) {
+					throw new IOException("Unable to replace " + file);
+				}
+				if (!temp.renameTo(file)) {
+					old.renameTo(file);
+					throw new IOException("Unable to replace " + file);
+				}
+				old.delete();
+			}
+			replaced = true;
+		} finally {
+			if (!replaced) {
+				temp.delete();
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.attask.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A {@link TokenReplacer} that has been encoded with a specific charset so it can match and replace tokens
+ * directly in the encoded bytes without ever decoding the input.
+ * Only valid for charsets where a token's bytes can't appear in the middle of another character, such as UTF-8,
+ * see {@link #supports(java.nio.charset.Charset)}.
+ * Instances are immutable and safe to share between threads.
+ */
+public class ByteTokenReplacer {
+	/**
+	 * Returned by {@link #match(byte[], int, int, boolean)} when no token starts at the given position.
+	 */
+	public static final int NO_MATCH = -1;
+
+	/**
+	 * Returned by {@link #match(byte[], int, int, boolean)} when more input is needed to know which token (if any) matches.
+	 */
+	public static final int NEED_MORE_INPUT = -2;
+
+	private final Node root = new Node();
+	private final boolean[] startsToken = new boolean[256];
+	private final byte[][] tokens;
+	private final byte[][] replacements;
+	private final int maxTokenLength;
+
+	ByteTokenReplacer(Map<String, String> replacements, Charset charset) throws CharacterCodingException {
+		if (!supports(charset)) {
+			throw new IllegalArgumentException(charset + " can't be matched byte by byte.");
+		}
+
+		CharsetEncoder encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		this.tokens = new byte[replacements.size()][];
+		this.replacements = new byte[replacements.size()][];
+
+		int max = 0;
+		int index = 0;
+		for (Map.Entry<String, String> replacement : replacements.entrySet()) {
+			byte[] token = encode(encoder, replacement.getKey());
+			this.tokens[index] = token;
+			this.replacements[index] = encode(encoder, replacement.getValue());
+
+			Node node = root;
+			for (byte b : token) {
+				node = node.getOrCreateChild(b);
+			}
+			node.tokenIndex = index;
+			startsToken[token[0] & 0xff] = true;
+			max = Math.max(max, token.length);
+			index++;
+		}
+		this.maxTokenLength = max;
+	}
+
+	/**
+	 * @param charset The charset to check.
+	 * @return True if tokens can be matched directly against bytes encoded with the given charset.
+	 */
+	public static boolean supports(Charset charset) {
+		String name = charset.name();
+		return "UTF-8".equals(name) || "US-ASCII".equals(name) || "ISO-8859-1".equals(name);
+	}
+
+	/**
+	 * @return The length in bytes of the longest token.
+	 */
+	public int getMaxTokenLength() {
+		return maxTokenLength;
+	}
+
+	/**
+	 * @param b The byte to check.
+	 * @return True if any token starts with the given byte. Bytes that return false can be copied through without calling match.
+	 */
+	public boolean startsToken(byte b) {
+		return startsToken[b & 0xff];
+	}
+
+	/**
+	 * Finds the longest token that starts at the given position.
+	 * @param buffer The bytes to look in.
+	 * @param position Where the token would start.
+	 * @param limit The end of the valid bytes in the buffer.
+	 * @param endOfInput Whether there are any more bytes after limit.
+	 * If false and a token could continue past the limit, {@link #NEED_MORE_INPUT} is returned.
+	 * @return The index of the matching token to pass to {@link #getTokenLength(int)} and {@link #getReplacement(int)},
+	 * {@link #NO_MATCH} or {@link #NEED_MORE_INPUT}.
+	 */
+	public int match(byte[] buffer, int position, int limit, boolean endOfInput) {
+		int match = NO_MATCH;
+		Node node = root.getChild(buffer[position]);
+		for (int i = position + 1; node != null; i++) {
+			if (node.tokenIndex >= 0) {
+				match = node.tokenIndex;
+			}
+			if (i >= limit) {
+				if (!endOfInput && node.hasChildren()) {
+					return NEED_MORE_INPUT;
+				}
+				break;
+			}
+			node = node.getChild(buffer[i]);
+		}
+		return match;
+	}
+
+	/**
+	 * @param tokenIndex The value returned by a successful {@link #match(byte[], int, int, boolean)}.
+	 * @return The number of bytes of input the token covers.
+	 */
+	public int getTokenLength(int tokenIndex) {
+		return tokens[tokenIndex].length;
+	}
+
+	/**
+	 * @param tokenIndex The value returned by a successful {@link #match(byte[], int, int, boolean)}.
+	 * @return The encoded replacement. Must not be modified.
+	 */
+	public byte[] getReplacement(int tokenIndex) {
+		return replacements[tokenIndex];
+	}
+
+	private static byte[] encode(CharsetEncoder encoder, String value) throws CharacterCodingException {
+		ByteBuffer encoded = encoder.encode(CharBuffer.wrap(value));
+		byte[] result = new byte[encoded.remaining()];
+		encoded.get(result);
+		return result;
+	}
+
+	private static class Node {
+		private byte[] keys = new byte[0];
+		private Node[] children = new Node[0];
+		private int tokenIndex = NO_MATCH;
+
+		boolean hasChildren() {
+			return keys.length > 0;
+		}
+
+		Node getChild(byte b) {
+			int index = Arrays.binarySearch(keys, b);
+			return index < 0 ? null : children[index];
+		}
+
+		Node getOrCreateChild(byte b) {
+			int index = Arrays.binarySearch(keys, b);
+			if (index >= 0) {
+				return children[index];
+			}
+
+			int insertAt = -index - 1;
+			byte[] newKeys = new byte[keys.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, insertAt);
+			System.arraycopy(children, 0, newChildren, 0, insertAt);
+			System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+			System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+
+			Node child = new Node();
+			newKeys[insertAt] = b;
+			newChildren[insertAt] = child;
+			keys = newKeys;
+			children = newChildren;
+			return child;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.attask.utils;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates numbered daemon threads, so background pools never keep Jenkins from shutting down.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+	private final String name;
+	private final int priority;
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * @param name The name of the threads, each thread's number is appended to it.
+	 */
+	public DaemonThreadFactory(String name) {
+		this(name, Thread.NORM_PRIORITY);
+	}
+
+	/**
+	 * @param name The name of the threads, each thread's number is appended to it.
+	 * @param priority The priority of the threads.
+	 */
+	public DaemonThreadFactory(String name, int priority) {
+		this.name = name;
+		this.priority = priority;
+	}
+
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, name + " #" + count.incrementAndGet());
+		thread.setDaemon(true);
+		thread.setPriority(priority);
+		return thread;
+	}
+}
@@ -0,0 +1,44 @@
+package com.attask.utils;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class HashUtils {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Hashes the given bytes with SHA-1.
+	 * @param bytes The bytes to hash.
+	 * @param offset Where in the array to start.
+	 * @param length How many bytes to hash.
+	 * @return The hash as a lower case hex string.
+	 */
+	public static String sha1(byte[] bytes, int offset, int length) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every JVM is required to support SHA-1", e);
+		}
+		digest.update(bytes, offset, length);
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Hashes the given bytes with SHA-1.
+	 * @param bytes The bytes to hash.
+	 * @return The hash as a lower case hex string.
+	 */
+	public static String sha1(byte[] bytes) {
+		return sha1(bytes, 0, bytes.length);
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] result = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			result[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			result[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(result);
+	}
+}
@@ -0,0 +1,47 @@
+package com.attask.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many bytes per second are read by the threads sharing it.
+ * Each read reserves its share of time up front, so threads wait their turn rather than all reading at once.
+ */
+public class IoThrottle {
+	private final long bytesPerSecond;
+	private long nextFreeNanos;
+
+	/**
+	 * @param bytesPerSecond The most bytes to read per second, 0 or less for no limit.
+	 */
+	public IoThrottle(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+		this.nextFreeNanos = System.nanoTime();
+	}
+
+	/**
+	 * Waits until the given number of bytes can be read without going over the limit.
+	 * @param bytes The number of bytes about to be read.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void acquire(long bytes) throws InterruptedException {
+		if (bytesPerSecond <= 0 || bytes <= 0) {
+			return;
+		}
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (nextFreeNanos - now < 0) {
+				nextFreeNanos = now;
+			}
+			waitNanos = nextFreeNanos - now;
+			nextFreeNanos += TimeUnit.SECONDS.toNanos(bytes) / bytesPerSecond;
+		}
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+}
@@ -0,0 +1,133 @@
+package com.attask.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long something takes in buckets that double in size, from 1 microsecond up to about 35 minutes.
+ * Recording is lock free and cheap enough to do on every call.
+ * Percentiles are reported as the upper bound of the bucket they fall in, so they're accurate to within a factor of 2.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+	private static final int BUCKETS = 32;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * @param nanos How long it took, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(bucketOf(nanos / 1000));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * Records how long it's been since the given start time.
+	 * @param startNanos The System.nanoTime() when it started.
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getTotalMillis() {
+		return totalNanos.get() / 1e6;
+	}
+
+	public double getMeanMillis() {
+		long n = count.get();
+		return n == 0 ? 0 : totalNanos.get() / 1e6 / n;
+	}
+
+	public double getMaxMillis() {
+		return maxNanos.get() / 1e6;
+	}
+
+	public double get50thPercentileMillis() {
+		return getPercentileMillis(0.5);
+	}
+
+	public double get95thPercentileMillis() {
+		return getPercentileMillis(0.95);
+	}
+
+	public double get99thPercentileMillis() {
+		return getPercentileMillis(0.99);
+	}
+
+	/**
+	 * @param percentile Between 0 and 1.
+	 * @return The upper bound of the bucket the given percentile falls in, in milliseconds. 0 if nothing has been recorded.
+	 */
+	public double getPercentileMillis(double percentile) {
+		long[] counts = snapshot();
+		long total = 0;
+		for (long bucketCount : counts) {
+			total += bucketCount;
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long target = (long) Math.ceil(total * percentile);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= target && counts[i] > 0) {
+				return Math.min(upperBoundMicros(i) / 1000.0, getMaxMillis());
+			}
+		}
+		return getMaxMillis();
+	}
+
+	/**
+	 * @return The number of times recorded in each non-empty bucket, keyed by the bucket's upper bound in microseconds.
+	 */
+	public Map<Long, Long> getBuckets() {
+		long[] counts = snapshot();
+		Map<Long, Long> result = new LinkedHashMap<Long, Long>();
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				result.put(upperBoundMicros(i), counts[i]);
+			}
+		}
+		return result;
+	}
+
+	private long[] snapshot() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Bucket 0 holds everything under 1 microsecond, bucket i holds [2^(i-1), 2^i) microseconds and the last bucket everything beyond.
+	 */
+	private static int bucketOf(long micros) {
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	private static long upperBoundMicros(int bucket) {
+		return 1L << bucket;
+	}
+}
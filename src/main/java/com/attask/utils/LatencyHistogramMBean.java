@@ -0,0 +1,18 @@
+package com.attask.utils;
+
+/**
+ * JMX view of a {@link LatencyHistogram}.
+ */
+public interface LatencyHistogramMBean {
+	long getCount();
+
+	double getMeanMillis();
+
+	double getMaxMillis();
+
+	double get50thPercentileMillis();
+
+	double get95thPercentileMillis();
+
+	double get99thPercentileMillis();
+}
@@ -0,0 +1,109 @@
+package com.attask.utils;
+
+import java.util.*;
+
+/**
+ * A read only view of one map laid over another: a key in the overlay hides the same key in the base.
+ * Neither map is copied, so many overlays can share one large base map, each only holding what differs from it.
+ * Both maps must not change once the view is created.
+ */
+public class OverlayMap<K, V> extends AbstractMap<K, V> {
+	private final Map<K, V> overlay;
+	private final Map<K, V> base;
+	private final int size;
+	private transient Set<Entry<K, V>> entrySet;
+
+	/**
+	 * @param overlay The entries that win.
+	 * @param base The entries used for any key the overlay doesn't have.
+	 */
+	public OverlayMap(Map<K, V> overlay, Map<K, V> base) {
+		this.overlay = overlay;
+		this.base = base;
+		int hidden = 0;
+		for (K key : overlay.keySet()) {
+			if (base.containsKey(key)) {
+				hidden++;
+			}
+		}
+		this.size = overlay.size() + base.size() - hidden;
+	}
+
+	@Override
+	public V get(Object key) {
+		if (overlay.containsKey(key)) {
+			return overlay.get(key);
+		}
+		return base.get(key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return overlay.containsKey(key) || base.containsKey(key);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		Set<Entry<K, V>> result = entrySet;
+		if (result == null) {
+			result = new AbstractSet<Entry<K, V>>() {
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+			entrySet = result;
+		}
+		return result;
+	}
+
+	/**
+	 * The overlay's entries, then the base's entries the overlay doesn't hide.
+	 */
+	private class EntryIterator implements Iterator<Entry<K, V>> {
+		private final Iterator<Entry<K, V>> overlayEntries = overlay.entrySet().iterator();
+		private final Iterator<Entry<K, V>> baseEntries = base.entrySet().iterator();
+		private Entry<K, V> next;
+
+		public boolean hasNext() {
+			if (next != null) {
+				return true;
+			}
+			if (overlayEntries.hasNext()) {
+				next = overlayEntries.next();
+				return true;
+			}
+			while (baseEntries.hasNext()) {
+				Entry<K, V> candidate = baseEntries.next();
+				if (!overlay.containsKey(candidate.getKey())) {
+					next = candidate;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public Entry<K, V> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Entry<K, V> result = next;
+			next = null;
+			return result;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
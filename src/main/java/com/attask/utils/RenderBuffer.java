@@ -0,0 +1,77 @@
+package com.attask.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * A ByteArrayOutputStream that gives access to its contents without copying them
+ * and is reused through a small shared pool, so rendering many configs doesn't allocate a new buffer per config.
+ * At most {@link #POOL_SIZE} buffers are kept, and buffers that grew larger than {@link #MAX_RETAINED_SIZE} aren't kept at all,
+ * so the pool never holds on to more than a couple of megabytes no matter how many threads render.
+ */
+public class RenderBuffer extends ByteArrayOutputStream {
+	public static final int INITIAL_SIZE = 64 * 1024;
+	public static final int MAX_RETAINED_SIZE = 256 * 1024;
+	public static final int POOL_SIZE = 8;
+
+	// Last in, first out, so the most recently used buffers (the ones most likely still in the CPU cache) are handed out first.
+	private static final BlockingDeque<RenderBuffer> POOL = new LinkedBlockingDeque<RenderBuffer>(POOL_SIZE);
+
+	private boolean inUse;
+
+	private RenderBuffer() {
+		super(INITIAL_SIZE);
+	}
+
+	/**
+	 * Takes a buffer from the pool, or creates one if the pool is empty.
+	 * Must be given back with {@link #release()} once the contents are no longer needed.
+	 * @return An empty buffer.
+	 */
+	public static RenderBuffer acquire() {
+		RenderBuffer buffer = POOL.pollFirst();
+		if (buffer == null) {
+			buffer = new RenderBuffer();
+		}
+		buffer.reset();
+		buffer.inUse = true;
+		return buffer;
+	}
+
+	/**
+	 * Gives the buffer back to the pool. The buffer must not be used afterwards.
+	 */
+	public void release() {
+		if (!inUse) {
+			return;
+		}
+		inUse = false;
+		reset();
+		if (buf.length <= MAX_RETAINED_SIZE) {
+			POOL.offerFirst(this);
+		}
+	}
+
+	/**
+	 * @return The internal array. Only the first {@link #size()} bytes are valid.
+	 */
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	/**
+	 * @return A stream reading the current contents without copying them.
+	 */
+	public ByteArrayInputStream toInputStream() {
+		return new ByteArrayInputStream(buf, 0, count);
+	}
+
+	/**
+	 * @return SHA-1 of the current contents.
+	 */
+	public String sha1() {
+		return HashUtils.sha1(buf, 0, count);
+	}
+}
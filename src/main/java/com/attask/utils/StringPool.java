@@ -0,0 +1,38 @@
+package com.attask.utils;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Hands out one shared instance of each distinct string, like {@link String#intern()},
+ * but without keeping strings nobody refers to any more.
+ * Safe to use from multiple threads.
+ */
+public class StringPool {
+	private final Map<String, WeakReference<String>> strings = new WeakHashMap<String, WeakReference<String>>();
+
+	/**
+	 * @param value The string to share. May be null.
+	 * @return The pooled string equal to the given one, or the given string if it's the first of its kind.
+	 */
+	public synchronized String intern(String value) {
+		if (value == null) {
+			return null;
+		}
+		WeakReference<String> existing = strings.get(value);
+		String result = existing == null ? null : existing.get();
+		if (result == null) {
+			strings.put(value, new WeakReference<String>(value));
+			result = value;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of distinct strings currently pooled.
+	 */
+	public synchronized int size() {
+		return strings.size();
+	}
+}
@@ -0,0 +1,159 @@
+package com.attask.utils;
+
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replaces any number of literal tokens in a single pass over the input.
+ * The tokens are compiled once into a trie, so each character of the input is only compared against the tokens that
+ * can still match at that position instead of running a separate regular expression per token over every line.
+ * When more than one token matches at the same position the longest one wins.
+ * Unlike applying one regular expression per token in turn, a replacement is never scanned again,
+ * so a value containing another token is written out as is rather than being expanded too,
+ * and '$' and '\' in a value are plain characters rather than group references or escapes.
+ * Instances are immutable and safe to share between threads.
+ */
+public class TokenReplacer {
+	private final Node root = new Node();
+	private final Map<String, String> replacements;
+	private final int maxTokenLength;
+
+	/**
+	 * @param replacements Map of literal token to the literal text it should be replaced with.
+	 *                     Neither the tokens or the replacements are treated as regular expressions.
+	 */
+	public TokenReplacer(Map<String, String> replacements) {
+		Map<String, String> copy = new LinkedHashMap<String, String>();
+		int max = 0;
+		for (Map.Entry<String, String> replacement : replacements.entrySet()) {
+			String token = replacement.getKey();
+			if (token == null || token.isEmpty()) {
+				throw new IllegalArgumentException("Tokens cannot be null or empty.");
+			}
+
+			Node node = root;
+			for (int i = 0; i < token.length(); i++) {
+				node = node.getOrCreateChild(token.charAt(i));
+			}
+			node.token = token;
+			node.replacement = replacement.getValue() == null ? "" : replacement.getValue();
+			copy.put(token, node.replacement);
+			max = Math.max(max, token.length());
+		}
+		this.replacements = Collections.unmodifiableMap(copy);
+		this.maxTokenLength = max;
+	}
+
+	/**
+	 * Encodes the tokens and replacements once so they can be matched against raw bytes.
+	 * @param charset The charset the input is encoded with. Must be supported by {@link ByteTokenReplacer#supports(java.nio.charset.Charset)}.
+	 * @return A replacer that works on bytes in the given charset.
+	 * @throws CharacterCodingException If the tokens or replacements can't be encoded.
+	 */
+	public ByteTokenReplacer encode(Charset charset) throws CharacterCodingException {
+		return new ByteTokenReplacer(replacements, charset);
+	}
+
+	/**
+	 * @return The tokens and what they are replaced with, in the order they were given.
+	 */
+	public Map<String, String> getReplacements() {
+		return replacements;
+	}
+
+	/**
+	 * @return The length of the longest token that will be replaced.
+	 */
+	public int getMaxTokenLength() {
+		return maxTokenLength;
+	}
+
+	/**
+	 * @return True if there are no tokens to replace.
+	 */
+	public boolean isEmpty() {
+		return maxTokenLength == 0;
+	}
+
+	/**
+	 * @param input The text to replace the tokens in.
+	 * @return The input with every token replaced.
+	 */
+	public String replace(CharSequence input) {
+		StringBuilder sb = new StringBuilder(input.length() + 16);
+		replace(input, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the input to the given StringBuilder with every token replaced.
+	 * Runs of characters that can't start a token are appended in bulk.
+	 * @param input The text to replace the tokens in.
+	 * @param out Where the result is appended to.
+	 */
+	public void replace(CharSequence input, StringBuilder out) {
+		int length = input.length();
+		int copyFrom = 0;
+		int i = 0;
+		while (i < length) {
+			Node match = null;
+			Node node = root.getChild(input.charAt(i));
+			for (int j = i + 1; node != null; j++) {
+				if (node.replacement != null) {
+					match = node;
+				}
+				if (j >= length) {
+					break;
+				}
+				node = node.getChild(input.charAt(j));
+			}
+
+			if (match == null) {
+				i++;
+			} else {
+				out.append(input, copyFrom, i).append(match.replacement);
+				i += match.token.length();
+				copyFrom = i;
+			}
+		}
+		out.append(input, copyFrom, length);
+	}
+
+	private static class Node {
+		private char[] keys = new char[0];
+		private Node[] children = new Node[0];
+		private String token;
+		private String replacement;
+
+		Node getChild(char c) {
+			int index = Arrays.binarySearch(keys, c);
+			return index < 0 ? null : children[index];
+		}
+
+		Node getOrCreateChild(char c) {
+			int index = Arrays.binarySearch(keys, c);
+			if (index >= 0) {
+				return children[index];
+			}
+
+			int insertAt = -index - 1;
+			char[] newKeys = new char[keys.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, insertAt);
+			System.arraycopy(children, 0, newChildren, 0, insertAt);
+			System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+			System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+
+			Node child = new Node();
+			newKeys[insertAt] = c;
+			newChildren[insertAt] = child;
+			keys = newKeys;
+			children = newChildren;
+			return child;
+		}
+	}
+}
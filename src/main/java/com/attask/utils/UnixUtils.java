@@ -1,13 +1,18 @@
 package com.attask.utils;
 
 import java.io.*;
-import java.util.Collection;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class UnixUtils {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
 	/**
 	 * Reads the inputStream to the end, replacing any occurrence of the given
 	 * pattern with the given replacement and writing that result to the given outputStream.
@@ -44,4 +49,128 @@ public class UnixUtils {
 			outputStream.write(next.getBytes());
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Copies the input file to the output file, replacing every token known to the given replacer.
+	 * For charsets supported by {@link ByteTokenReplacer} the bytes are never decoded: the input is streamed through
+	 * large NIO buffers and any range of bytes that doesn't contain a token is copied in bulk.
+	 * Other charsets fall back to decoding and re-encoding with the given charset.
+	 * Unlike the stream based versions, the content is copied exactly as is, no trailing newline is added.
+	 * @param input The file to read from.
+	 * @param output The file to write to. Truncated if it already exists.
+	 * @param replacer The tokens to replace.
+	 * @param charset The charset both files are encoded in.
+	 * @throws IOException If either file can't be read or written.
+	 */
+	public static void sed(File input, File output, TokenReplacer replacer, Charset charset) throws IOException {
+		FileInputStream inputStream = new FileInputStream(input);
+		try {
+			FileOutputStream outputStream = new FileOutputStream(output);
+			try {
+				if(ByteTokenReplacer.supports(charset)) {
+					sed(inputStream.getChannel(), outputStream.getChannel(), replacer.encode(charset));
+				} else {
+					sed(new InputStreamReader(inputStream, charset), new OutputStreamWriter(outputStream, charset), replacer);
+				}
+			} finally {
+				outputStream.close();
+			}
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/**
+	 * Streams the input channel to the output channel, replacing every token known to the given replacer.
+	 * Only the bytes that could start a token are inspected, everything between tokens is copied in bulk.
+	 * Works with file channels as well as streams wrapped with {@link java.nio.channels.Channels}.
+	 * @param input The channel to read from. The channel is not closed.
+	 * @param output The channel to write to. The channel is not closed.
+	 * @param replacer The encoded tokens to replace.
+	 * @throws IOException If the channels can't be read or written.
+	 */
+	public static void sed(ReadableByteChannel input, WritableByteChannel output, ByteTokenReplacer replacer) throws IOException {
+		byte[] in = new byte[Math.max(BUFFER_SIZE, replacer.getMaxTokenLength() * 2)];
+		ByteBuffer inBuffer = ByteBuffer.wrap(in);
+		ByteBuffer outBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		int end = 0;
+		boolean endOfInput = false;
+		while(!endOfInput) {
+			inBuffer.limit(in.length).position(end);
+			while(inBuffer.hasRemaining() && !endOfInput) {
+				endOfInput = input.read(inBuffer) < 0;
+			}
+			end = inBuffer.position();
+
+			int position = 0;
+			int copyFrom = 0;
+			while(position < end) {
+				if(!replacer.startsToken(in[position])) {
+					position++;
+					continue;
+				}
+
+				int match = replacer.match(in, position, end, endOfInput);
+				if(match == ByteTokenReplacer.NEED_MORE_INPUT) {
+					break;
+				}
+
+				if(match == ByteTokenReplacer.NO_MATCH) {
+					position++;
+				} else {
+					write(output, outBuffer, in, copyFrom, position - copyFrom);
+					byte[] replacement = replacer.getReplacement(match);
+					write(output, outBuffer, replacement, 0, replacement.length);
+					position += replacer.getTokenLength(match);
+					copyFrom = position;
+				}
+			}
+			write(output, outBuffer, in, copyFrom, position - copyFrom);
+
+			System.arraycopy(in, position, in, 0, end - position);
+			end -= position;
+		}
+		flush(output, outBuffer);
+	}
+
+	/**
+	 * Reads the reader to the end, replacing every token known to the given replacer and writing the result to the writer.
+	 * The writer is flushed but neither the reader or writer are closed.
+	 */
+	private static void sed(Reader reader, Writer writer, TokenReplacer replacer) throws IOException {
+		StringBuilder content = new StringBuilder(BUFFER_SIZE);
+		char[] buffer = new char[BUFFER_SIZE];
+		int read;
+		while((read = reader.read(buffer)) >= 0) {
+			content.append(buffer, 0, read);
+		}
+
+		Writer bufferedWriter = new BufferedWriter(writer, BUFFER_SIZE);
+		bufferedWriter.append(replacer.replace(content));
+		bufferedWriter.flush();
+	}
+
+	private static void write(WritableByteChannel channel, ByteBuffer buffer, byte[] bytes, int offset, int length) throws IOException {
+		if(length > buffer.remaining()) {
+			flush(channel, buffer);
+		}
+
+		if(length >= buffer.capacity()) {
+			ByteBuffer wrapped = ByteBuffer.wrap(bytes, offset, length);
+			while(wrapped.hasRemaining()) {
+				channel.write(wrapped);
+			}
+		} else {
+			buffer.put(bytes, offset, length);
+		}
+	}
+
+	private static void flush(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
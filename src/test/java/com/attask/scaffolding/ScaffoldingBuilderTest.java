@@ -0,0 +1,229 @@
+package com.attask.scaffolding;
+
+import com.attask.templating.*;
+import hudson.model.ItemGroup;
+import hudson.model.TopLevelItem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ScaffoldingBuilderTest {
+	private static final String TEMPLATE_NAME = "scaffolding_template";
+
+	private ItemGroup<TopLevelItem> itemGroup;
+	private final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> deleted = Collections.synchronizedList(new ArrayList<String>());
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	private final CountDownLatch rendering = new CountDownLatch(1);
+	private final CountDownLatch blocked = new CountDownLatch(1);
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() throws IOException {
+		itemGroup = mock(ItemGroup.class);
+		TemplateProject template = mock(TemplateProject.class);
+		when(template.getName()).thenReturn(TEMPLATE_NAME);
+		when(itemGroup.getItem(TEMPLATE_NAME)).thenReturn(template);
+		String config = "<?xml version='1.0' encoding='UTF-8'?>\n<project><description>$$BRANCH</description></project>";
+		TemplateSnapshots.getInstance().publish(template, config.getBytes(CompiledTemplate.CHARSET));
+	}
+
+	@Test
+	public void test_standUp_appliesEveryJob() throws IOException {
+		Map<String, Throwable> failures = builder(4, 2).standUp(implementations(3), listener());
+
+		Assert.assertTrue(failures.isEmpty());
+		Assert.assertEquals(3, created.size());
+		Assert.assertTrue(deleted.isEmpty());
+	}
+
+	@Test
+	public void test_standUp_boundsJobsInFlight() throws IOException {
+		Map<String, Throwable> failures = builder(2, 4).standUp(implementations(20), listener());
+
+		Assert.assertTrue(failures.isEmpty());
+		Assert.assertEquals(20, created.size());
+		Assert.assertTrue("at most 2 jobs rendered but not applied, was " + maxInFlight.get(), maxInFlight.get() <= 2);
+	}
+
+	@Test
+	public void test_standUp_renderFails_deletesJob() throws IOException {
+		List<ScaffoldingBuilder.Implementation> implementations = implementations(2);
+		implementations.add(new ScaffoldingBuilder.Implementation("broken", TEMPLATE_NAME, "BRANCH=render_fails\n"));
+
+		Map<String, Throwable> failures = builder(4, 2).standUp(implementations, listener());
+
+		Assert.assertEquals(Collections.singleton("broken"), failures.keySet());
+		Assert.assertEquals("Render failed", failures.get("broken").getMessage());
+		Assert.assertEquals(Arrays.asList("broken"), deleted);
+		Assert.assertEquals(2, created.size());
+	}
+
+	@Test
+	public void test_standUp_applyFails_deletesJob() throws IOException {
+		List<ScaffoldingBuilder.Implementation> implementations = implementations(2);
+		implementations.add(1, new ScaffoldingBuilder.Implementation("broken", TEMPLATE_NAME, "BRANCH=apply_fails\n"));
+
+		Map<String, Throwable> failures = builder(4, 1).standUp(implementations, listener());
+
+		Assert.assertEquals(Collections.singleton("broken"), failures.keySet());
+		Assert.assertEquals(Arrays.asList("broken"), deleted);
+		Assert.assertEquals(2, created.size());
+	}
+
+	@Test
+	public void test_standUp_wrapperFails_deletesJob() throws IOException {
+		List<ScaffoldingBuilder.Implementation> implementations = implementations(2);
+		implementations.add(1, new ScaffoldingBuilder.Implementation("broken", TEMPLATE_NAME, "BRANCH=wrapper_fails\n"));
+
+		Map<String, Throwable> failures = builder(4, 1).standUp(implementations, listener());
+
+		Assert.assertEquals(Collections.singleton("broken"), failures.keySet());
+		Assert.assertEquals(Arrays.asList("broken"), deleted);
+		Assert.assertEquals(2, created.size());
+	}
+
+	@Test
+	public void test_standUp_interrupted_deletesUnfinishedJobs() throws Exception {
+		final List<ScaffoldingBuilder.Implementation> implementations = implementations(1);
+		implementations.add(new ScaffoldingBuilder.Implementation("stuck", TEMPLATE_NAME, "BRANCH=render_blocks\n"));
+		implementations.add(new ScaffoldingBuilder.Implementation("waiting", TEMPLATE_NAME, "BRANCH=b\n"));
+		final ScaffoldingBuilder builder = builder(1, 1);
+		final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+		Thread standingUp = new Thread() {
+			@Override
+			public void run() {
+				try {
+					builder.standUp(implementations, listener());
+				} catch (Throwable e) {
+					thrown.set(e);
+				}
+			}
+		};
+
+		try {
+			standingUp.start();
+			rendering.await();
+			standingUp.interrupt();
+			standingUp.join(10000);
+		} finally {
+			blocked.countDown();
+		}
+
+		Assert.assertTrue(thrown.get() instanceof InterruptedIOException);
+		Assert.assertEquals(Arrays.asList("stuck", "waiting"), deleted);
+	}
+
+	@Test
+	public void test_standUp_unknownTemplate_createsNothing() throws IOException {
+		List<ScaffoldingBuilder.Implementation> implementations = new ArrayList<ScaffoldingBuilder.Implementation>();
+		implementations.add(new ScaffoldingBuilder.Implementation("orphan", "missing", "BRANCH=b\n"));
+
+		Map<String, Throwable> failures = builder(4, 1).standUp(implementations, listener());
+
+		Assert.assertEquals(Collections.singleton("orphan"), failures.keySet());
+		Assert.assertTrue(deleted.isEmpty());
+	}
+
+	private static List<ScaffoldingBuilder.Implementation> implementations(int count) {
+		List<ScaffoldingBuilder.Implementation> result = new ArrayList<ScaffoldingBuilder.Implementation>();
+		for (int i = 0; i < count; i++) {
+			result.add(new ScaffoldingBuilder.Implementation("job-" + i, TEMPLATE_NAME, "BRANCH=b" + i + "\n"));
+		}
+		return result;
+	}
+
+	private ScaffoldingBuilder.Listener listener() {
+		return new ScaffoldingBuilder.Listener() {
+			public void onCreated(String implementationName) {
+				created.add(implementationName);
+			}
+
+			public void onFailed(String implementationName, Throwable cause) {
+			}
+		};
+	}
+
+	/**
+	 * A builder creating mock jobs, whose wrappers count the jobs rendered but not yet applied.
+	 * A job fails to get its wrapper, render or apply when its parameters say so, and blocks while rendering
+	 * until the test is done when they ask it to.
+	 */
+	private ScaffoldingBuilder builder(int maxJobsInFlight, int threads) {
+		return new ScaffoldingBuilder(itemGroup, new TemplatePropagator(threads), maxJobsInFlight) {
+			@Override
+			protected TemplateImplementationProject createProject(String name) {
+				TemplateImplementationProject project = mock(TemplateImplementationProject.class);
+				when(project.getName()).thenReturn(name);
+				return project;
+			}
+
+			@Override
+			protected ImplementTemplateBuildWrapper createWrapper(String templateName, final String parameters) {
+				if (parameters.contains("wrapper_fails")) {
+					throw new IllegalArgumentException("Wrapper failed");
+				}
+				return new ImplementTemplateBuildWrapper(templateName, parameters) {
+					@Override
+					public void render(TemplateSnapshot snapshot, OutputStream outputStream) throws IOException {
+						if (parameters.contains("render_fails")) {
+							throw new IOException("Render failed");
+						}
+						if (parameters.contains("render_blocks")) {
+							rendering.countDown();
+							try {
+								blocked.await();
+							} catch (InterruptedException e) {
+								throw new IOException("Interrupted");
+							}
+						}
+						super.render(snapshot, outputStream);
+						int current = inFlight.incrementAndGet();
+						while (true) {
+							int max = maxInFlight.get();
+							if (current <= max || maxInFlight.compareAndSet(max, current)) {
+								break;
+							}
+						}
+					}
+
+					@Override
+					public void apply(TemplateImplementationProject implementation, InputStream rendered, String hash) throws IOException {
+						try {
+							Thread.sleep(1);
+						} catch (InterruptedException e) {
+							throw new IOException("Interrupted");
+						} finally {
+							inFlight.decrementAndGet();
+						}
+						if (parameters.contains("apply_fails")) {
+							throw new IOException("Apply failed");
+						}
+					}
+				};
+			}
+
+			@Override
+			protected void reloadDescriptor() {
+			}
+
+			@Override
+			protected void deleteProject(TemplateImplementationProject project) {
+				deleted.add(project.getName());
+			}
+		};
+	}
+}
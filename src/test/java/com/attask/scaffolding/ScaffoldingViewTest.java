@@ -0,0 +1,127 @@
+package com.attask.scaffolding;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.attask.templating.TemplatePropagator;
+import hudson.XmlFile;
+import hudson.model.ItemGroup;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+
+public class ScaffoldingViewTest {
+	private static final List<String> TEMPLATES = ImmutableList.of("build", "deploy");
+	private static final Map<String, Collection<String>> VARIABLE_NAMES = ImmutableMap.<String, Collection<String>>of(
+			"build", ImmutableList.of("BRANCH"),
+			"deploy", ImmutableList.of("BRANCH", "PORT")
+	);
+
+	@Test
+	public void test_toImplementations_onePerTemplatePerSet() {
+		JSONArray sets = JSONArray.fromObject("[{prefix: 'b1-', suffix: 'Job', variables: {BRANCH: 'b1'}}, {prefix: 'b2-', variables: {BRANCH: 'b2'}}]");
+		List<ScaffoldingBuilder.Implementation> implementations = ScaffoldingView.toImplementations(sets, TEMPLATES, VARIABLE_NAMES);
+
+		Assert.assertEquals(4, implementations.size());
+		Assert.assertEquals("b1-buildJob", implementations.get(0).getName());
+		Assert.assertEquals("build", implementations.get(0).getTemplateName());
+		Assert.assertEquals("BRANCH=b1\n", implementations.get(0).getParameters());
+		Assert.assertEquals("b1-deployJob", implementations.get(1).getName());
+		Assert.assertEquals("b2-buildImpl", implementations.get(2).getName());
+		Assert.assertEquals("BRANCH=b2\n", implementations.get(3).getParameters());
+	}
+
+	@Test
+	public void test_toImplementations_templateVariablesOverrideShared() {
+		JSONArray sets = JSONArray.fromObject("[{variables: {BRANCH: 'b1', OTHER: 'x', deploy: {PORT: '8081', BRANCH: 'release'}}}]");
+		List<ScaffoldingBuilder.Implementation> implementations = ScaffoldingView.toImplementations(sets, TEMPLATES, VARIABLE_NAMES);
+
+		Assert.assertEquals("BRANCH=b1\n", implementations.get(0).getParameters());
+		Assert.assertEquals("BRANCH=release\nPORT=8081\n", implementations.get(1).getParameters());
+	}
+
+	@Test
+	public void test_toImplementations_equalsInValueKept() {
+		JSONArray sets = JSONArray.fromObject("[{variables: {BRANCH: 'a=b'}}]");
+		Assert.assertEquals("BRANCH=a=b\n", ScaffoldingView.toImplementations(sets, TEMPLATES, VARIABLE_NAMES).get(0).getParameters());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_toImplementations_lineBreakInValue_rejected() {
+		JSONArray sets = JSONArray.fromObject("[{variables: {BRANCH: 'b1\\nPORT=1'}}]");
+		ScaffoldingView.toImplementations(sets, TEMPLATES, VARIABLE_NAMES);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_toImplementations_hashInValue_rejected() {
+		JSONArray sets = JSONArray.fromObject("[{variables: {BRANCH: 'b#1'}}]");
+		ScaffoldingView.toImplementations(sets, TEMPLATES, VARIABLE_NAMES);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_toImplementations_equalsInTemplateVariableName_rejected() {
+		JSONArray sets = JSONArray.fromObject("[{variables: {deploy: {'PORT=1\\nBRANCH': 'x'}}}]");
+		ScaffoldingView.toImplementations(sets, TEMPLATES, VARIABLE_NAMES);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test_standUp_streamsOneLinePerJobThenSummary() throws IOException {
+		JSONArray sets = JSONArray.fromObject("[{prefix: 'b1-', variables: {BRANCH: 'b1'}}]");
+		List<ScaffoldingBuilder.Implementation> implementations = ScaffoldingView.toImplementations(sets, TEMPLATES, VARIABLE_NAMES);
+		ScaffoldingBuilder builder = new ScaffoldingBuilder(mock(ItemGroup.class), new TemplatePropagator(1)) {
+			@Override
+			public Map<String, Throwable> standUp(List<Implementation> implementations, Listener listener) {
+				listener.onCreated(implementations.get(0).getName());
+				IOException failure = new IOException("Broken");
+				listener.onFailed(implementations.get(1).getName(), failure);
+				return Collections.<String, Throwable>singletonMap(implementations.get(1).getName(), failure);
+			}
+		};
+		StringWriter output = new StringWriter();
+
+		ScaffoldingView.standUp(builder, implementations, new PrintWriter(output));
+
+		String[] lines = output.toString().trim().split("\\r?\\n");
+		Assert.assertEquals(3, lines.length);
+		JSONObject created = JSONObject.fromObject(lines[0]);
+		Assert.assertEquals("b1-buildImpl", created.getString("job"));
+		Assert.assertEquals("created", created.getString("status"));
+		Assert.assertEquals(1, created.getInt("finished"));
+		Assert.assertEquals(2, created.getInt("total"));
+		JSONObject failed = JSONObject.fromObject(lines[1]);
+		Assert.assertEquals("b1-deployImpl", failed.getString("job"));
+		Assert.assertEquals("failed", failed.getString("status"));
+		Assert.assertEquals("java.io.IOException: Broken", failed.getString("error"));
+		JSONObject summary = JSONObject.fromObject(lines[2]);
+		Assert.assertEquals(1, summary.getInt("created"));
+		Assert.assertEquals(1, summary.getInt("failed"));
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void test_getVariableNames_deprecatedFileLookup() throws IOException {
+		File configFile = File.createTempFile("config", ".xml");
+		try {
+			FileUtils.writeStringToFile(configFile, "<project><a>$$BRANCH</a><b>$$PORT-$$BRANCH</b></project>", "UTF-8");
+
+			Assert.assertEquals(Arrays.asList("BRANCH", "PORT"), ScaffoldingView.getVariableNames(new XmlFile(configFile)));
+			Assert.assertTrue(ScaffoldingView.VARIABLE_PATTERN.matcher("$$PORT").matches());
+		} finally {
+			configFile.delete();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.attask.templating;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+public class CompiledTemplateTest {
+	private static final String TEMPLATE = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+			"<com.attask.templating.TemplateProject>\n" +
+			"  <description>$$BRANCH builds $$BRANCH_NAME for $$$$OWNER</description>\n" +
+			"  <command>echo $$UNKNOWN $$ $</command>\n" +
+			"</com.attask.templating.TemplateProject>\n";
+
+	@Test
+	public void test_render_replacesVariablesAndClassName() throws IOException {
+		Map<String, String> parameters = ImmutableMap.of("BRANCH", "m\u00e4ster", "OWNER", "$1");
+		Assert.assertEquals("<?xml version='1.0' encoding='UTF-8'?>\n" +
+				"<com.attask.templating.TemplateImplementationProject>\n" +
+				"  <description>m\u00e4ster builds m\u00e4ster_NAME for $$$1</description>\n" +
+				"  <command>echo $$UNKNOWN $$ $</command>\n" +
+				"</com.attask.templating.TemplateImplementationProject>\n", render(TEMPLATE, parameters));
+	}
+
+	@Test
+	public void test_getVariableNames() {
+		CompiledTemplate template = CompiledTemplate.compile(TEMPLATE.getBytes(CompiledTemplate.CHARSET));
+		Assert.assertArrayEquals(new String[]{"BRANCH", "BRANCH_NAME", "OWNER", "UNKNOWN"}, template.getVariableNames());
+	}
+
+	@Test
+	public void test_canRender() {
+		Assert.assertTrue(CompiledTemplate.canRender(ImmutableMap.of("BRANCH_1", "a")));
+		Assert.assertFalse(CompiledTemplate.canRender(ImmutableMap.of("BRANCH ", "a")));
+		Assert.assertFalse(CompiledTemplate.canRender(ImmutableMap.of("", "a")));
+	}
+
+	@Test
+	public void test_render_evaluatesExpressions() throws IOException {
+		String template = "<a>$${BRANCH:-master} $${lower(BRANCH)} $${OWNER:-$$BRANCH} $${replace(BRANCH, '/', '-')}</a>";
+		Assert.assertEquals("<a>Feature/X feature/x Feature/X Feature-X</a>", render(template, ImmutableMap.of("BRANCH", "Feature/X")));
+	}
+
+	@Test
+	public void test_render_leavesExpressionsWithoutValues() throws IOException {
+		String template = "<a>$${BRANCH:-master} $${lower(BRANCH)} $${unknown(BRANCH)} $$BRANCH</a>";
+		Assert.assertEquals("<a>master $${lower(BRANCH)} $${unknown(BRANCH)} $$BRANCH</a>", render(template, ImmutableMap.<String, String>of()));
+	}
+
+	@Test
+	public void test_render_unescapesExpressions() throws IOException {
+		String template = "<a>$${concat(BRANCH, &quot;_&quot;, lower(BRANCH))}</a>";
+		Assert.assertEquals("<a>B_b</a>", render(template, ImmutableMap.of("BRANCH", "B")));
+	}
+
+	@Test
+	public void test_render_escapesExpressionValues() throws IOException {
+		String template = "<a title=\"$${TITLE:-a &amp; &lt;b&gt;}\">$${TITLE:-a &amp; &lt;b&gt;} $${lower(NAME)}</a>";
+		Assert.assertEquals("<a title=\"a &amp; &lt;b&gt;\">a &amp; &lt;b&gt; &quot;x&quot; &amp; &apos;y&apos;</a>",
+				render(template, ImmutableMap.of("NAME", "\"X\" & 'Y'")));
+	}
+
+	@Test
+	public void test_renderExpressions_leavesVariables() throws IOException {
+		TemplateParameters parameters = TemplateParameters.parse("bad name=x\nBRANCH=Feature\n");
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		CompiledTemplate.compile("<a>$$bad name $${lower(BRANCH)} $$BRANCH</a>".getBytes(CompiledTemplate.CHARSET)).renderExpressions(parameters, outputStream);
+		Assert.assertEquals("<a>$$bad name feature $$BRANCH</a>", new String(outputStream.toByteArray(), CompiledTemplate.CHARSET));
+	}
+
+	@Test
+	public void test_render_parametersReferToEachOther() throws IOException {
+		Map<String, String> parameters = ImmutableMap.of("BRANCH", "Feature", "DEPLOY", "$${lower(BRANCH)}-deploy");
+		Assert.assertEquals("<a>feature-deploy FEATURE-DEPLOY</a>", render("<a>$$DEPLOY $${upper(DEPLOY)}</a>", parameters));
+	}
+
+	@Test(expected = ExpressionException.class)
+	public void test_render_parametersInACycle() throws IOException {
+		render("<a>$$A</a>", ImmutableMap.of("A", "$${B}", "B", "$${A}"));
+	}
+
+	@Test
+	public void test_getVariableNames_includesExpressions() {
+		CompiledTemplate template = CompiledTemplate.compile("<a>$${A:-$$B} $$C $${lower(D)} $$A</a>".getBytes(CompiledTemplate.CHARSET));
+		Assert.assertArrayEquals(new String[]{"A", "B", "C", "D"}, template.getVariableNames());
+	}
+
+	private static String render(String template, Map<String, String> parameters) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		CompiledTemplate.compile(template.getBytes(CompiledTemplate.CHARSET)).render(parameters, outputStream);
+		return new String(outputStream.toByteArray(), CompiledTemplate.CHARSET);
+	}
+}
@@ -0,0 +1,174 @@
+package com.attask.templating;
+
+import com.attask.utils.HashUtils;
+import hudson.model.Descriptor;
+import hudson.model.ItemGroup;
+import hudson.model.TopLevelItem;
+import hudson.tasks.BuildWrapper;
+import hudson.util.DescribableList;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import static org.mockito.Mockito.*;
+
+public class DriftScannerTest {
+	private static final String TEMPLATE_NAME = "drift_template";
+
+	private File root;
+	private ItemGroup<TopLevelItem> itemGroup;
+	private TemplateProject template;
+	private final List<TopLevelItem> items = new ArrayList<TopLevelItem>();
+	private final DriftScanner scanner = new DriftScanner(2, 0);
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() throws IOException {
+		root = File.createTempFile("drift", "");
+		root.delete();
+		itemGroup = mock(ItemGroup.class);
+		when(itemGroup.getItems()).thenReturn(items);
+		template = mock(TemplateProject.class);
+		when(template.getName()).thenReturn(TEMPLATE_NAME);
+		when(itemGroup.getItem(TEMPLATE_NAME)).thenReturn(template);
+		publishTemplate("<project><description>$$NAME</description></project>");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (root != null) {
+			FileUtils.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void test_scan_inSync_rewritesNothing() throws IOException {
+		TemplateImplementationProject one = synced("one");
+		TemplateImplementationProject two = synced("two");
+
+		DriftReport report = scanner.scan(itemGroup, true);
+
+		Assert.assertEquals(2, report.getInSync());
+		Assert.assertTrue(report.getDrifted().isEmpty());
+		verify(one, times(1)).saveNoUpdate();
+		verify(two, times(1)).saveNoUpdate();
+	}
+
+	@Test
+	public void test_scan_templateChanged() throws IOException {
+		synced("one");
+		publishTemplate("<project><displayName>$$NAME</displayName></project>");
+
+		DriftReport report = scanner.scan(itemGroup, false);
+
+		Assert.assertEquals(Collections.singletonMap("one", DriftReport.Reason.TEMPLATE_CHANGED), report.getDrifted());
+	}
+
+	@Test
+	public void test_scan_configChanged() throws IOException {
+		TemplateImplementationProject one = synced("one");
+		FileUtils.writeStringToFile(configFile(one), "<project><description>edited</description></project>");
+
+		DriftReport report = scanner.scan(itemGroup, false);
+
+		Assert.assertEquals(Collections.singletonMap("one", DriftReport.Reason.CONFIG_CHANGED), report.getDrifted());
+	}
+
+	@Test
+	public void test_scan_repair_onlyRewritesDrifted() throws IOException {
+		TemplateImplementationProject one = synced("one");
+		TemplateImplementationProject two = synced("two");
+		FileUtils.writeStringToFile(configFile(two), "<project><description>edited</description></project>");
+
+		DriftReport report = scanner.scan(itemGroup, true);
+
+		Assert.assertEquals(1, report.getRepaired());
+		verify(one, times(1)).saveNoUpdate();
+		verify(two, times(2)).saveNoUpdate();
+		Assert.assertEquals("<project><description>two</description></project>", FileUtils.readFileToString(configFile(two)));
+		Assert.assertTrue(scanner.scan(itemGroup, false).getDrifted().isEmpty());
+	}
+
+	@Test
+	public void test_scan_neverHashed_adoptsBaselineWithoutWriting() throws IOException {
+		TemplateImplementationProject one = implementation("one");
+		FileUtils.writeStringToFile(configFile(one), "<project><description>one, as synced long ago</description></project>");
+
+		DriftReport report = scanner.scan(itemGroup, true);
+
+		Assert.assertEquals(1, report.getInSync());
+		Assert.assertArrayEquals(new String[]{"config.xml"}, one.getRootDir().list());
+		verify(one, never()).saveNoUpdate();
+
+		FileUtils.writeStringToFile(configFile(one), "<project><description>edited</description></project>");
+		Assert.assertEquals(Collections.singletonMap("one", DriftReport.Reason.CONFIG_CHANGED), scanner.scan(itemGroup, false).getDrifted());
+
+		publishTemplate("<project><displayName>$$NAME</displayName></project>");
+		Assert.assertEquals(Collections.singletonMap("one", DriftReport.Reason.TEMPLATE_CHANGED), scanner.scan(itemGroup, false).getDrifted());
+	}
+
+	private void publishTemplate(String config) throws IOException {
+		TemplateSnapshots.getInstance().publish(template, config.getBytes(CompiledTemplate.CHARSET));
+	}
+
+	private TemplateImplementationProject synced(String name) throws IOException {
+		TemplateImplementationProject implementation = implementation(name);
+		findWrapper(implementation).updateImplementationWithTemplate(implementation, template);
+		return implementation;
+	}
+
+	private static File configFile(TemplateImplementationProject implementation) {
+		return new File(implementation.getRootDir(), "config.xml");
+	}
+
+	private static ImplementTemplateBuildWrapper findWrapper(TemplateImplementationProject implementation) {
+		return (ImplementTemplateBuildWrapper) implementation.getBuildWrappers().values().iterator().next();
+	}
+
+	/**
+	 * An implementation with its own directory, whose wrapper writes the rendered config straight to its config.xml.
+	 */
+	@SuppressWarnings("unchecked")
+	private TemplateImplementationProject implementation(String name) throws IOException {
+		final File directory = new File(root, name);
+		directory.mkdirs();
+		TemplateImplementationProject implementation = mock(TemplateImplementationProject.class);
+		when(implementation.getName()).thenReturn(name);
+		when(implementation.getRootDir()).thenReturn(directory);
+		when(implementation.getParent()).thenReturn(itemGroup);
+		when(implementation.getBuildWrappersList()).thenReturn(mock(DescribableList.class));
+		when(implementation.saveNoUpdate()).thenAnswer(new Answer<String>() {
+			public String answer(InvocationOnMock invocation) throws IOException {
+				return HashUtils.sha1(FileUtils.readFileToByteArray(new File(directory, "config.xml")));
+			}
+		});
+
+		ImplementTemplateBuildWrapper wrapper = new ImplementTemplateBuildWrapper(TEMPLATE_NAME, "NAME=" + name) {
+			@Override
+			protected void reloadDescriptor(TemplateImplementationProject implementation) {
+			}
+
+			@Override
+			protected void unmarshal(TemplateImplementationProject implementation, InputStream rendered) throws IOException {
+				FileUtils.writeByteArrayToFile(new File(directory, "config.xml"), IOUtils.toByteArray(rendered));
+			}
+		};
+		Map<Descriptor<BuildWrapper>, BuildWrapper> buildWrappers = new HashMap<Descriptor<BuildWrapper>, BuildWrapper>();
+		buildWrappers.put(ImplementTemplateBuildWrapper.DESCRIPTOR, wrapper);
+		when(implementation.getBuildWrappers()).thenReturn(buildWrappers);
+
+		items.add(implementation);
+		when(itemGroup.getItem(name)).thenReturn(implementation);
+		return implementation;
+	}
+}
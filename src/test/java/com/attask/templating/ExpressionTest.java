@@ -0,0 +1,86 @@
+package com.attask.templating;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class ExpressionTest {
+	private static final Map<String, String> VALUES = ImmutableMap.of("BRANCH", "Feature/X", "EMPTY", "");
+
+	@Test
+	public void test_parse_reference() throws ExpressionException {
+		Assert.assertEquals("Feature/X", evaluate("BRANCH"));
+		Assert.assertEquals("Feature/X", evaluate(" BRANCH "));
+		Assert.assertNull(evaluate("MISSING"));
+	}
+
+	@Test
+	public void test_parse_fallback() throws ExpressionException {
+		Assert.assertEquals("master", evaluate("MISSING:-master"));
+		Assert.assertEquals("master", evaluate("EMPTY:-master"));
+		Assert.assertEquals("Feature/X", evaluate("BRANCH:-master"));
+		Assert.assertEquals("a b, c", evaluate("MISSING:-a b, c"));
+		Assert.assertEquals("Feature/X", evaluate("MISSING:-$$BRANCH"));
+		Assert.assertEquals("last", evaluate("MISSING:-$$EMPTY:-last"));
+		Assert.assertEquals("feature/x", evaluate("MISSING:-lower(BRANCH)"));
+	}
+
+	@Test
+	public void test_parse_functions() throws ExpressionException {
+		Assert.assertEquals("feature/x", evaluate("lower(BRANCH)"));
+		Assert.assertEquals("FEATURE/X", evaluate("UPPER(BRANCH)"));
+		Assert.assertEquals("Feature-X", evaluate("replace(BRANCH, '/', '-')"));
+		Assert.assertEquals("it's Feature/X", evaluate("concat(\"it's \", BRANCH)"));
+		Assert.assertEquals("x", evaluate("trim(' x ')"));
+		Assert.assertEquals("default", evaluate("lower(MISSING:-DEFAULT)"));
+		Assert.assertEquals("feature/x", evaluate("lower($${MISSING:-$$BRANCH})"));
+		Assert.assertNull(evaluate("lower(MISSING)"));
+	}
+
+	@Test
+	public void test_parse_invalid() {
+		for (String source : Arrays.asList("", "lower(", "lower(A, B)", "replace(A)", "unknown(A)", "'unclosed", "A B", "concat()")) {
+			try {
+				Expression.parse(source);
+				Assert.fail("expected $${" + source + "} to be invalid");
+			} catch (ExpressionException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void test_parseText() throws ExpressionException {
+		Expression text = Expression.parseText("job-$${lower(BRANCH)}-$${MISSING}-$${bad(}");
+		Assert.assertEquals("job-feature/x-$${MISSING}-$${bad(}", text.evaluate(new Expression.Context(VALUES, Collections.<String, Expression>emptyMap())));
+	}
+
+	@Test
+	public void test_collectVariableNames() throws ExpressionException {
+		List<String> names = new ArrayList<String>();
+		Expression.parse("concat(A:-$$B, lower(C), 'D')").collectVariableNames(names);
+		Assert.assertEquals(Arrays.asList("A", "B", "C"), names);
+	}
+
+	@Test
+	public void test_context_cycle() {
+		Map<String, String> values = ImmutableMap.of("A", "$${B}", "B", "x$${C}", "C", "$${A}");
+		Expression.Context context = new Expression.Context(values, TemplateParameters.parseExpressions(values));
+		try {
+			context.get("A");
+			Assert.fail("expected a cycle");
+		} catch (ExpressionException e) {
+			Assert.assertEquals("Variables refer to each other in a cycle: A -> B -> C -> A", e.getMessage());
+		}
+	}
+
+	private static String evaluate(String source) throws ExpressionException {
+		return Expression.parse(source).evaluate(new Expression.Context(VALUES, Collections.<String, Expression>emptyMap()));
+	}
+}
@@ -3,7 +3,10 @@ package com.attask.templating;
 import com.google.common.collect.ImmutableMap;
 import hudson.model.*;
 import hudson.tasks.BuildWrapper;
+import hudson.util.DescribableList;
 import hudson.util.FormValidation;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,7 +14,10 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Map;
 
@@ -28,6 +34,7 @@ public class ImplementTemplateBuildWrapperTest {
 	@Mock private TemplateImplementationProject implementation_2;
 	@Mock private FreeStyleProject someProject;
 	@Mock private ImplementTemplateBuildWrapper buildWrapper;
+	private File root;
 
 	@Before
 	public void setUp() {
@@ -50,10 +57,19 @@ public class ImplementTemplateBuildWrapperTest {
 		when(implementation_1.getBuildWrappers()).thenReturn(buildWrappers);
 		when(implementation_2.getBuildWrappers()).thenReturn(buildWrappers);
 
+		when(implementation_1.getName()).thenReturn("implementation_1");
+		when(implementation_2.getName()).thenReturn("implementation_2");
 		when(template.getName()).thenReturn("Template Name");
 		when(buildWrapper.getTemplateName()).thenReturn("Template Name");
 	}
 
+	@After
+	public void tearDown() throws IOException {
+		if (root != null) {
+			FileUtils.deleteDirectory(root);
+		}
+	}
+
 	@Test
 	public void test_updateImplementationsOfTemplate_callsOnImplementation() throws IOException {
 		ImplementTemplateBuildWrapper.updateImplementationsOfTemplate(hudson, template);
@@ -62,6 +78,119 @@ public class ImplementTemplateBuildWrapperTest {
 		verifyZeroInteractions(someProject);
 	}
 
+	@Test
+	public void test_updateImplementationsOfTemplate_collectsFailures() throws IOException {
+		doThrow(new IOException("disk full")).when(buildWrapper).updateImplementationWithTemplate(implementation_1, template);
+		try {
+			ImplementTemplateBuildWrapper.updateImplementationsOfTemplate(hudson, template);
+			Assert.fail("expected a PropagationException");
+		} catch (PropagationException e) {
+			Assert.assertEquals(1, e.getFailures().size());
+			Assert.assertEquals("disk full", e.getFailures().get("implementation_1").getMessage());
+		}
+		verify(buildWrapper).updateImplementationWithTemplate(implementation_2, template);
+	}
+
+	@Test
+	public void test_propagate_recordsEachWave() throws IOException {
+		TemplatePropagator propagator = new TemplatePropagator(1, new RolloutPlan(1, 1, 0, 0, 0, true));
+		PropagationStatus status = new PropagationStatus("Template Name");
+		propagator.propagate(hudson, template, status);
+
+		verify(buildWrapper).updateImplementationWithTemplate(implementation_1, template);
+		verify(buildWrapper).updateImplementationWithTemplate(implementation_2, template);
+		Assert.assertEquals(2, status.getWaves().size());
+		Assert.assertTrue(status.getWaves().get(0).isCanary());
+		Assert.assertFalse(status.getWaves().get(1).isCanary());
+		Assert.assertEquals(1, status.getWaves().get(1).getImplementations());
+	}
+
+	@Test
+	public void test_propagate_haltsWhenTheCanaryFails() throws IOException {
+		doThrow(new IOException("disk full")).when(buildWrapper).updateImplementationWithTemplate(any(TemplateImplementationProject.class), eq(template));
+		TemplatePropagator propagator = new TemplatePropagator(1, new RolloutPlan(1, 10, 0, 0, 0, true));
+		PropagationStatus status = new PropagationStatus("Template Name");
+		try {
+			propagator.propagate(hudson, template, status);
+			Assert.fail("expected a PropagationException");
+		} catch (PropagationException e) {
+			Assert.assertEquals(1, e.getFailures().size());
+		}
+		verify(buildWrapper, times(1)).updateImplementationWithTemplate(any(TemplateImplementationProject.class), eq(template));
+		Assert.assertEquals(1, status.getWaves().size());
+		Assert.assertEquals(1, status.getWaves().get(0).getFailed());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test_updateImplementationWithTemplate_unchanged_skipsSave() throws IOException {
+		useTemplateConfig("<project><description>$$NAME</description></project>");
+		ImplementTemplateBuildWrapper wrapper = syncOnlyWrapper("NAME=one");
+
+		Assert.assertTrue(wrapper.updateImplementationWithTemplate(implementation_1, template, false));
+		String hash = wrapper.getRenderedHash();
+		Assert.assertFalse(wrapper.updateImplementationWithTemplate(implementation_1, template, false));
+
+		verify(implementation_1, times(1)).saveNoUpdate();
+		Assert.assertEquals(hash, wrapper.getRenderedHash());
+	}
+
+	@Test
+	public void test_updateImplementationWithTemplate_keepsHashOfSavedConfig() throws IOException {
+		useTemplateConfig("<project><description>$$NAME</description></project>");
+		ImplementTemplateBuildWrapper wrapper = syncOnlyWrapper("NAME=one");
+		when(implementation_1.saveNoUpdate()).thenReturn("saved");
+
+		wrapper.updateImplementationWithTemplate(implementation_1, template, false);
+
+		Assert.assertEquals("saved", wrapper.getConfigHash());
+		Assert.assertEquals(0, implementation_1.getRootDir().list().length);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test_updateImplementationWithTemplate_saveFails_keepsPreviousHash() throws IOException {
+		useTemplateConfig("<project><description>$$NAME</description></project>");
+		ImplementTemplateBuildWrapper wrapper = syncOnlyWrapper("NAME=one");
+		doThrow(new IOException("disk full")).when(implementation_1).saveNoUpdate();
+
+		try {
+			wrapper.updateImplementationWithTemplate(implementation_1, template, false);
+			Assert.fail("expected the save to fail");
+		} catch (IOException e) {
+			Assert.assertEquals("disk full", e.getMessage());
+		}
+		Assert.assertNull(wrapper.getRenderedHash());
+
+		try {
+			wrapper.updateImplementationWithTemplate(implementation_1, template, false);
+			Assert.fail("expected the sync to be retried rather than skipped");
+		} catch (IOException e) {
+			Assert.assertEquals("disk full", e.getMessage());
+		}
+		verify(implementation_1, times(2)).saveNoUpdate();
+	}
+
+	@Test
+	public void test_render_nameNotCompilable_stillEvaluatesExpressions() throws IOException {
+		useTemplateConfig("<project><description>$$bad.name $${lower(BRANCH)} $$BRANCH</description></project>");
+		ImplementTemplateBuildWrapper wrapper = syncOnlyWrapper("bad.name=x\nBRANCH=Feature");
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		wrapper.render(template, outputStream);
+		Assert.assertEquals("<project><description>x feature Feature</description></project>", new String(outputStream.toByteArray(), CompiledTemplate.CHARSET));
+	}
+
+	@Test
+	public void test_render_leavesOutWorkspaceSeeding() throws IOException {
+		String property = WorkspaceSeedingProperty.class.getName();
+		useTemplateConfig("<project><properties><" + property + "><mode>HARDLINK</mode></" + property + "></properties><description>$$NAME</description></project>");
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		syncOnlyWrapper("NAME=one").render(template, outputStream);
+		Assert.assertEquals("<project><properties></properties><description>one</description></project>", new String(outputStream.toByteArray(), CompiledTemplate.CHARSET));
+	}
+
 	@Test
 	public void test_descriptorTemplateNameValidation_withTemplate() {
 		ImplementTemplateBuildWrapper.DescriptorImpl descriptor = new ImplementTemplateBuildWrapper.DescriptorImpl(hudson);
@@ -107,4 +236,33 @@ public class ImplementTemplateBuildWrapperTest {
 		Assert.assertEquals(FormValidation.error("").getClass(), someProjectValidation.getClass());
 		Assert.assertEquals("Template is a required field.", someProjectValidation.getMessage());
 	}
+
+	/**
+	 * Publishes the given template config and gives implementation_1 its own directory.
+	 */
+	@SuppressWarnings("unchecked")
+	private void useTemplateConfig(String config) throws IOException {
+		root = File.createTempFile("wrapper", "");
+		root.delete();
+		File implementationDirectory = new File(root, "implementation_1");
+		implementationDirectory.mkdirs();
+		when(implementation_1.getRootDir()).thenReturn(implementationDirectory);
+		when(implementation_1.getBuildWrappersList()).thenReturn(mock(DescribableList.class));
+		TemplateSnapshots.getInstance().publish(template, config.getBytes(CompiledTemplate.CHARSET));
+	}
+
+	/**
+	 * A wrapper that doesn't need Jenkins to apply a rendered config.
+	 */
+	private static ImplementTemplateBuildWrapper syncOnlyWrapper(String parameters) {
+		return new ImplementTemplateBuildWrapper("Template Name", parameters) {
+			@Override
+			protected void reloadDescriptor(TemplateImplementationProject implementation) {
+			}
+
+			@Override
+			protected void unmarshal(TemplateImplementationProject implementation, InputStream rendered) {
+			}
+		};
+	}
 }
@@ -0,0 +1,66 @@
+package com.attask.templating;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import hudson.model.*;
+import hudson.tasks.BuildWrapper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+
+import static org.mockito.Mockito.when;
+
+public class ImplementationIndexTest {
+	@Mock private ItemGroup<TopLevelItem> hudson;
+	@Mock private TemplateImplementationProject implementation_1;
+	@Mock private TemplateImplementationProject implementation_2;
+	@Mock private FreeStyleProject someProject;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(hudson.getItems()).thenReturn(Arrays.<TopLevelItem>asList(implementation_1, implementation_2, someProject));
+		when(implementation_1.getName()).thenReturn("implementation_1");
+		when(implementation_2.getName()).thenReturn("implementation_2");
+		when(implementation_1.getBuildWrappers()).thenReturn(wrapperFor("template_a"));
+		when(implementation_2.getBuildWrappers()).thenReturn(wrapperFor("template_b"));
+	}
+
+	@Test
+	public void test_build_indexesImplementations() {
+		ImplementationIndex index = ImplementationIndex.rebuild(hudson);
+		Assert.assertEquals(ImmutableSet.of("implementation_1"), index.getImplementationNames("template_a"));
+		Assert.assertEquals(ImmutableSet.of("implementation_2"), index.getImplementationNames("template_b"));
+		Assert.assertTrue(index.getImplementationNames("someProject").isEmpty());
+	}
+
+	@Test
+	public void test_update_movesToNewTemplate() {
+		ImplementationIndex index = ImplementationIndex.rebuild(hudson);
+		when(implementation_2.getBuildWrappers()).thenReturn(wrapperFor("template_a"));
+		index.update(implementation_2);
+		Assert.assertEquals(ImmutableSet.of("implementation_1", "implementation_2"), index.getImplementationNames("template_a"));
+		Assert.assertTrue(index.getImplementationNames("template_b").isEmpty());
+	}
+
+	@Test
+	public void test_renameAndRemove() {
+		ImplementationIndex index = ImplementationIndex.rebuild(hudson);
+		index.rename("implementation_1", "renamed");
+		Assert.assertEquals(ImmutableSet.of("renamed"), index.getImplementationNames("template_a"));
+		Assert.assertEquals("template_a", index.getTemplateName("renamed"));
+
+		index.remove("renamed");
+		Assert.assertTrue(index.getImplementationNames("template_a").isEmpty());
+		Assert.assertNull(index.getTemplateName("renamed"));
+	}
+
+	private static ImmutableMap<Descriptor<BuildWrapper>, BuildWrapper> wrapperFor(String templateName) {
+		return ImmutableMap.<Descriptor<BuildWrapper>, BuildWrapper>of(ImplementTemplateBuildWrapper.DESCRIPTOR, new ImplementTemplateBuildWrapper(templateName, ""));
+	}
+}
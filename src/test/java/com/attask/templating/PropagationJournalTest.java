@@ -0,0 +1,83 @@
+package com.attask.templating;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class PropagationJournalTest {
+	private File rootDir;
+
+	@Before
+	public void setUp() throws IOException {
+		rootDir = File.createTempFile("propagation-journal", "");
+		rootDir.delete();
+		rootDir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(rootDir);
+	}
+
+	@Test
+	public void test_open_resumesSameVersion() throws IOException {
+		PropagationJournal journal = PropagationJournal.open(rootDir, "template", "v1");
+		journal.completed("implementation_1");
+		journal.close(false);
+
+		Assert.assertEquals(ImmutableList.of("template"), PropagationJournal.findUnfinished(rootDir));
+		journal = PropagationJournal.open(rootDir, "template", "v1");
+		Assert.assertTrue(journal.isCompleted("implementation_1"));
+		Assert.assertFalse(journal.isCompleted("implementation_2"));
+		journal.completed("implementation_2");
+		journal.close(false);
+
+		journal = PropagationJournal.open(rootDir, "template", "v1");
+		Assert.assertEquals(2, journal.getCompletedCount());
+		journal.close(false);
+	}
+
+	@Test
+	public void test_open_newVersionStartsOver() throws IOException {
+		PropagationJournal journal = PropagationJournal.open(rootDir, "template", "v1");
+		journal.completed("implementation_1");
+		journal.close(false);
+
+		journal = PropagationJournal.open(rootDir, "template", "v2");
+		Assert.assertEquals(0, journal.getCompletedCount());
+		journal.close(false);
+	}
+
+	@Test
+	public void test_open_ignoresCutOffLine() throws IOException {
+		PropagationJournal journal = PropagationJournal.open(rootDir, "template", "v1");
+		journal.completed("implementation_1");
+		journal.close(false);
+
+		FileOutputStream outputStream = new FileOutputStream(new File(new File(rootDir, PropagationJournal.DIRECTORY), "template.journal"), true);
+		outputStream.write("DONE implementation_1".getBytes("UTF-8"));
+		outputStream.close();
+
+		journal = PropagationJournal.open(rootDir, "template", "v1");
+		Assert.assertTrue(journal.isCompleted("implementation_1"));
+		Assert.assertFalse(journal.isCompleted("implementation_1DONE implementation_1"));
+		Assert.assertEquals(1, journal.getCompletedCount());
+		journal.close(false);
+	}
+
+	@Test
+	public void test_close_deletesWhenSucceeded() throws IOException {
+		PropagationJournal journal = PropagationJournal.open(rootDir, "template", "v1");
+		journal.completed("implementation_1");
+		journal.close(true);
+
+		Assert.assertTrue(PropagationJournal.findUnfinished(rootDir).isEmpty());
+	}
+}
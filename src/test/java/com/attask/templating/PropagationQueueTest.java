@@ -0,0 +1,175 @@
+package com.attask.templating;
+
+import hudson.model.ItemGroup;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.when;
+
+public class PropagationQueueTest {
+	private static final long DELAY = 50;
+	private static final long TIMEOUT = 5000;
+
+	@Mock private ItemGroup hudson;
+	@Mock private TemplateProject template_a;
+	@Mock private TemplateProject template_b;
+	private StubPropagator propagator;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+		when(template_a.getName()).thenReturn("template_a");
+		when(template_b.getName()).thenReturn("template_b");
+		propagator = new StubPropagator();
+	}
+
+	@Test
+	public void test_schedule_debouncesSaves() throws Exception {
+		PropagationQueue queue = new PropagationQueue(propagator, DELAY, 1);
+		queue.schedule(hudson, template_a);
+		queue.schedule(hudson, template_a);
+		PropagationStatus status = queue.schedule(hudson, template_a);
+		Assert.assertEquals(PropagationStatus.State.QUEUED, status.getState());
+
+		awaitState(status, PropagationStatus.State.DONE);
+		Thread.sleep(DELAY * 2);
+		Assert.assertEquals(1, propagator.calls("template_a"));
+		Assert.assertEquals(2, status.getCoalesced());
+		Assert.assertEquals(3, status.getSynced());
+	}
+
+	@Test
+	public void test_schedule_whileRunning_runsOnceMore() throws Exception {
+		PropagationQueue queue = new PropagationQueue(propagator, DELAY, 1);
+		propagator.block("template_a");
+		PropagationStatus status = queue.schedule(hudson, template_a);
+		Assert.assertTrue(propagator.awaitStarted(TIMEOUT));
+
+		queue.schedule(hudson, template_a);
+		queue.schedule(hudson, template_a);
+		propagator.release();
+
+		awaitCalls("template_a", 2);
+		awaitState(status, PropagationStatus.State.DONE);
+		Thread.sleep(DELAY * 2);
+		Assert.assertEquals(2, propagator.calls("template_a"));
+		Assert.assertEquals(1, status.getCoalesced());
+	}
+
+	@Test
+	public void test_schedule_otherTemplateNotBlocked() throws Exception {
+		PropagationQueue queue = new PropagationQueue(propagator, DELAY, 2);
+		propagator.block("template_a");
+		PropagationStatus statusA = queue.schedule(hudson, template_a);
+		Assert.assertTrue(propagator.awaitStarted(TIMEOUT));
+
+		PropagationStatus statusB = queue.schedule(hudson, template_b);
+		awaitState(statusB, PropagationStatus.State.DONE);
+		Assert.assertEquals(PropagationStatus.State.RUNNING, statusA.getState());
+
+		propagator.release();
+		awaitState(statusA, PropagationStatus.State.DONE);
+	}
+
+	@Test
+	public void test_schedule_failure_reportsFailed() throws Exception {
+		PropagationQueue queue = new PropagationQueue(propagator, DELAY, 1);
+		propagator.failing = "template_a";
+		PropagationStatus status = queue.schedule(hudson, template_a);
+
+		awaitState(status, PropagationStatus.State.FAILED);
+		Assert.assertEquals(2, status.getSynced());
+		Assert.assertEquals(1, status.getFailed());
+		Assert.assertTrue(status.getFailures().containsKey("implementation_3"));
+	}
+
+	@Test
+	public void test_remove_cancelsQueuedPropagation() throws Exception {
+		PropagationQueue queue = new PropagationQueue(propagator, DELAY, 1);
+		queue.schedule(hudson, template_a);
+		queue.remove("template_a");
+
+		Thread.sleep(DELAY * 4);
+		Assert.assertEquals(0, propagator.calls("template_a"));
+		Assert.assertNull(queue.getStatus("template_a"));
+	}
+
+	private void awaitState(PropagationStatus status, PropagationStatus.State state) throws InterruptedException {
+		long giveUpAt = System.currentTimeMillis() + TIMEOUT;
+		while (status.getState() != state && System.currentTimeMillis() < giveUpAt) {
+			Thread.sleep(5);
+		}
+		Assert.assertEquals(state, status.getState());
+	}
+
+	private void awaitCalls(String templateName, int calls) throws InterruptedException {
+		long giveUpAt = System.currentTimeMillis() + TIMEOUT;
+		while (propagator.calls(templateName) < calls && System.currentTimeMillis() < giveUpAt) {
+			Thread.sleep(5);
+		}
+		Assert.assertEquals(calls, propagator.calls(templateName));
+	}
+
+	/**
+	 * Pretends to sync three implementations. Can be made to hang on one template until released, or to fail the third implementation.
+	 */
+	private static class StubPropagator extends TemplatePropagator {
+		private final ConcurrentHashMap<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch gate = new CountDownLatch(1);
+		private volatile String blocked;
+		private volatile String failing;
+
+		private StubPropagator() {
+			super(1);
+		}
+
+		@Override
+		public void propagate(ItemGroup hudson, TemplateProject template, PropagationStatus status) throws IOException {
+			calls.putIfAbsent(template.getName(), new AtomicInteger());
+			calls.get(template.getName()).incrementAndGet();
+			status.started(3);
+			started.countDown();
+			try {
+				if (template.getName().equals(blocked)) {
+					gate.await();
+				}
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted");
+			}
+			status.implementationSynced();
+			status.implementationSynced();
+			if (template.getName().equals(failing)) {
+				status.implementationFailed("implementation_3", new IOException("Broken"));
+			} else {
+				status.implementationSynced();
+			}
+		}
+
+		private int calls(String templateName) {
+			AtomicInteger count = calls.get(templateName);
+			return count == null ? 0 : count.get();
+		}
+
+		private void block(String templateName) {
+			blocked = templateName;
+		}
+
+		private void release() {
+			gate.countDown();
+		}
+
+		private boolean awaitStarted(long timeout) throws InterruptedException {
+			return started.await(timeout, TimeUnit.MILLISECONDS);
+		}
+	}
+}
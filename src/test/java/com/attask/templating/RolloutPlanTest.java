@@ -0,0 +1,45 @@
+package com.attask.templating;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class RolloutPlanTest {
+	private static final List<String> IMPLEMENTATIONS = Arrays.asList("a", "b", "c", "d", "e", "f", "g");
+
+	@Test
+	public void test_split_unlimited() {
+		Assert.assertEquals(Collections.singletonList(IMPLEMENTATIONS), RolloutPlan.UNLIMITED.split(IMPLEMENTATIONS));
+	}
+
+	@Test
+	public void test_split_canaryThenWaves() {
+		List<List<String>> waves = new RolloutPlan(2, 3, 0, 0, 0, true).split(IMPLEMENTATIONS);
+		Assert.assertEquals(Arrays.asList(
+				Arrays.asList("a", "b"),
+				Arrays.asList("c", "d", "e"),
+				Arrays.asList("f", "g")), waves);
+	}
+
+	@Test
+	public void test_split_canaryThenEverythingElse() {
+		List<List<String>> waves = new RolloutPlan(1, 0, 0, 0, 0, true).split(IMPLEMENTATIONS);
+		Assert.assertEquals(Arrays.asList(
+				Arrays.asList("a"),
+				Arrays.asList("b", "c", "d", "e", "f", "g")), waves);
+	}
+
+	@Test
+	public void test_split_canaryLargerThanEverything() {
+		List<List<String>> waves = new RolloutPlan(10, 3, 0, 0, 0, true).split(IMPLEMENTATIONS);
+		Assert.assertEquals(Collections.singletonList(IMPLEMENTATIONS), waves);
+	}
+
+	@Test
+	public void test_split_nothing() {
+		Assert.assertTrue(new RolloutPlan(2, 3, 0, 0, 0, true).split(Collections.<String>emptyList()).isEmpty());
+	}
+}
@@ -0,0 +1,482 @@
+package com.attask.templating;
+
+import com.attask.scaffolding.ScaffoldingBuilder;
+import com.google.common.collect.ImmutableMap;
+import hudson.model.Descriptor;
+import hudson.model.ItemGroup;
+import hudson.model.TopLevelItem;
+import hudson.tasks.BuildWrapper;
+import hudson.util.DescribableList;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Load tests against a fake controller holding thousands of implementations of one template,
+ * each with a real config.xml in a temp directory. Only reading the rendered config into the job is faked,
+ * everything else (snapshots, rendering, propagation, journals, sync records) is the real thing.
+ * <p>
+ * Each scenario has a wall clock and an allocation budget per implementation, and the results of every run are
+ * written to target/scalability-report.json. The number of implementations, the report file and each budget
+ * can be changed with com.attask.templating.ScalabilityTest.* system properties, e.g.
+ * -Dcom.attask.templating.ScalabilityTest.templateSave.microsPerImplementation=2000.
+ * Timings depend too much on the machine for every build, so the budgets and the scaling ratio are only enforced
+ * when com.attask.templating.ScalabilityTest.enforceBudgets is true. Otherwise they're only reported.
+ * The scalability profile enforces them, with 10,000 implementations.
+ */
+public class ScalabilityTest {
+	private static final String PREFIX = ScalabilityTest.class.getName() + ".";
+	private static final int IMPLEMENTATIONS = Integer.getInteger(PREFIX + "implementations", 1000);
+	private static final int THREADS = Integer.getInteger(PREFIX + "threads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+	private static final boolean ENFORCE_BUDGETS = Boolean.getBoolean(PREFIX + "enforceBudgets");
+	private static final File REPORT = new File(System.getProperty(PREFIX + "report", "target/scalability-report.json"));
+	private static final JSONObject SCENARIOS = new JSONObject();
+	private static final AtomicInteger TEMPLATES = new AtomicInteger();
+	private static final int VARIABLES = 20;
+
+	private final List<FakeController> controllers = new ArrayList<FakeController>();
+	private TemplatePropagator propagator;
+
+	@Before
+	public void setUp() {
+		propagator = new TemplatePropagator(THREADS);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (FakeController controller : controllers) {
+			FileUtils.deleteDirectory(controller.root);
+		}
+	}
+
+	@Test
+	public void test_templateSave_syncsEveryImplementationWithinBudget() throws Exception {
+		final FakeController controller = controller(IMPLEMENTATIONS);
+		propagator.propagate(controller.itemGroup, controller.template);
+		controller.writes.set(0);
+
+		controller.saveTemplate(1);
+		Measurement measurement = measure(new Work() {
+			public void run() throws IOException {
+				propagator.propagate(controller.itemGroup, controller.template);
+			}
+		});
+
+		report("templateSave", IMPLEMENTATIONS, measurement, 5000, 512 * 1024);
+		Assert.assertEquals(IMPLEMENTATIONS, controller.writes.get());
+		for (String name : controller.implementations) {
+			Assert.assertTrue(name, controller.readConfig(name).contains("Revision 1 of branch-"));
+		}
+	}
+
+	@Test
+	public void test_templateSave_unchangedSkipsWithinBudget() throws Exception {
+		final FakeController controller = controller(IMPLEMENTATIONS);
+		propagator.propagate(controller.itemGroup, controller.template);
+		controller.writes.set(0);
+
+		controller.saveTemplate(0);
+		Measurement measurement = measure(new Work() {
+			public void run() throws IOException {
+				propagator.propagate(controller.itemGroup, controller.template);
+			}
+		});
+
+		report("templateSaveUnchanged", IMPLEMENTATIONS, measurement, 2000, 256 * 1024);
+		Assert.assertEquals(0, controller.writes.get());
+	}
+
+	@Test
+	public void test_implementationSave_syncsWithinBudget() throws Exception {
+		final FakeController controller = controller(IMPLEMENTATIONS);
+		propagator.propagate(controller.itemGroup, controller.template);
+		controller.writes.set(0);
+
+		// Jobs are saved one at a time, on the thread handling the request
+		Measurement measurement = measure(new Work() {
+			public void run() throws IOException {
+				for (String name : controller.implementations) {
+					TemplateImplementationProject implementation = (TemplateImplementationProject) controller.items.get(name);
+					ImplementTemplateBuildWrapper.findImplementer(implementation, controller.template).updateImplementationWithTemplate(implementation, controller.template, true);
+				}
+			}
+		});
+
+		report("implementationSave", IMPLEMENTATIONS, measurement, 5000, 512 * 1024);
+		Assert.assertEquals(IMPLEMENTATIONS, controller.writes.get());
+	}
+
+	@Test
+	public void test_scaffolding_standsUpWithinBudget() throws Exception {
+		final FakeController controller = controller(0);
+		final List<ScaffoldingBuilder.Implementation> implementations = new ArrayList<ScaffoldingBuilder.Implementation>(IMPLEMENTATIONS);
+		for (int i = 0; i < IMPLEMENTATIONS; i++) {
+			implementations.add(new ScaffoldingBuilder.Implementation("scaffolded-" + i, controller.templateName, parameters(i) + "OWNER=platform\n"));
+		}
+		final Map<String, Throwable> failures = new HashMap<String, Throwable>();
+
+		Measurement measurement = measure(new Work() {
+			public void run() throws IOException {
+				failures.putAll(controller.scaffoldingBuilder(propagator).standUp(implementations, null));
+			}
+		});
+
+		report("scaffolding", IMPLEMENTATIONS, measurement, 10000, 1024 * 1024);
+		Assert.assertEquals(Collections.<String, Throwable>emptyMap(), failures);
+		Assert.assertEquals(IMPLEMENTATIONS, controller.writes.get());
+		Assert.assertEquals(IMPLEMENTATIONS, ImplementationIndex.forItemGroup(controller.itemGroup).getImplementationNames(controller.templateName).size());
+		ImplementTemplateBuildWrapper wrapper = ImplementTemplateBuildWrapper.findImplementer((TemplateImplementationProject) controller.items.get("scaffolded-0"), controller.template);
+		Assert.assertFalse("parameters equal to the defaults aren't stored", wrapper.getParameters().contains("OWNER"));
+	}
+
+	/**
+	 * Syncing ten times as many implementations shouldn't take much more than ten times as long.
+	 */
+	@Test
+	public void test_templateSave_scalesLinearly() throws Exception {
+		int small = Math.max(1, IMPLEMENTATIONS / 10);
+		templateSave(controller(small));
+		FakeController smallController = controller(small);
+		Measurement smallMeasurement = templateSave(smallController);
+		FakeController largeController = controller(IMPLEMENTATIONS);
+		Measurement largeMeasurement = templateSave(largeController);
+
+		Assert.assertEquals(small * 2, smallController.writes.get());
+		Assert.assertEquals(IMPLEMENTATIONS * 2, largeController.writes.get());
+		for (String name : largeController.implementations) {
+			Assert.assertTrue(name, largeController.readConfig(name).contains("Revision 1 of branch-"));
+		}
+
+		double smallPerImplementation = (double) smallMeasurement.nanos / small;
+		double largePerImplementation = (double) largeMeasurement.nanos / IMPLEMENTATIONS;
+		double ratio = largePerImplementation / smallPerImplementation;
+		double maxRatio = Double.parseDouble(System.getProperty(PREFIX + "maxScalingRatio", "3"));
+
+		JSONObject scaling = new JSONObject();
+		scaling.put("smallImplementations", small);
+		scaling.put("smallMicrosPerImplementation", (long) smallPerImplementation / 1000);
+		scaling.put("largeImplementations", IMPLEMENTATIONS);
+		scaling.put("largeMicrosPerImplementation", (long) largePerImplementation / 1000);
+		scaling.put("ratio", ratio);
+		scaling.put("maxRatio", maxRatio);
+		scaling.put("passed", ratio <= maxRatio);
+		SCENARIOS.put("scaling", scaling);
+		writeReport();
+
+		if (ENFORCE_BUDGETS) {
+			Assert.assertTrue("syncing " + IMPLEMENTATIONS + " implementations took " + ratio + " times longer per implementation than syncing " + small, ratio <= maxRatio);
+		}
+	}
+
+	private Measurement templateSave(final FakeController controller) throws Exception {
+		propagator.propagate(controller.itemGroup, controller.template);
+		controller.saveTemplate(1);
+		return measure(new Work() {
+			public void run() throws IOException {
+				propagator.propagate(controller.itemGroup, controller.template);
+			}
+		});
+	}
+
+	private FakeController controller(int implementations) throws IOException {
+		FakeController controller = new FakeController(implementations);
+		controllers.add(controller);
+		return controller;
+	}
+
+	private static String parameters(int i) {
+		return "BRANCH=branch-" + i + "\nPORT=" + (8000 + i % 1000) + "\n";
+	}
+
+	/**
+	 * The template's config: a handful of builders using every variable, plus a $${...} expression.
+	 */
+	private static String templateConfig(int revision) {
+		StringBuilder config = new StringBuilder();
+		config.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+		config.append("<").append(TemplateProject.class.getName()).append(">\n");
+		config.append("  <actions/>\n");
+		config.append("  <description>Revision ").append(revision).append(" of $$BRANCH for $$OWNER</description>\n");
+		config.append("  <keepDependencies>false</keepDependencies>\n");
+		config.append("  <properties>\n");
+		config.append("    <").append(TemplateDefaultsProperty.class.getName()).append(">\n");
+		config.append("      <parameters>").append(defaults()).append("</parameters>\n");
+		config.append("    </").append(TemplateDefaultsProperty.class.getName()).append(">\n");
+		config.append("  </properties>\n");
+		config.append("  <scm class=\"hudson.scm.NullSCM\"/>\n");
+		config.append("  <canRoam>true</canRoam>\n");
+		config.append("  <disabled>false</disabled>\n");
+		config.append("  <triggers class=\"vector\"/>\n");
+		config.append("  <concurrentBuild>false</concurrentBuild>\n");
+		config.append("  <builders>\n");
+		for (int i = 0; i < VARIABLES; i++) {
+			config.append("    <hudson.tasks.Shell>\n");
+			config.append("      <command>./deploy.sh --name $${lower(BRANCH)} --port $$PORT --setting $$VAR_").append(i).append("</command>\n");
+			config.append("    </hudson.tasks.Shell>\n");
+		}
+		config.append("  </builders>\n");
+		config.append("  <publishers/>\n");
+		config.append("  <buildWrappers/>\n");
+		config.append("</").append(TemplateProject.class.getName()).append(">\n");
+		return config.toString();
+	}
+
+	private static String defaults() {
+		StringBuilder defaults = new StringBuilder("OWNER=platform\n");
+		for (int i = 0; i < VARIABLES; i++) {
+			defaults.append("VAR_").append(i).append("=value-").append(i).append("\n");
+		}
+		return defaults.toString();
+	}
+
+	/**
+	 * An ItemGroup holding one template and its implementations, each job in its own directory under a temp directory.
+	 */
+	private static class FakeController {
+		private final File root;
+		private final String templateName = "scalability-" + TEMPLATES.incrementAndGet();
+		private final ItemGroup<TopLevelItem> itemGroup;
+		private final TemplateProject template;
+		private final Map<String, TopLevelItem> items = new ConcurrentHashMap<String, TopLevelItem>();
+		private final List<String> implementations = new ArrayList<String>();
+		private final AtomicInteger writes = new AtomicInteger();
+
+		@SuppressWarnings("unchecked")
+		private FakeController(int implementationCount) throws IOException {
+			root = File.createTempFile("scalability", "");
+			root.delete();
+			root.mkdirs();
+
+			itemGroup = mock(ItemGroup.class);
+			when(itemGroup.getRootDir()).thenReturn(root);
+			when(itemGroup.getItems()).thenAnswer(new Answer<Collection<TopLevelItem>>() {
+				public Collection<TopLevelItem> answer(InvocationOnMock invocation) {
+					return new ArrayList<TopLevelItem>(items.values());
+				}
+			});
+			when(itemGroup.getItem(anyString())).thenAnswer(new Answer<TopLevelItem>() {
+				public TopLevelItem answer(InvocationOnMock invocation) {
+					return items.get((String) invocation.getArguments()[0]);
+				}
+			});
+
+			template = mock(TemplateProject.class);
+			when(template.getName()).thenReturn(templateName);
+			when(template.getProperty(TemplateDefaultsProperty.class)).thenReturn(new TemplateDefaultsProperty(defaults()));
+			items.put(templateName, template);
+			saveTemplate(0);
+
+			for (int i = 0; i < implementationCount; i++) {
+				String name = "implementation-" + i;
+				addImplementation(name, new FakeWrapper(templateName, parameters(i), writes));
+				implementations.add(name);
+			}
+			ImplementationIndex.rebuild(itemGroup);
+		}
+
+		/**
+		 * Publishes the template's config, the same as saving the template does.
+		 */
+		private void saveTemplate(int revision) throws IOException {
+			TemplateSnapshots.getInstance().publish(template, templateConfig(revision).getBytes(CompiledTemplate.CHARSET));
+		}
+
+		@SuppressWarnings("unchecked")
+		private TemplateImplementationProject addImplementation(String name, ImplementTemplateBuildWrapper wrapper) {
+			TemplateImplementationProject implementation = mock(TemplateImplementationProject.class);
+			when(implementation.getName()).thenReturn(name);
+			when(implementation.getRootDir()).thenReturn(jobDirectory(name));
+			when(implementation.getBuildWrappersList()).thenReturn(mock(DescribableList.class));
+			if (wrapper != null) {
+				setWrapper(implementation, wrapper);
+			}
+			items.put(name, implementation);
+			return implementation;
+		}
+
+		private void setWrapper(TemplateImplementationProject implementation, ImplementTemplateBuildWrapper wrapper) {
+			Map<Descriptor<BuildWrapper>, BuildWrapper> buildWrappers = ImmutableMap.<Descriptor<BuildWrapper>, BuildWrapper>of(ImplementTemplateBuildWrapper.DESCRIPTOR, wrapper);
+			when(implementation.getBuildWrappers()).thenReturn(buildWrappers);
+		}
+
+		private File jobDirectory(String name) {
+			File directory = new File(new File(root, "jobs"), name);
+			directory.mkdirs();
+			return directory;
+		}
+
+		private String readConfig(String name) throws IOException {
+			return FileUtils.readFileToString(new File(jobDirectory(name), "config.xml"), CompiledTemplate.CHARSET.name());
+		}
+
+		/**
+		 * Creates the jobs in this controller rather than in Jenkins.
+		 */
+		private ScaffoldingBuilder scaffoldingBuilder(TemplatePropagator propagator) {
+			return new ScaffoldingBuilder(itemGroup, propagator) {
+				private TemplateImplementationProject created;
+
+				@Override
+				protected TemplateImplementationProject createProject(String name) {
+					created = addImplementation(name, null);
+					return created;
+				}
+
+				@Override
+				protected ImplementTemplateBuildWrapper createWrapper(String templateName, String parameters) {
+					FakeWrapper wrapper = new FakeWrapper(templateName, parameters, writes);
+					setWrapper(created, wrapper);
+					return wrapper;
+				}
+
+				@Override
+				protected void reloadDescriptor() {
+				}
+			};
+		}
+	}
+
+	/**
+	 * Writes the rendered config straight to the job's config.xml, the way saving the job would,
+	 * rather than reading it into the job with XStream, which needs a running Jenkins.
+	 */
+	private static class FakeWrapper extends ImplementTemplateBuildWrapper {
+		private final AtomicInteger writes;
+
+		private FakeWrapper(String templateName, String parameters, AtomicInteger writes) {
+			super(templateName, parameters);
+			this.writes = writes;
+		}
+
+		@Override
+		protected void reloadDescriptor(TemplateImplementationProject implementation) {
+		}
+
+		@Override
+		protected void unmarshal(TemplateImplementationProject implementation, InputStream rendered) throws IOException {
+			File config = new File(implementation.getRootDir(), "config.xml");
+			File temp = new File(implementation.getRootDir(), "config.xml.tmp");
+			OutputStream outputStream = new FileOutputStream(temp);
+			try {
+				IOUtils.copy(rendered, outputStream);
+			} finally {
+				outputStream.close();
+			}
+			if (!temp.renameTo(config)) {
+				throw new IOException("Unable to replace " + config);
+			}
+			writes.incrementAndGet();
+		}
+	}
+
+	private interface Work {
+		void run() throws IOException;
+	}
+
+	private static class Measurement {
+		private final long nanos;
+		private final long allocatedBytes;
+
+		private Measurement(long nanos, long allocatedBytes) {
+			this.nanos = nanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+	}
+
+	private static Measurement measure(Work work) throws IOException {
+		Map<Long, Long> allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		work.run();
+		long nanos = System.nanoTime() - start;
+		Map<Long, Long> allocatedAfter = allocatedBytes();
+		if (allocatedBefore == null || allocatedAfter == null) {
+			return new Measurement(nanos, -1);
+		}
+		long allocated = 0;
+		for (Map.Entry<Long, Long> thread : allocatedAfter.entrySet()) {
+			Long before = allocatedBefore.get(thread.getKey());
+			allocated += thread.getValue() - (before == null ? 0 : before);
+		}
+		return new Measurement(nanos, allocated);
+	}
+
+	/**
+	 * @return The bytes allocated so far by each live thread, or null if the JVM can't tell.
+	 * Propagation runs on worker threads, so counting only this thread would miss most of it.
+	 */
+	private static Map<Long, Long> allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return null;
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) {
+			return null;
+		}
+		long[] ids = threads.getAllThreadIds();
+		long[] allocated = allocations.getThreadAllocatedBytes(ids);
+		Map<Long, Long> result = new HashMap<Long, Long>();
+		for (int i = 0; i < ids.length; i++) {
+			if (allocated[i] >= 0) {
+				result.put(ids[i], allocated[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Records the scenario in the report, writes the report and then, if the budgets are enforced,
+	 * fails if the scenario was over either budget.
+	 */
+	private static void report(String scenario, int implementations, Measurement measurement, long defaultMicrosPerImplementation, long defaultBytesPerImplementation) throws IOException {
+		long microsBudget = Long.getLong(PREFIX + scenario + ".microsPerImplementation", defaultMicrosPerImplementation);
+		long bytesBudget = Long.getLong(PREFIX + scenario + ".bytesPerImplementation", defaultBytesPerImplementation);
+		long micros = measurement.nanos / 1000 / Math.max(1, implementations);
+		long bytes = measurement.allocatedBytes < 0 ? -1 : measurement.allocatedBytes / Math.max(1, implementations);
+		boolean withinTime = micros <= microsBudget;
+		boolean withinAllocation = bytes <= bytesBudget;
+
+		JSONObject result = new JSONObject();
+		result.put("implementations", implementations);
+		result.put("threads", THREADS);
+		result.put("millis", measurement.nanos / 1000000);
+		result.put("microsPerImplementation", micros);
+		result.put("budgetMicrosPerImplementation", microsBudget);
+		result.put("allocatedBytes", measurement.allocatedBytes);
+		result.put("bytesPerImplementation", bytes);
+		result.put("budgetBytesPerImplementation", bytesBudget);
+		result.put("passed", withinTime && withinAllocation);
+		SCENARIOS.put(scenario, result);
+		writeReport();
+
+		if (ENFORCE_BUDGETS) {
+			Assert.assertTrue(scenario + " took " + micros + "us per implementation, the budget is " + microsBudget + "us", withinTime);
+			Assert.assertTrue(scenario + " allocated " + bytes + " bytes per implementation, the budget is " + bytesBudget, withinAllocation);
+		}
+	}
+
+	private static synchronized void writeReport() throws IOException {
+		JSONObject report = new JSONObject();
+		report.put("implementations", IMPLEMENTATIONS);
+		report.put("processors", Runtime.getRuntime().availableProcessors());
+		report.put("java", System.getProperty("java.version"));
+		report.put("maxMemory", Runtime.getRuntime().maxMemory());
+		report.put("scenarios", SCENARIOS);
+		FileUtils.writeStringToFile(REPORT, report.toString(2), "UTF-8");
+	}
+}
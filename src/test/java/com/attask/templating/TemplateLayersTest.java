@@ -0,0 +1,190 @@
+package com.attask.templating;
+
+import com.google.common.collect.ImmutableList;
+import hudson.model.ItemGroup;
+import hudson.model.TopLevelItem;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TemplateLayersTest {
+	private static final String ROOT = TemplateProject.class.getName();
+
+	@Test
+	public void test_merge_replacesOverriddenSections() throws IOException {
+		String parent = "<" + ROOT + "><description>base</description><builders><shell>make $$TARGET</shell></builders><publishers/></" + ROOT + ">";
+		String child = "<" + ROOT + "><description>child</description><builders><shell>ant</shell></builders><publishers><mail/></publishers></" + ROOT + ">";
+
+		String merged = merge(parent, child, "builders");
+		Assert.assertTrue(merged, merged.contains("<description>base</description><builders><shell>ant</shell></builders><publishers/>"));
+	}
+
+	@Test
+	public void test_merge_addsAndRemovesSections() throws IOException {
+		String parent = "<" + ROOT + "><description>base</description><scm/></" + ROOT + ">";
+		String child = "<" + ROOT + "><triggers><timer/></triggers></" + ROOT + ">";
+
+		String merged = merge(parent, child, "scm", "triggers");
+		Assert.assertTrue(merged, merged.contains("<" + ROOT + "><description>base</description><triggers><timer/></triggers></" + ROOT + ">"));
+	}
+
+	@Test
+	public void test_merge_dropsInheritanceProperty() throws IOException {
+		String property = TemplateInheritanceProperty.class.getName();
+		String parent = "<" + ROOT + "><properties><other/></properties></" + ROOT + ">";
+		String child = "<" + ROOT + "><properties><other/><" + property + "><parentTemplate>base</parentTemplate></" + property + "></properties></" + ROOT + ">";
+
+		String merged = merge(parent, child, "properties");
+		Assert.assertFalse(merged, merged.contains(property));
+		Assert.assertTrue(merged, merged.contains("<properties><other/></properties>"));
+	}
+
+	@Test
+	public void test_withoutTemplateOnlyProperties_dropsDefaults() throws IOException {
+		String property = TemplateDefaultsProperty.class.getName();
+		String config = "<" + ROOT + "><properties><other/><" + property + "><parameters>BRANCH=trunk</parameters></" + property + "></properties></" + ROOT + ">";
+
+		String stripped = new String(TemplateLayers.withoutTemplateOnlyProperties(config.getBytes("UTF-8")), "UTF-8");
+		Assert.assertFalse(stripped, stripped.contains(property));
+		Assert.assertTrue(stripped, stripped.contains("<properties><other/></properties>"));
+	}
+
+	@Test
+	public void test_withoutTemplateOnlyProperties_keepsEveryOtherByte() throws IOException {
+		String defaults = TemplateDefaultsProperty.class.getName();
+		String inheritance = TemplateInheritanceProperty.class.getName();
+		String header = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+				"<" + ROOT + ">\n" +
+				"  <description>caf\u00e9 &quot;$$BRANCH&quot; &lt;a href='x'&gt;</description>\n" +
+				"  <properties>\n" +
+				"    <other attribute=\"a > b\"/>\n";
+		String footer = "  </properties>\n" +
+				"  <!-- <properties><" + defaults + "/></properties> -->\n" +
+				"  <builders/>\n" +
+				"</" + ROOT + ">";
+		String config = header +
+				"    <" + defaults + ">\n" +
+				"      <parameters>BRANCH=trunk\n&lt;/" + defaults + "&gt;</parameters>\n" +
+				"    </" + defaults + ">\n" +
+				"    <" + inheritance + "/>\n" +
+				footer;
+
+		byte[] stripped = TemplateLayers.withoutTemplateOnlyProperties(config.getBytes("UTF-8"));
+		Assert.assertArrayEquals((header + footer).getBytes("UTF-8"), stripped);
+	}
+
+	@Test
+	public void test_withoutTemplateOnlyProperties_noProperties_returnsSameConfig() throws IOException {
+		byte[] config = ("<" + ROOT + "><properties><other/></properties></" + ROOT + ">").getBytes("UTF-8");
+		Assert.assertSame(config, TemplateLayers.withoutTemplateOnlyProperties(config));
+	}
+
+	@Test(expected = IOException.class)
+	public void test_withoutTemplateOnlyProperties_unclosedElement_fails() throws IOException {
+		TemplateLayers.withoutTemplateOnlyProperties(("<" + ROOT + "><properties>").getBytes("UTF-8"));
+	}
+
+	@Test(expected = IOException.class)
+	public void test_merge_refusesDoctype() throws IOException {
+		String parent = "<?xml version='1.0'?><!DOCTYPE project [<!ENTITY secret SYSTEM \"file:///etc/passwd\">]>" +
+				"<" + ROOT + "><description>&secret;</description></" + ROOT + ">";
+		merge(parent, "<" + ROOT + "/>", "builders");
+	}
+
+	@Test
+	public void test_get_cachedUntilSaved() throws IOException {
+		@SuppressWarnings("unchecked")
+		ItemGroup<TopLevelItem> hudson = mock(ItemGroup.class);
+		TemplateProject base = template(hudson, "layers_cached_base", null);
+		TemplateProject child = template(hudson, "layers_cached_child", "layers_cached_base");
+		TemplateSnapshots.getInstance().publish(base, config("base"));
+		TemplateSnapshots.getInstance().publish(child, config("child"));
+
+		TemplateLayers.Layer layer = TemplateLayers.getInstance().get(child);
+		Assert.assertSame(layer, TemplateLayers.getInstance().get(child));
+
+		TemplateSnapshots.getInstance().publish(child, config("child again"));
+		Assert.assertNotSame(layer, TemplateLayers.getInstance().get(child));
+	}
+
+	@Test
+	public void test_get_parentSaved_rebuildsLayer() throws IOException {
+		@SuppressWarnings("unchecked")
+		ItemGroup<TopLevelItem> hudson = mock(ItemGroup.class);
+		TemplateProject base = template(hudson, "layers_parent_base", null);
+		TemplateProject child = template(hudson, "layers_parent_child", "layers_parent_base");
+		TemplateSnapshots.getInstance().publish(base, config("first"));
+		TemplateSnapshots.getInstance().publish(child, config("child"));
+		TemplateLayers.Layer first = TemplateLayers.getInstance().get(child);
+
+		TemplateSnapshots.getInstance().publish(base, config("second"));
+		TemplateLayers.Layer second = TemplateLayers.getInstance().get(child);
+		Assert.assertTrue(second.getVersion() > first.getVersion());
+		Assert.assertTrue(IOUtils.toString(second.openStream(), "UTF-8").contains("<description>second</description>"));
+	}
+
+	@Test
+	public void test_get_cycle_fails() throws IOException {
+		@SuppressWarnings("unchecked")
+		ItemGroup<TopLevelItem> hudson = mock(ItemGroup.class);
+		TemplateProject first = template(hudson, "layers_cycle_first", "layers_cycle_second");
+		TemplateProject second = template(hudson, "layers_cycle_second", "layers_cycle_first");
+		when(first.serializeConfig()).thenReturn(config("first"));
+		when(second.serializeConfig()).thenReturn(config("second"));
+
+		try {
+			TemplateLayers.getInstance().get(first);
+			Assert.fail("Expected the cycle to be detected");
+		} catch (IOException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("cycle"));
+		}
+	}
+
+	@Test
+	public void test_getDescendants_groupedByGeneration() {
+		@SuppressWarnings("unchecked")
+		ItemGroup<TopLevelItem> hudson = mock(ItemGroup.class);
+		TemplateProject base = template(hudson, "base", null);
+		TemplateProject child_1 = template(hudson, "child_1", "base");
+		TemplateProject child_2 = template(hudson, "child_2", "base");
+		TemplateProject grandchild = template(hudson, "grandchild", "child_1");
+		TemplateProject unrelated = template(hudson, "unrelated", null);
+		when(hudson.getItems()).thenReturn(Arrays.<TopLevelItem>asList(grandchild, unrelated, child_2, base, child_1));
+		TemplateRegistry.rebuild(hudson);
+
+		List<List<TemplateProject>> descendants = TemplateLayers.getDescendants(hudson, base);
+		Assert.assertEquals(2, descendants.size());
+		Assert.assertEquals(ImmutableList.of(child_1, child_2), descendants.get(0));
+		Assert.assertEquals(ImmutableList.of(grandchild), descendants.get(1));
+		Assert.assertTrue(TemplateLayers.getDescendants(hudson, grandchild).isEmpty());
+	}
+
+	private static TemplateProject template(ItemGroup<TopLevelItem> hudson, String name, String parentName) {
+		TemplateProject template = mock(TemplateProject.class);
+		when(template.getName()).thenReturn(name);
+		when(template.getParent()).thenReturn(hudson);
+		when(hudson.getItem(name)).thenReturn(template);
+		if (parentName != null) {
+			when(template.getProperty(TemplateInheritanceProperty.class)).thenReturn(new TemplateInheritanceProperty(parentName, ""));
+		}
+		return template;
+	}
+
+	/**
+	 * A config whose description is the given text, with only the description overridden by extending templates.
+	 */
+	private static byte[] config(String description) throws IOException {
+		return ("<" + ROOT + "><description>" + description + "</description><builders/></" + ROOT + ">").getBytes("UTF-8");
+	}
+
+	private static String merge(String parent, String child, String... sections) throws IOException {
+		return new String(TemplateLayers.merge(parent.getBytes("UTF-8"), child.getBytes("UTF-8"), Arrays.asList(sections)), "UTF-8");
+	}
+}
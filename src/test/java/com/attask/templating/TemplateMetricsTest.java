@@ -0,0 +1,44 @@
+package com.attask.templating;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class TemplateMetricsTest {
+	private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+	@Test
+	public void test_forTemplate_registersMBeans() throws Exception {
+		TemplateMetrics metrics = TemplateMetrics.forTemplate("metrics_registered");
+		Assert.assertSame(metrics, TemplateMetrics.forTemplate("metrics_registered"));
+		Assert.assertTrue(server.isRegistered(name("metrics_registered", null)));
+		Assert.assertTrue(server.isRegistered(name("metrics_registered", TemplateMetrics.Stage.RENDER)));
+	}
+
+	@Test
+	public void test_remove_unregistersMBeans() throws Exception {
+		TemplateMetrics metrics = TemplateMetrics.forTemplate("metrics_removed");
+		TemplateMetrics.remove("metrics_removed");
+
+		Assert.assertFalse(server.isRegistered(name("metrics_removed", null)));
+		Assert.assertFalse(server.isRegistered(name("metrics_removed", TemplateMetrics.Stage.RENDER)));
+		Assert.assertFalse(TemplateMetrics.allToJSON().getJSONObject("templates").containsKey("metrics_removed"));
+		Assert.assertNotSame(metrics, TemplateMetrics.forTemplate("metrics_removed"));
+	}
+
+	@Test
+	public void test_forTemplate_nullName_notRegistered() throws Exception {
+		TemplateMetrics.forTemplate(null).error();
+
+		Assert.assertFalse(server.isRegistered(name("null", null)));
+		Assert.assertFalse(TemplateMetrics.allToJSON().getJSONObject("templates").containsKey("null"));
+	}
+
+	private static ObjectName name(String templateName, TemplateMetrics.Stage stage) throws Exception {
+		String name = "com.attask.templating:type=TemplateMetrics,template=" + ObjectName.quote(templateName);
+		return new ObjectName(stage == null ? name : name + ",stage=" + stage.name());
+	}
+}
@@ -0,0 +1,114 @@
+package com.attask.templating;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class TemplateParametersTest {
+	@Test
+	public void test_parse_readsPropertiesText() {
+		TemplateParameters parameters = TemplateParameters.parse("# the branch\nBRANCH=trunk\nURL=http://a=b\nPORT=8080 # comment\nnot a parameter\n");
+
+		Assert.assertEquals(ImmutableMap.of("BRANCH", "trunk", "URL", "http://a=b", "PORT", "8080"), parameters.getValues());
+		Assert.assertSame(parameters.getValues(), parameters.getOwnValues());
+		Assert.assertNull(parameters.getDefaults());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void test_parse_valuesAreImmutable() {
+		TemplateParameters.parse("BRANCH=trunk\n").getValues().put("BRANCH", "b1");
+	}
+
+	@Test
+	public void test_isCompilable_variableNames() {
+		Assert.assertTrue(TemplateParameters.parse("BRANCH=b1\nPORT_2=8081\n").isCompilable());
+		Assert.assertTrue(TemplateParameters.EMPTY.isCompilable());
+		Assert.assertFalse(TemplateParameters.parse("bad name=x\n").isCompilable());
+		Assert.assertFalse(TemplateParameters.parse("=x\n").isCompilable());
+		Assert.assertFalse(TemplateParameters.parse("caf\u00e9=x\n").isCompilable());
+	}
+
+	@Test
+	public void test_getReplacer_builtOnce() throws IOException {
+		TemplateParameters parameters = TemplateParameters.parse("bad name=x\n");
+		Assert.assertSame(parameters.getReplacer(), parameters.getReplacer());
+		Assert.assertSame(parameters.getTextReplacer(), parameters.getTextReplacer());
+		Assert.assertEquals("<a>x</a>", parameters.getTextReplacer().replace("<a>$$bad name</a>"));
+	}
+
+	@Test
+	public void test_parse_poolsNamesAndShortValues() {
+		TemplateParameters first = TemplateParameters.parse(new String("BRANCH=trunk\n"));
+		TemplateParameters second = TemplateParameters.parse(new String("BRANCH=trunk\n"));
+
+		String firstName = first.getValues().keySet().iterator().next();
+		String secondName = second.getValues().keySet().iterator().next();
+		Assert.assertSame(firstName, secondName);
+		Assert.assertSame(first.getValues().get("BRANCH"), second.getValues().get("BRANCH"));
+	}
+
+	@Test
+	public void test_parse_emptyIsShared() {
+		Assert.assertSame(TemplateParameters.EMPTY, TemplateParameters.parse(null));
+		Assert.assertSame(TemplateParameters.EMPTY, TemplateParameters.parse(""));
+	}
+
+	@Test
+	public void test_withDefaults_ownValuesWin() {
+		TemplateParameters defaults = TemplateParameters.parse("BRANCH=trunk\nOWNER=ops\n");
+		TemplateParameters parameters = TemplateParameters.parse("BRANCH=b1\nPORT=8081\n").withDefaults(defaults);
+
+		Assert.assertEquals("b1", parameters.getValues().get("BRANCH"));
+		Assert.assertEquals("ops", parameters.getValues().get("OWNER"));
+		Assert.assertEquals("8081", parameters.getValues().get("PORT"));
+		Assert.assertEquals(3, parameters.getValues().size());
+		Assert.assertEquals(3, parameters.getValues().entrySet().size());
+		Assert.assertEquals(2, parameters.getOwnValues().size());
+		Assert.assertSame(defaults, parameters.getDefaults());
+	}
+
+	@Test
+	public void test_withDefaults_sameDefaultsReturnsSameParameters() {
+		TemplateParameters defaults = TemplateParameters.parse("OWNER=ops\n");
+		TemplateParameters parameters = TemplateParameters.parse("BRANCH=b1\n");
+
+		Assert.assertSame(parameters, parameters.withDefaults(null));
+		Assert.assertSame(parameters, parameters.withDefaults(TemplateParameters.EMPTY));
+		TemplateParameters withDefaults = parameters.withDefaults(defaults);
+		Assert.assertSame(withDefaults, withDefaults.withDefaults(defaults));
+		Assert.assertSame(parameters.getOwnValues(), withDefaults.getOwnValues());
+	}
+
+	@Test
+	public void test_withDefaults_overriddenExpressionNotUsed() throws IOException {
+		TemplateParameters defaults = TemplateParameters.parse("DEPLOY=$${lower(BRANCH)}-deploy\nURL=$${DEPLOY}.example.com\n");
+		TemplateParameters parameters = TemplateParameters.parse("BRANCH=B1\nDEPLOY=custom\n").withDefaults(defaults);
+
+		Assert.assertFalse(parameters.getExpressions().containsKey("DEPLOY"));
+		Assert.assertEquals("<a>custom.example.com</a>", render(parameters, "<a>$$URL</a>"));
+		Assert.assertEquals("<a>b1-deploy.example.com</a>", render(TemplateParameters.parse("BRANCH=B1\n").withDefaults(defaults), "<a>$$URL</a>"));
+	}
+
+	@Test
+	public void test_withDefaults_notCompilableIfDefaultsAreNot() {
+		TemplateParameters defaults = TemplateParameters.parse("bad name=x\n");
+		Assert.assertFalse(TemplateParameters.parse("BRANCH=b1\n").withDefaults(defaults).isCompilable());
+	}
+
+	@Test
+	public void test_withoutDefaults_keepsOnlyDifferences() {
+		TemplateParameters defaults = TemplateParameters.parse("BRANCH=trunk\nOWNER=ops\n");
+
+		Assert.assertEquals("# team\nBRANCH=b1\nPORT=8081\n", TemplateParameters.withoutDefaults("# team\nBRANCH=b1\nOWNER=ops\nPORT=8081\n", defaults));
+		Assert.assertEquals("OWNER=ops\n", TemplateParameters.withoutDefaults("OWNER=ops\n", null));
+	}
+
+	private static String render(TemplateParameters parameters, String template) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		CompiledTemplate.compile(template.getBytes(CompiledTemplate.CHARSET)).render(parameters, outputStream);
+		return new String(outputStream.toByteArray(), CompiledTemplate.CHARSET);
+	}
+}
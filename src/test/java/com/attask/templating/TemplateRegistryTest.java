@@ -0,0 +1,62 @@
+package com.attask.templating;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import hudson.model.FreeStyleProject;
+import hudson.model.ItemGroup;
+import hudson.model.TopLevelItem;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+
+import static org.mockito.Mockito.when;
+
+public class TemplateRegistryTest {
+	@Mock private ItemGroup<TopLevelItem> hudson;
+	@Mock private TemplateProject template_b;
+	@Mock private TemplateProject template_a;
+	@Mock private TemplateImplementationProject implementation;
+	@Mock private FreeStyleProject someProject;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+
+		when(hudson.getItems()).thenReturn(Arrays.<TopLevelItem>asList(template_b, implementation, someProject, template_a));
+		when(template_a.getName()).thenReturn("template_a");
+		when(template_b.getName()).thenReturn("template_b");
+		when(hudson.getItem("template_a")).thenReturn(template_a);
+		when(hudson.getItem("template_b")).thenReturn(template_b);
+	}
+
+	@Test
+	public void test_build_registersOnlyTemplates() {
+		TemplateRegistry registry = TemplateRegistry.rebuild(hudson);
+		Assert.assertEquals(ImmutableSet.of("template_a", "template_b"), registry.getTemplateNames());
+		Assert.assertEquals(ImmutableList.of(template_a, template_b), registry.getTemplates(hudson));
+		Assert.assertFalse(registry.contains("someProject"));
+		Assert.assertFalse(registry.contains(null));
+	}
+
+	@Test
+	public void test_renameAndRemove() {
+		TemplateRegistry registry = TemplateRegistry.rebuild(hudson);
+		registry.rename("template_a", "renamed");
+		Assert.assertTrue(registry.contains("renamed"));
+		Assert.assertFalse(registry.contains("template_a"));
+
+		registry.remove("renamed");
+		Assert.assertEquals(ImmutableSet.of("template_b"), registry.getTemplateNames());
+	}
+
+	@Test
+	public void test_getTemplates_skipsMissingItems() {
+		TemplateRegistry registry = TemplateRegistry.rebuild(hudson);
+		registry.add("deleted");
+		Assert.assertEquals(ImmutableList.of(template_a, template_b), registry.getTemplates(hudson));
+	}
+}
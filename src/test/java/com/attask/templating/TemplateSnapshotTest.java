@@ -0,0 +1,62 @@
+package com.attask.templating;
+
+import com.attask.utils.HashUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class TemplateSnapshotTest {
+	private static final String TEMPLATE = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+			"<com.attask.templating.TemplateProject>\n" +
+			"  <description>$$BRANCH for $$OWNER and $$BRANCH</description>\n" +
+			"</com.attask.templating.TemplateProject>\n";
+
+	@Test
+	public void test_openStream_returnsConfig() throws IOException {
+		TemplateSnapshot snapshot = snapshot(TEMPLATE);
+		Assert.assertEquals(TEMPLATE, IOUtils.toString(snapshot.openStream(), CompiledTemplate.CHARSET.name()));
+		Assert.assertEquals(TEMPLATE, IOUtils.toString(snapshot.openStream(), CompiledTemplate.CHARSET.name()));
+	}
+
+	@Test
+	public void test_getHash() {
+		byte[] config = TEMPLATE.getBytes(CompiledTemplate.CHARSET);
+		Assert.assertEquals(HashUtils.sha1(config), snapshot(TEMPLATE).getHash());
+		Assert.assertFalse(snapshot(TEMPLATE).getHash().equals(snapshot(TEMPLATE + " ").getHash()));
+	}
+
+	@Test
+	public void test_getVariableNames() {
+		TemplateSnapshot snapshot = snapshot(TEMPLATE);
+		Assert.assertEquals(Arrays.asList("BRANCH", "OWNER"), snapshot.getVariableNames());
+		Assert.assertSame(snapshot.getCompiled(), snapshot.getCompiled());
+	}
+
+	@Test
+	public void test_openStream_changingReadBytesDoesNotChangeSnapshot() throws IOException {
+		byte[] config = TEMPLATE.getBytes(CompiledTemplate.CHARSET);
+		TemplateSnapshot snapshot = new TemplateSnapshot("template", 1, config);
+		byte[] read = IOUtils.toByteArray(snapshot.openStream());
+		read[0] = 'x';
+		Assert.assertEquals(TEMPLATE, IOUtils.toString(snapshot.openStream(), CompiledTemplate.CHARSET.name()));
+	}
+
+	@Test
+	public void test_getDefaults_changesHash() {
+		byte[] config = TEMPLATE.getBytes(CompiledTemplate.CHARSET);
+		TemplateSnapshot withDefaults = new TemplateSnapshot("template", 1, config, "OWNER=ops\n");
+		TemplateSnapshot otherDefaults = new TemplateSnapshot("template", 2, config, "OWNER=dev\n");
+
+		Assert.assertEquals("ops", withDefaults.getDefaults().getValues().get("OWNER"));
+		Assert.assertTrue(snapshot(TEMPLATE).getDefaults().getValues().isEmpty());
+		Assert.assertFalse(withDefaults.getHash().equals(snapshot(TEMPLATE).getHash()));
+		Assert.assertFalse(withDefaults.getHash().equals(otherDefaults.getHash()));
+	}
+
+	private static TemplateSnapshot snapshot(String config) {
+		return new TemplateSnapshot("template", 1, config.getBytes(CompiledTemplate.CHARSET));
+	}
+}
@@ -0,0 +1,146 @@
+package com.attask.templating;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.Mockito.*;
+
+public class TemplateSnapshotsTest {
+	private final TemplateSnapshots snapshots = TemplateSnapshots.getInstance();
+
+	@Test
+	public void test_get_returnsPublishedConfig() throws IOException {
+		// No root directory, so reading config.xml would fail
+		TemplateProject template = template("snapshots_published");
+		snapshots.publish(template, config(1));
+
+		Assert.assertEquals(new String(config(1), CompiledTemplate.CHARSET), IOUtils.toString(snapshots.get(template).openStream(), CompiledTemplate.CHARSET.name()));
+	}
+
+	@Test
+	public void test_publish_laterSaveWins() throws IOException {
+		TemplateProject template = template("snapshots_later");
+		TemplateSnapshot first = snapshots.publish(template, config(1));
+		TemplateSnapshot second = snapshots.publish(template, config(2));
+
+		Assert.assertTrue(second.getVersion() > first.getVersion());
+		Assert.assertSame(second, snapshots.get(template));
+		Assert.assertEquals(2, revision(snapshots.get(template)));
+	}
+
+	@Test
+	public void test_get_whilePublishing_neverGoesBack() throws Exception {
+		final TemplateProject template = template("snapshots_concurrent");
+		final int revisions = 200;
+		snapshots.publish(template, config(0));
+
+		final AtomicBoolean publishing = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> readers = new ArrayList<Future<Void>>();
+			for (int i = 0; i < 3; i++) {
+				readers.add(executor.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						long lastVersion = 0;
+						int lastRevision = 0;
+						while (publishing.get()) {
+							TemplateSnapshot snapshot = snapshots.get(template);
+							Assert.assertTrue(snapshot.getVersion() >= lastVersion);
+							Assert.assertTrue(revision(snapshot) >= lastRevision);
+							lastVersion = snapshot.getVersion();
+							lastRevision = revision(snapshot);
+						}
+						return null;
+					}
+				}));
+			}
+
+			for (int revision = 1; revision <= revisions; revision++) {
+				synchronized (template) {
+					snapshots.publish(template, config(revision));
+				}
+			}
+			publishing.set(false);
+			for (Future<Void> reader : readers) {
+				reader.get(5, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals(revisions, revision(snapshots.get(template)));
+	}
+
+	@Test
+	public void test_get_unsavedTemplate_serializedOnFirstUseOnly() throws IOException {
+		TemplateProject template = template("snapshots_lazy");
+		when(template.serializeConfig()).thenReturn(config(1));
+
+		TemplateSnapshot snapshot = snapshots.get(template);
+		Assert.assertEquals(1, revision(snapshot));
+		Assert.assertSame(snapshot, snapshots.get(template));
+		verify(template, times(1)).serializeConfig();
+	}
+
+	@Test
+	public void test_get_brokenTemplate_onlyFailsItsOwnSnapshot() throws IOException {
+		TemplateProject broken = template("snapshots_broken");
+		when(broken.serializeConfig()).thenThrow(new IOException("Broken"));
+		TemplateProject working = template("snapshots_working");
+		when(working.serializeConfig()).thenReturn(config(1));
+
+		try {
+			snapshots.get(broken);
+			Assert.fail("Expected the broken template to fail");
+		} catch (IOException e) {
+			Assert.assertEquals("Broken", e.getMessage());
+		}
+		Assert.assertEquals(1, revision(snapshots.get(working)));
+
+		// Fixing and saving the template makes it usable again
+		snapshots.publish(broken, config(2));
+		Assert.assertEquals(2, revision(snapshots.get(broken)));
+	}
+
+	@Test
+	public void test_remove_serializesTemplateAgain() throws IOException {
+		TemplateProject template = template("snapshots_removed");
+		snapshots.publish(template, config(1));
+		snapshots.remove("snapshots_removed");
+
+		when(template.serializeConfig()).thenReturn(config(2));
+		Assert.assertEquals(2, revision(snapshots.get(template)));
+	}
+
+	@Test
+	public void test_get_withoutDefaults_dropsTemplateOnlyProperties() throws IOException {
+		TemplateProject template = template("snapshots_templateOnly");
+		String property = TemplateInheritanceProperty.class.getName();
+		snapshots.publish(template, ("<project><properties><" + property + "><parentTemplate>base</parentTemplate></" + property + "></properties>" +
+				"<description>1</description></project>").getBytes(CompiledTemplate.CHARSET));
+
+		String config = IOUtils.toString(snapshots.get(template).openStream(), CompiledTemplate.CHARSET.name());
+		Assert.assertEquals("<project><properties></properties><description>1</description></project>", config);
+	}
+
+	private static TemplateProject template(String name) {
+		TemplateProject template = mock(TemplateProject.class);
+		when(template.getName()).thenReturn(name);
+		return template;
+	}
+
+	private static byte[] config(int revision) {
+		return ("<?xml version='1.0' encoding='UTF-8'?>\n<project><description>" + revision + "</description></project>").getBytes(CompiledTemplate.CHARSET);
+	}
+
+	private static int revision(TemplateSnapshot snapshot) throws IOException {
+		String config = IOUtils.toString(snapshot.openStream(), CompiledTemplate.CHARSET.name());
+		return Integer.parseInt(config.substring(config.indexOf("<description>") + "<description>".length(), config.indexOf("</description>")));
+	}
+}
@@ -0,0 +1,106 @@
+package com.attask.templating;
+
+import hudson.FilePath;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class WorkspaceSeederTest {
+	private File root;
+	private File reference;
+	private File workspace;
+
+	@Before
+	public void setUp() throws IOException {
+		Assume.assumeTrue(File.separatorChar == '/');
+		root = File.createTempFile("seeding", "");
+		root.delete();
+		reference = new File(root, "reference");
+		workspace = new File(root, "workspace");
+		FileUtils.writeStringToFile(new File(reference, "src/Main.java"), "class Main {}");
+		FileUtils.writeStringToFile(new File(reference, ".git/HEAD"), "ref: refs/heads/master");
+		workspace.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (root != null) {
+			FileUtils.deleteDirectory(root);
+		}
+	}
+
+	@Test
+	public void test_copy_reflink_copiesEverything() throws Exception {
+		new WorkspaceSeeder.Copy(workspace.getAbsolutePath(), WorkspaceSeedingProperty.Mode.REFLINK).invoke(reference, null);
+
+		Assert.assertEquals("class Main {}", FileUtils.readFileToString(new File(workspace, "src/Main.java")));
+		Assert.assertEquals("ref: refs/heads/master", FileUtils.readFileToString(new File(workspace, ".git/HEAD")));
+
+		FileUtils.writeStringToFile(new File(workspace, "src/Main.java"), "class Changed {}");
+		Assert.assertEquals("class Main {}", FileUtils.readFileToString(new File(reference, "src/Main.java")));
+	}
+
+	@Test
+	public void test_copy_hardlink_onlySharesGitObjects() throws Exception {
+		FileUtils.writeStringToFile(new File(reference, ".git/objects/ab/cdef"), "object");
+		new WorkspaceSeeder.Copy(workspace.getAbsolutePath(), WorkspaceSeedingProperty.Mode.HARDLINK).invoke(reference, null);
+
+		FileUtils.writeStringToFile(new File(reference, "src/Main.java"), "class Changed {}");
+		FileUtils.writeStringToFile(new File(reference, ".git/HEAD"), "ref: refs/heads/other");
+		Assert.assertEquals("class Main {}", FileUtils.readFileToString(new File(workspace, "src/Main.java")));
+		Assert.assertEquals("ref: refs/heads/master", FileUtils.readFileToString(new File(workspace, ".git/HEAD")));
+
+		// Written in place only to show the object is the same file, Git itself never does this
+		FileUtils.writeStringToFile(new File(reference, ".git/objects/ab/cdef"), "changed");
+		Assert.assertEquals("changed", FileUtils.readFileToString(new File(workspace, ".git/objects/ab/cdef")));
+
+		FileUtils.writeStringToFile(new File(workspace, ".git/objects/ab/added"), "added");
+		Assert.assertFalse(new File(reference, ".git/objects/ab/added").exists());
+	}
+
+	@Test
+	public void test_copy_hardlink_withoutGitObjects_copiesEverything() throws Exception {
+		new WorkspaceSeeder.Copy(workspace.getAbsolutePath(), WorkspaceSeedingProperty.Mode.HARDLINK).invoke(reference, null);
+
+		FileUtils.writeStringToFile(new File(reference, "src/Main.java"), "class Changed {}");
+		Assert.assertEquals("class Main {}", FileUtils.readFileToString(new File(workspace, "src/Main.java")));
+		Assert.assertEquals("ref: refs/heads/master", FileUtils.readFileToString(new File(workspace, ".git/HEAD")));
+	}
+
+	@Test
+	public void test_copy_interrupted_emptiesWorkspace() throws Exception {
+		FileUtils.writeStringToFile(new File(reference, ".git/objects/ab/cdef"), "object");
+		// The first cp runs before the interrupt is noticed, so the workspace is left half copied
+		Thread.currentThread().interrupt();
+		try {
+			WorkspaceSeeder.copy(new FilePath(reference), new FilePath(workspace), WorkspaceSeedingProperty.Mode.HARDLINK);
+			Assert.fail("expected the copy to be interrupted");
+		} catch (InterruptedException e) {
+			// expected
+		} finally {
+			Thread.interrupted();
+		}
+
+		Assert.assertTrue(workspace.isDirectory());
+		Assert.assertEquals(0, workspace.list().length);
+	}
+
+	@Test(expected = IOException.class)
+	public void test_copy_missingReference() throws Exception {
+		new WorkspaceSeeder.Copy(workspace.getAbsolutePath(), WorkspaceSeedingProperty.Mode.REFLINK).invoke(new File(root, "missing"), null);
+	}
+
+	@Test
+	public void test_parseMode() {
+		Assert.assertEquals(WorkspaceSeedingProperty.Mode.HARDLINK, WorkspaceSeedingProperty.parseMode("hardlink"));
+		Assert.assertEquals(WorkspaceSeedingProperty.Mode.REFLINK, WorkspaceSeedingProperty.parseMode("REFLINK"));
+		Assert.assertEquals(WorkspaceSeedingProperty.Mode.REFLINK, WorkspaceSeedingProperty.parseMode(null));
+		Assert.assertEquals(WorkspaceSeedingProperty.Mode.REFLINK, WorkspaceSeedingProperty.parseMode("symlink"));
+	}
+}
@@ -0,0 +1,64 @@
+package com.attask.templating;
+
+import com.attask.utils.TokenReplacer;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class XmlTemplateRendererTest {
+	private static final String HEADER = "<?xml version='1.0' encoding='UTF-8'?>\n";
+
+	@Test
+	public void test_render_escapesValuesInTextAndAttributes() throws IOException {
+		String template = HEADER + "<project a=\"x$$VALUE\"><description>$$VALUE</description></project>";
+		String rendered = render(template, ImmutableMap.of("VALUE", "<a & \"b\"\nc>"));
+		Assert.assertEquals(HEADER + "<project a=\"x&lt;a &amp; &quot;b&quot;&#10;c&gt;\"><description>&lt;a &amp; \"b\"\nc&gt;</description></project>\n", rendered);
+	}
+
+	@Test
+	public void test_render_renamesOnlyTheRootElement() throws IOException {
+		String root = TemplateProject.class.getName();
+		String template = HEADER + "<" + root + "><description>" + root + "&gt;</description><" + root + "/></" + root + ">";
+		String rendered = render(template, ImmutableMap.<String, String>of());
+
+		String implementationRoot = TemplateImplementationProject.class.getName();
+		Assert.assertEquals(HEADER + "<" + implementationRoot + "><description>" + root + "&gt;</description><" + root + "/></" + implementationRoot + ">\n", rendered);
+	}
+
+	@Test
+	public void test_render_replacesInsideCdataAndKeepsComments() throws IOException {
+		String template = HEADER + "<!-- $$BRANCH -->\n<project><command><![CDATA[echo $$BRANCH < 1]]></command><empty></empty></project>";
+		String rendered = render(template, ImmutableMap.of("BRANCH", "b1"));
+		Assert.assertEquals(HEADER + "<!-- $$BRANCH -->\n<project><command>echo b1 &lt; 1</command><empty/></project>\n", rendered);
+	}
+
+	@Test
+	public void test_render_evaluatesExpressions() throws IOException {
+		String template = HEADER + "<project a=\"$${lower(NAME)}\"><description>$${TITLE:-a &amp; b} $${unknown(NAME)} $$NAME.x</description></project>";
+		Map<String, String> parameters = ImmutableMap.of("NAME", "\"X\" < Y", "NAME.x", "dotted");
+		String rendered = render(template, parameters);
+		Assert.assertEquals(HEADER + "<project a=\"&quot;x&quot; &lt; y\"><description>a &amp; b $${unknown(NAME)} dotted</description></project>\n", rendered);
+	}
+
+	@Test(expected = IOException.class)
+	public void test_render_malformedTemplate() throws IOException {
+		render(HEADER + "<project><description></project>", ImmutableMap.<String, String>of());
+	}
+
+	private static String render(String template, Map<String, String> parameters) throws IOException {
+		Map<String, String> replacements = new LinkedHashMap<String, String>();
+		for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+			replacements.put("$$" + parameter.getKey(), parameter.getValue());
+		}
+		Expression.Context context = new Expression.Context(parameters, TemplateParameters.parseExpressions(parameters));
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		XmlTemplateRenderer.render(new ByteArrayInputStream(template.getBytes("UTF-8")), new TokenReplacer(replacements), context, outputStream);
+		return outputStream.toString("UTF-8");
+	}
+}
@@ -0,0 +1,55 @@
+package com.attask.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveRateLimiterTest {
+	@Test
+	public void test_acquire_noLimit() throws InterruptedException {
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(0, 0);
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			limiter.acquire();
+		}
+		Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+	}
+
+	@Test
+	public void test_acquire_keepsToTheRate() throws InterruptedException {
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(20, 0);
+		long start = System.nanoTime();
+		for (int i = 0; i < 5; i++) {
+			limiter.acquire();
+		}
+		// The first operation starts straight away, the next four wait 50ms each.
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Assert.assertTrue("" + elapsed, elapsed >= 190);
+	}
+
+	@Test
+	public void test_record_backsOffWhileSlow() {
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(0, 100);
+		limiter.record(TimeUnit.MILLISECONDS.toNanos(10));
+		Assert.assertEquals(0, limiter.getBackoffMillis());
+
+		for (int i = 0; i < 10; i++) {
+			limiter.record(TimeUnit.MILLISECONDS.toNanos(1000));
+		}
+		long backoff = limiter.getBackoffMillis();
+		Assert.assertTrue("" + backoff, backoff > 10);
+
+		for (int i = 0; i < 50; i++) {
+			limiter.record(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		Assert.assertEquals(0, limiter.getBackoffMillis());
+	}
+
+	@Test
+	public void test_record_neverBacksOffWithoutAThreshold() {
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(0, 0);
+		limiter.record(TimeUnit.SECONDS.toNanos(10));
+		Assert.assertEquals(0, limiter.getBackoffMillis());
+	}
+}
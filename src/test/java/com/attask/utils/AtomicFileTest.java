@@ -0,0 +1,47 @@
+package com.attask.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class AtomicFileTest {
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("atomic", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void test_replace_existingFile() throws IOException {
+		File file = new File(directory, "config.xml");
+		FileUtils.writeStringToFile(file, "old");
+
+		AtomicFile.replace(file, "new".getBytes("UTF-8"));
+
+		Assert.assertEquals("new", FileUtils.readFileToString(file));
+		Assert.assertArrayEquals(new String[]{"config.xml"}, directory.list());
+	}
+
+	@Test
+	public void test_replace_missingFile_createsIt() throws IOException {
+		File file = new File(directory, "config.xml");
+
+		AtomicFile.replace(file, "new".getBytes("UTF-8"));
+
+		Assert.assertEquals("new", FileUtils.readFileToString(file));
+		Assert.assertArrayEquals(new String[]{"config.xml"}, directory.list());
+	}
+}
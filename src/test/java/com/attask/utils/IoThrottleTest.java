@@ -0,0 +1,55 @@
+package com.attask.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class IoThrottleTest {
+	@Test
+	public void test_acquire_noLimit() throws InterruptedException {
+		IoThrottle throttle = new IoThrottle(0);
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			throttle.acquire(1024 * 1024);
+		}
+		Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+	}
+
+	@Test
+	public void test_acquire_waitsForTheRate() throws InterruptedException {
+		IoThrottle throttle = new IoThrottle(10000);
+		long start = System.nanoTime();
+		throttle.acquire(1000);
+		throttle.acquire(1000);
+		throttle.acquire(1000);
+		// The first read starts straight away, the next two wait 100ms each.
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Assert.assertTrue("" + elapsed, elapsed >= 190);
+	}
+
+	@Test
+	public void test_acquire_sharedBetweenThreads() throws InterruptedException {
+		final IoThrottle throttle = new IoThrottle(10000);
+		Thread[] threads = new Thread[4];
+		long start = System.nanoTime();
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						throttle.acquire(1000);
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		Assert.assertTrue("" + elapsed, elapsed >= 290);
+	}
+}
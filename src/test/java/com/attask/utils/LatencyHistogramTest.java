@@ -0,0 +1,42 @@
+package com.attask.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+	@Test
+	public void test_empty_reportsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getMeanMillis(), 0);
+		Assert.assertEquals(0, histogram.get99thPercentileMillis(), 0);
+		Assert.assertTrue(histogram.getBuckets().isEmpty());
+	}
+
+	@Test
+	public void test_record_percentilesWithinBucket() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(1000000); // 1ms
+		}
+		histogram.record(100000000); // 100ms
+
+		Assert.assertEquals(100, histogram.getCount());
+		Assert.assertEquals(100, histogram.getMaxMillis(), 0.001);
+		Assert.assertEquals(1.99, histogram.getMeanMillis(), 0.001);
+
+		double median = histogram.get50thPercentileMillis();
+		Assert.assertTrue("median was " + median, median >= 1 && median <= 2.1);
+		Assert.assertEquals(median, histogram.get99thPercentileMillis(), 0);
+		Assert.assertEquals(100, histogram.getPercentileMillis(1), 0.001);
+	}
+
+	@Test
+	public void test_record_negativeCountsAsZero() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+		Assert.assertEquals(1, histogram.getCount());
+		Assert.assertEquals(0, histogram.getMaxMillis(), 0);
+		Assert.assertEquals(Long.valueOf(1), histogram.getBuckets().get(1L));
+	}
+}
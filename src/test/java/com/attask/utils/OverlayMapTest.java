@@ -0,0 +1,36 @@
+package com.attask.utils;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class OverlayMapTest {
+	@Test
+	public void test_get_overlayHidesBase() {
+		Map<String, String> map = new OverlayMap<String, String>(ImmutableMap.of("a", "1", "b", "2"), ImmutableMap.of("b", "base", "c", "3"));
+
+		Assert.assertEquals("1", map.get("a"));
+		Assert.assertEquals("2", map.get("b"));
+		Assert.assertEquals("3", map.get("c"));
+		Assert.assertNull(map.get("d"));
+		Assert.assertTrue(map.containsKey("c"));
+	}
+
+	@Test
+	public void test_entrySet_eachKeyOnce() {
+		Map<String, String> map = new OverlayMap<String, String>(ImmutableMap.of("a", "1", "b", "2"), ImmutableMap.of("b", "base", "c", "3"));
+
+		Assert.assertEquals(3, map.size());
+		Map<String, String> copy = new HashMap<String, String>(map);
+		Assert.assertEquals(ImmutableMap.of("a", "1", "b", "2", "c", "3"), copy);
+		Assert.assertEquals(copy, map);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void test_put_readOnly() {
+		new OverlayMap<String, String>(ImmutableMap.of("a", "1"), ImmutableMap.of("b", "2")).put("c", "3");
+	}
+}
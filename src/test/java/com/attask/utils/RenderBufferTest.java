@@ -0,0 +1,87 @@
+package com.attask.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class RenderBufferTest {
+	@Test
+	public void test_acquire_reusesReleasedBuffer() {
+		RenderBuffer first = RenderBuffer.acquire();
+		first.write(1);
+		first.release();
+
+		RenderBuffer second = RenderBuffer.acquire();
+		try {
+			Assert.assertSame(first, second);
+			Assert.assertEquals(0, second.size());
+		} finally {
+			second.release();
+		}
+	}
+
+	@Test
+	public void test_acquire_whileInUse_returnsOtherBuffer() {
+		RenderBuffer first = RenderBuffer.acquire();
+		RenderBuffer second = RenderBuffer.acquire();
+		try {
+			Assert.assertNotSame(first, second);
+		} finally {
+			first.release();
+			second.release();
+		}
+	}
+
+	@Test
+	public void test_release_largeBuffer_notRetained() {
+		RenderBuffer large = RenderBuffer.acquire();
+		large.write(new byte[RenderBuffer.MAX_RETAINED_SIZE + 1], 0, RenderBuffer.MAX_RETAINED_SIZE + 1);
+		large.release();
+
+		RenderBuffer[] acquired = new RenderBuffer[RenderBuffer.POOL_SIZE + 1];
+		try {
+			for (int i = 0; i < acquired.length; i++) {
+				acquired[i] = RenderBuffer.acquire();
+				Assert.assertNotSame(large, acquired[i]);
+				Assert.assertTrue(acquired[i].getBuffer().length <= RenderBuffer.MAX_RETAINED_SIZE);
+			}
+		} finally {
+			for (RenderBuffer buffer : acquired) {
+				if (buffer != null) {
+					buffer.release();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void test_release_twice_onlyPooledOnce() {
+		RenderBuffer buffer = RenderBuffer.acquire();
+		buffer.release();
+		buffer.release();
+
+		RenderBuffer first = RenderBuffer.acquire();
+		RenderBuffer second = RenderBuffer.acquire();
+		try {
+			Assert.assertNotSame(first, second);
+		} finally {
+			first.release();
+			second.release();
+		}
+	}
+
+	@Test
+	public void test_toInputStream_readsContents() throws IOException {
+		RenderBuffer buffer = RenderBuffer.acquire();
+		try {
+			byte[] contents = "<project/>".getBytes("UTF-8");
+			buffer.write(contents, 0, contents.length);
+			Assert.assertEquals("<project/>", IOUtils.toString(buffer.toInputStream(), "UTF-8"));
+			Assert.assertEquals(HashUtils.sha1(contents), buffer.sha1());
+		} finally {
+			buffer.release();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.attask.utils;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+public class TokenReplacerTest {
+	private static final Map<String, String> REPLACEMENTS = ImmutableMap.of(
+			"com.attask.templating.TemplateProject>", "com.attask.templating.TemplateImplementationProject>",
+			"$$BRANCH", "master",
+			"$$BRANCH_NAME", "release",
+			"$$URL", "http://example.com/$1\\"
+	);
+
+	@Test
+	public void test_replace_multipleTokensOnOneLine() {
+		TokenReplacer replacer = new TokenReplacer(REPLACEMENTS);
+		Assert.assertEquals("<a>master</a><b>release</b>", replacer.replace("<a>$$BRANCH</a><b>$$BRANCH_NAME</b>"));
+	}
+
+	@Test
+	public void test_replace_longestTokenWins() {
+		TokenReplacer replacer = new TokenReplacer(REPLACEMENTS);
+		Assert.assertEquals("release-masterX", replacer.replace("$$BRANCH_NAME-$$BRANCHX"));
+	}
+
+	@Test
+	public void test_replace_replacementIsLiteral() {
+		TokenReplacer replacer = new TokenReplacer(REPLACEMENTS);
+		Assert.assertEquals("http://example.com/$1\\", replacer.replace("$$URL"));
+	}
+
+	@Test
+	public void test_replace_replacementIsNotExpandedAgain() throws IOException {
+		TokenReplacer replacer = new TokenReplacer(ImmutableMap.of("$$REF", "$$BRANCH-$1\\", "$$BRANCH", "master"));
+		Assert.assertEquals("$$BRANCH-$1\\ master", replacer.replace("$$REF $$BRANCH"));
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		UnixUtils.sed(Channels.newChannel(new ByteArrayInputStream("$$REF $$BRANCH".getBytes("UTF-8"))), Channels.newChannel(outputStream), replacer.encode(Charset.forName("UTF-8")));
+		Assert.assertEquals("$$BRANCH-$1\\ master", outputStream.toString("UTF-8"));
+	}
+
+	@Test
+	public void test_replace_partialTokenAtEnd() {
+		TokenReplacer replacer = new TokenReplacer(REPLACEMENTS);
+		Assert.assertEquals("abc $$BRAN", replacer.replace("abc $$BRAN"));
+		Assert.assertEquals("$", replacer.replace("$"));
+		Assert.assertEquals("", replacer.replace(""));
+	}
+
+	@Test
+	public void test_sed_sameOutputAsPatternSed() throws IOException {
+		String input = "<?xml version='1.0'?>\n<com.attask.templating.TemplateProject>\n  <a>$$BRANCH</a>\n\n  <b>$$UNKNOWN</b>\n</com.attask.templating.TemplateProject>\n";
+
+		ImmutableMap.Builder<Pattern, String> patterns = ImmutableMap.builder();
+		patterns.put(Pattern.compile("com.attask.templating.TemplateProject>"), "com.attask.templating.TemplateImplementationProject>");
+		patterns.put(Pattern.compile("\\$\\$BRANCH"), "master");
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		UnixUtils.sed(new ByteArrayInputStream(input.getBytes()), expected, patterns.build());
+
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		UnixUtils.sed(Channels.newChannel(new ByteArrayInputStream(input.getBytes("UTF-8"))), Channels.newChannel(actual), new TokenReplacer(ImmutableMap.of(
+				"com.attask.templating.TemplateProject>", "com.attask.templating.TemplateImplementationProject>",
+				"$$BRANCH", "master"
+		)).encode(Charset.forName("UTF-8")));
+
+		Assert.assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test
+	public void test_sedFile_nonAsciiAndBufferBoundaries() throws IOException {
+		StringBuilder input = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			input.append("<a>\u00e9$$BRANCH\u65e5$$BRANCH_NAME</a>$$\n");
+		}
+		TokenReplacer replacer = new TokenReplacer(ImmutableMap.of("$$BRANCH", "m\u00e4ster", "$$BRANCH_NAME", "release"));
+
+		for (String charsetName : new String[]{"UTF-8", "UTF-16"}) {
+			Charset charset = Charset.forName(charsetName);
+			File inputFile = File.createTempFile("template", ".xml");
+			File outputFile = File.createTempFile("implementation", ".xml");
+			try {
+				FileUtils.writeStringToFile(inputFile, input.toString(), charsetName);
+				UnixUtils.sed(inputFile, outputFile, replacer, charset);
+				Assert.assertEquals(replacer.replace(input), FileUtils.readFileToString(outputFile, charsetName));
+			} finally {
+				inputFile.delete();
+				outputFile.delete();
+			}
+		}
+	}
+}